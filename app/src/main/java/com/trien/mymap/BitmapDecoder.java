@@ -0,0 +1,171 @@
+package com.trien.mymap;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes drawable resources straight to a target size.
+ * The image bounds are read first, the image is then decoded with the largest power of two
+ * inSampleSize that keeps it at least as big as the target, into a pooled inBitmap buffer when one
+ * fits, and finally scaled to the exact target size. Full resolution images are never decoded only
+ * to be scaled down and thrown away.
+ */
+final class BitmapDecoder {
+
+    /**
+     * Maximum bytes of decode buffers kept for reuse.
+     */
+    private static final int POOL_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final BitmapPool sPool = new BitmapPool(POOL_MAX_BYTES);
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode a drawable scaled to the given width, keeping its aspect ratio.
+     */
+    static Bitmap decodeToWidth(Resources resources, int drawable, int targetWidth) {
+        BitmapFactory.Options options = decodeBounds(resources, drawable);
+        int targetHeight = Math.max(1, options.outHeight * targetWidth / options.outWidth);
+        return decode(resources, drawable, options, targetWidth, targetHeight);
+    }
+
+    /**
+     * Decode a drawable scaled by a factor of its density scaled size, which is the size
+     * Resources.getDrawable() would have loaded it at.
+     */
+    static Bitmap decodeScaled(Resources resources, int drawable, float scale) {
+        BitmapFactory.Options options = decodeBounds(resources, drawable);
+        // Drawables live in the mdpi drawable folder, so they are scaled up by the screen density.
+        float densityScale = resources.getDisplayMetrics().densityDpi / (float) DisplayMetrics.DENSITY_DEFAULT;
+        int targetWidth = Math.max(1, (int) ((int) (options.outWidth * densityScale) * scale));
+        int targetHeight = Math.max(1, (int) ((int) (options.outHeight * densityScale) * scale));
+        return decode(resources, drawable, options, targetWidth, targetHeight);
+    }
+
+    /**
+     * Read the unscaled image size only, without allocating any pixels.
+     */
+    private static BitmapFactory.Options decodeBounds(Resources resources, int drawable) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(resources, drawable, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new Resources.NotFoundException("Cannot decode drawable " + drawable);
+        }
+        return options;
+    }
+
+    private static Bitmap decode(Resources resources, int drawable, BitmapFactory.Options options,
+                                 int targetWidth, int targetHeight) {
+        long start = LoadMetrics.beginSpan(LoadMetrics.SPAN_BITMAP_SCALE);
+        try {
+            Bitmap bitmap = decodeSampled(resources, drawable, options, targetWidth, targetHeight);
+            LoadMetrics.increment(LoadMetrics.BITMAP_BYTES, bitmap.getAllocationByteCount());
+            return bitmap;
+        } finally {
+            LoadMetrics.endSpan(LoadMetrics.SPAN_BITMAP_SCALE, start);
+        }
+    }
+
+    private static Bitmap decodeSampled(Resources resources, int drawable, BitmapFactory.Options options,
+                                        int targetWidth, int targetHeight) {
+        int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = sPool.get(sampledWidth * sampledHeight * 4);
+
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeResource(resources, drawable, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled buffer could not be reused for this image, decode into a new one.
+            sPool.put(options.inBitmap);
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeResource(resources, drawable, options);
+        }
+        if (sampled == null) {
+            throw new Resources.NotFoundException("Cannot decode drawable " + drawable);
+        }
+
+        if (sampled.getWidth() == targetWidth && sampled.getHeight() == targetHeight) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, targetWidth, targetHeight, false);
+        // The sampled bitmap is only an intermediate buffer, keep it for the next decode.
+        sPool.put(sampled);
+        return scaled;
+    }
+
+    /**
+     * Largest power of two sample size that keeps both dimensions at or above the target.
+     */
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Small pool of mutable bitmaps reused as inBitmap decode buffers.
+     * Since KitKat any bitmap whose allocation is large enough can be reused, regardless of its size.
+     */
+    private static final class BitmapPool {
+
+        private final int mMaxBytes;
+        private final List<Bitmap> mBitmaps = new ArrayList<>();
+        private int mBytes;
+
+        BitmapPool(int maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        /**
+         * Take the smallest pooled bitmap that can hold the given bytes, or null.
+         */
+        synchronized Bitmap get(int bytes) {
+            Bitmap best = null;
+            for (Bitmap bitmap : mBitmaps) {
+                if (bitmap.getAllocationByteCount() >= bytes
+                        && (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+                    best = bitmap;
+                }
+            }
+            if (best != null) {
+                mBitmaps.remove(best);
+                mBytes -= best.getAllocationByteCount();
+            }
+            return best;
+        }
+
+        synchronized void put(Bitmap bitmap) {
+            if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+                return;
+            }
+            int bytes = bitmap.getAllocationByteCount();
+            if (bytes > mMaxBytes) {
+                return;
+            }
+            // Make room by dropping the oldest buffers.
+            while (mBytes + bytes > mMaxBytes && !mBitmaps.isEmpty()) {
+                mBytes -= mBitmaps.remove(0).getAllocationByteCount();
+            }
+            mBitmaps.add(bitmap);
+            mBytes += bytes;
+        }
+    }
+}
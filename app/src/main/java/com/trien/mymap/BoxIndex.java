@@ -0,0 +1,145 @@
+package com.trien.mymap;
+
+/**
+ * Packed uniform grid over axis aligned boxes, answering box overlap queries.
+ * Like {@link GridIndex}, box ids are sorted by grid cell once at build time (a counting sort), a box
+ * being in every cell it overlaps, so the index is two flat int arrays: the start of every cell and
+ * the ids of all boxes in cell order. A query only visits the cells overlapping the query box, and
+ * reports a box from the first of them it overlaps, so every box is visited once without allocating.
+ * This class is plain Java.
+ */
+final class BoxIndex {
+
+    /**
+     * Receives the ids found by a query.
+     */
+    interface Visitor {
+        void visit(int id);
+    }
+
+    /**
+     * Largest number of rows or columns of the grid.
+     */
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+
+    private final double[] mMinX;
+    private final double[] mMinY;
+    private final double[] mMaxX;
+    private final double[] mMaxY;
+    private final double mLeft;
+    private final double mTop;
+    private final double mCellWidth;
+    private final double mCellHeight;
+    private final int mRows;
+    private final int mColumns;
+    private final int[] mCellStarts;
+    private final int[] mIds;
+
+    /**
+     * Index the given boxes, a box id being its index in the arrays. Boxes must not be inverted.
+     */
+    BoxIndex(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = maxX;
+        mMaxY = maxY;
+        int size = minX.length;
+
+        double left = Double.MAX_VALUE;
+        double top = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            left = Math.min(left, minX[i]);
+            top = Math.min(top, minY[i]);
+            right = Math.max(right, maxX[i]);
+            bottom = Math.max(bottom, maxY[i]);
+        }
+        if (size == 0) {
+            left = top = right = bottom = 0;
+        }
+
+        // Square-ish cells, about one per box.
+        int cells = Math.max(1, size);
+        double width = Math.max(right - left, 1e-12);
+        double height = Math.max(bottom - top, 1e-12);
+        int rows = (int) Math.max(1, Math.min(Math.min(cells, MAX_CELLS_PER_SIDE),
+                Math.round(Math.sqrt(cells * height / width))));
+        int columns = Math.max(1, Math.min(MAX_CELLS_PER_SIDE, cells / rows));
+        mLeft = left;
+        mTop = top;
+        mRows = rows;
+        mColumns = columns;
+        mCellWidth = width / columns;
+        mCellHeight = height / rows;
+
+        // Counting sort of the ids by cell, a box being counted in every cell it overlaps.
+        mCellStarts = new int[rows * columns + 1];
+        for (int i = 0; i < size; i++) {
+            for (int row = row(minY[i]); row <= row(maxY[i]); row++) {
+                for (int column = column(minX[i]); column <= column(maxX[i]); column++) {
+                    mCellStarts[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            mCellStarts[cell + 1] += mCellStarts[cell];
+        }
+        int[] next = new int[rows * columns];
+        System.arraycopy(mCellStarts, 0, next, 0, rows * columns);
+        mIds = new int[mCellStarts[rows * columns]];
+        for (int i = 0; i < size; i++) {
+            for (int row = row(minY[i]); row <= row(maxY[i]); row++) {
+                for (int column = column(minX[i]); column <= column(maxX[i]); column++) {
+                    mIds[next[row * columns + column]++] = i;
+                }
+            }
+        }
+    }
+
+    int size() {
+        return mMinX.length;
+    }
+
+    /**
+     * Visit every box overlapping the given box, edges included, once each.
+     */
+    void query(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        if (mIds.length == 0 || maxX < minX || maxY < minY || maxX < mLeft
+                || minX > mLeft + mCellWidth * mColumns || maxY < mTop || minY > mTop + mCellHeight * mRows) {
+            return;
+        }
+        int firstRow = row(minY);
+        int lastRow = row(maxY);
+        int firstColumn = column(minX);
+        int lastColumn = column(maxX);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    int id = mIds[i];
+                    if (mMaxX[id] < minX || mMinX[id] > maxX || mMaxY[id] < minY || mMinY[id] > maxY) {
+                        continue;
+                    }
+                    // Only from the first cell of the query the box is in.
+                    if (row == Math.max(firstRow, row(mMinY[id]))
+                            && column == Math.max(firstColumn, column(mMinX[id]))) {
+                        visitor.visit(id);
+                    }
+                }
+            }
+        }
+    }
+
+    private int row(double y) {
+        return clamp((int) Math.floor((y - mTop) / mCellHeight), mRows);
+    }
+
+    private int column(double x) {
+        return clamp((int) Math.floor((x - mLeft) / mCellWidth), mColumns);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+}
@@ -0,0 +1,118 @@
+package com.trien.mymap;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable list of coordinates stored as primitive E7 integers (degrees * 10^7).
+ * It replaces per-point LatLng objects wherever the points are only stored or processed,
+ * LatLng instances are only created when a list is handed over to the map.
+ */
+final class Coordinates {
+
+    /**
+     * Scale of the fixed point integer coordinates.
+     */
+    static final double E7 = 1e7;
+
+    /**
+     * Interleaved latitude and longitude values, lat0, lng0, lat1, lng1...
+     */
+    private int[] mValues;
+    private int mSize;
+
+    Coordinates() {
+        this(16);
+    }
+
+    Coordinates(int capacity) {
+        mValues = new int[Math.max(capacity, 1) * 2];
+    }
+
+    /**
+     * Convert degrees to an E7 integer.
+     */
+    static int toE7(double degrees) {
+        return (int) Math.round(degrees * E7);
+    }
+
+    void add(int latE7, int lngE7) {
+        if (mSize * 2 == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mValues.length * 2);
+        }
+        mValues[mSize * 2] = latE7;
+        mValues[mSize * 2 + 1] = lngE7;
+        mSize++;
+    }
+
+    void add(double latitude, double longitude) {
+        add(toE7(latitude), toE7(longitude));
+    }
+
+    void addAll(Coordinates other) {
+        for (int i = 0; i < other.mSize; i++) {
+            add(other.latE7(i), other.lngE7(i));
+        }
+    }
+
+    /**
+     * Append count points read from interleaved E7 values at the current position of a buffer.
+     */
+    void read(IntBuffer in, int count) {
+        if ((mSize + count) * 2 > mValues.length) {
+            mValues = Arrays.copyOf(mValues, (mSize + count) * 2);
+        }
+        in.get(mValues, mSize * 2, count * 2);
+        mSize += count;
+    }
+
+    /**
+     * Write all points as interleaved E7 values at the current position of a buffer.
+     */
+    void write(IntBuffer out) {
+        out.put(mValues, 0, mSize * 2);
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int latE7(int index) {
+        return mValues[index * 2];
+    }
+
+    int lngE7(int index) {
+        return mValues[index * 2 + 1];
+    }
+
+    /**
+     * Whether both lists hold the same points in the same order.
+     */
+    boolean contentEquals(Coordinates other) {
+        if (mSize != other.mSize) {
+            return false;
+        }
+        for (int i = 0; i < mSize * 2; i++) {
+            if (mValues[i] != other.mValues[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    double latitude(int index) {
+        return mValues[index * 2] / E7;
+    }
+
+    double longitude(int index) {
+        return mValues[index * 2 + 1] / E7;
+    }
+}
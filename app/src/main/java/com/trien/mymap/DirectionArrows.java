@@ -0,0 +1,113 @@
+package com.trien.mymap;
+
+/**
+ * Direction arrows placed along a route path at regular distances, pointing along the local segment.
+ * Arrows come in nested detail levels: level {@link #LEVEL_COUNT} holds one arrow every
+ * {@link #FINEST_SPACING_METERS}, and every level below keeps every other arrow of the level above,
+ * so zooming in only adds arrows and zooming out only removes them. The detail level to show at a
+ * zoom is the finest one whose arrows are still at least {@link #MIN_SPACING_PIXELS} apart on screen.
+ */
+final class DirectionArrows {
+
+    /**
+     * Distance between two arrows of the finest level, in meters along the path.
+     */
+    static final double FINEST_SPACING_METERS = 125;
+
+    /**
+     * Number of detail levels, the spacing doubles from one level to the level below.
+     */
+    static final int LEVEL_COUNT = 5;
+
+    /**
+     * Smallest distance between two arrows on screen, in pixels.
+     */
+    static final double MIN_SPACING_PIXELS = 100;
+
+    /**
+     * Ground resolution of zoom level 0 at the equator, in meters per pixel.
+     */
+    private static final double METERS_PER_PIXEL_ZOOM_0 = 156543.03392;
+
+    private final Coordinates mPositions;
+    private final float[] mBearings;
+    private final int[] mLevels;
+
+    private DirectionArrows(int capacity) {
+        mPositions = new Coordinates(capacity);
+        mBearings = new float[capacity];
+        mLevels = new int[capacity];
+    }
+
+    /**
+     * Place the arrows of a measured path, each one found by distance along it.
+     */
+    static DirectionArrows place(RouteMeasure measure) {
+        int count = (int) (measure.length() / FINEST_SPACING_METERS);
+        DirectionArrows arrows = new DirectionArrows(Math.max(1, count));
+        RouteMeasure.Position position = new RouteMeasure.Position();
+        for (int index = 1; index <= count; index++) {
+            measure.interpolate(index * FINEST_SPACING_METERS, position);
+            arrows.add(position.latitude, position.longitude, position.bearing, levelOf(index));
+        }
+        return arrows;
+    }
+
+    /**
+     * Detail level to show at a zoom level and latitude, 0 if arrows would be too dense even at
+     * the coarsest level.
+     */
+    static int levelForZoom(float zoom, double latitude) {
+        double metersPerPixel = METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / Math.pow(2, zoom);
+        for (int level = LEVEL_COUNT; level > 0; level--) {
+            if (spacing(level) / metersPerPixel >= MIN_SPACING_PIXELS) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Distance between two arrows of a detail level, in meters.
+     */
+    static double spacing(int level) {
+        return FINEST_SPACING_METERS * (1 << (LEVEL_COUNT - level));
+    }
+
+    /**
+     * Coarsest detail level of the n-th arrow of the finest level, counted from 1: the arrow is kept
+     * by every level whose spacing is a multiple of the distance to it.
+     */
+    private static int levelOf(int index) {
+        return LEVEL_COUNT - Math.min(Integer.numberOfTrailingZeros(index), LEVEL_COUNT - 1);
+    }
+
+    private void add(double latitude, double longitude, float bearing, int level) {
+        int size = mPositions.size();
+        mPositions.add(latitude, longitude);
+        mBearings[size] = bearing;
+        mLevels[size] = level;
+    }
+
+    int size() {
+        return mPositions.size();
+    }
+
+    Coordinates getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * Bearing of an arrow, in degrees clockwise from north.
+     */
+    float bearing(int index) {
+        return mBearings[index];
+    }
+
+    /**
+     * Coarsest detail level showing an arrow, from 1 to {@link #LEVEL_COUNT}.
+     */
+    int level(int index) {
+        return mLevels[index];
+    }
+}
@@ -0,0 +1,161 @@
+package com.trien.mymap;
+
+/**
+ * Packed uniform grid over points, answering bounding box queries.
+ * Point ids are sorted by grid cell once at build time (a counting sort), so the index is two
+ * flat int arrays: the start of every cell and the ids of all points in cell order. A query only
+ * visits the cells overlapping the box.
+ */
+final class GridIndex {
+
+    /**
+     * Receives the ids found by a query.
+     */
+    interface Visitor {
+        void visit(int id);
+    }
+
+    /**
+     * Average number of points per cell the grid is sized for.
+     */
+    private static final int POINTS_PER_CELL = 4;
+
+    private final Coordinates mPoints;
+    private final double mSouth;
+    private final double mWest;
+    private final double mCellHeight;
+    private final double mCellWidth;
+    private final int mRows;
+    private final int mColumns;
+    private final int[] mCellStarts;
+    private final int[] mIds;
+
+    /**
+     * Index the given points, a point id being its index in points.
+     */
+    GridIndex(Coordinates points) {
+        mPoints = points;
+        int size = points.size();
+
+        double south = Double.MAX_VALUE;
+        double west = Double.MAX_VALUE;
+        double north = -Double.MAX_VALUE;
+        double east = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            south = Math.min(south, points.latitude(i));
+            north = Math.max(north, points.latitude(i));
+            west = Math.min(west, points.longitude(i));
+            east = Math.max(east, points.longitude(i));
+        }
+        if (size == 0) {
+            south = north = west = east = 0;
+        }
+
+        // Square-ish cells holding POINTS_PER_CELL points on average, at most cells rows or columns
+        // when the points are on a line, e.g. arrows of a straight north-south route.
+        int cells = Math.max(1, size / POINTS_PER_CELL);
+        double height = Math.max(north - south, 1e-9);
+        double width = Math.max(east - west, 1e-9);
+        int rows = (int) Math.max(1, Math.min(cells, Math.round(Math.sqrt(cells * height / width))));
+        int columns = Math.max(1, cells / rows);
+        mSouth = south;
+        mWest = west;
+        mRows = rows;
+        mColumns = columns;
+        mCellHeight = height / rows;
+        mCellWidth = width / columns;
+
+        // Counting sort of the ids by cell.
+        int[] cellOfPoint = new int[size];
+        mCellStarts = new int[rows * columns + 1];
+        for (int i = 0; i < size; i++) {
+            int cell = row(points.latitude(i)) * columns + column(points.longitude(i));
+            cellOfPoint[i] = cell;
+            mCellStarts[cell + 1]++;
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            mCellStarts[cell + 1] += mCellStarts[cell];
+        }
+        int[] next = new int[rows * columns];
+        System.arraycopy(mCellStarts, 0, next, 0, rows * columns);
+        mIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            mIds[next[cellOfPoint[i]]++] = i;
+        }
+    }
+
+    int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Visit every point inside the given box, edges included.
+     */
+    void query(double south, double west, double north, double east, Visitor visitor) {
+        if (mIds.length == 0 || north < south || east < west) {
+            return;
+        }
+        int firstRow = row(south);
+        int lastRow = row(north);
+        int firstColumn = column(west);
+        int lastColumn = column(east);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    int id = mIds[i];
+                    double latitude = mPoints.latitude(id);
+                    double longitude = mPoints.longitude(id);
+                    if (latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+                        visitor.visit(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every point inside a viewport grown by a fraction of its size on every side. Like in
+     * LatLngBounds, a west greater than east means that the viewport crosses the antimeridian; it
+     * is then queried as two boxes split at longitude 180.
+     */
+    void queryViewport(double south, double west, double north, double east, double marginFraction,
+                       Visitor visitor) {
+        double latMargin = (north - south) * marginFraction;
+        double lngSpan = west <= east ? east - west : east - west + 360;
+        double lngMargin = lngSpan * marginFraction;
+        south -= latMargin;
+        north += latMargin;
+        if (lngSpan + 2 * lngMargin >= 360) {
+            query(south, -180, north, 180, visitor);
+            return;
+        }
+        west = wrapLongitude(west - lngMargin);
+        east = wrapLongitude(east + lngMargin);
+        if (west <= east) {
+            query(south, west, north, east, visitor);
+        } else {
+            query(south, west, north, 180, visitor);
+            query(south, -180, north, east, visitor);
+        }
+    }
+
+    /**
+     * Bring a longitude into [-180, 180].
+     */
+    private static double wrapLongitude(double longitude) {
+        return longitude < -180 ? longitude + 360 : longitude > 180 ? longitude - 360 : longitude;
+    }
+
+    private int row(double latitude) {
+        return clamp((int) Math.floor((latitude - mSouth) / mCellHeight), mRows);
+    }
+
+    private int column(double longitude) {
+        return clamp((int) Math.floor((longitude - mWest) / mCellWidth), mColumns);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+}
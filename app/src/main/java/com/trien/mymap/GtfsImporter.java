@@ -0,0 +1,479 @@
+package com.trien.mymap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Imports a GTFS feed into a {@link RouteDataset}, reading routes.txt, trips.txt, shapes.txt and
+ * stops.txt straight out of the zip, one row at a time.
+ * Every shape becomes a line keyed by its shape_id, see {@link #shapeKeyword(String)}, with the color
+ * of the route of its trips. Shape points are grouped in runs of consecutive rows with the same
+ * shape_id, as feeds usually list them, and each run is sorted by shape_pt_sequence then packed like
+ * the compiled route asset, with its sequences. Rows of a shape need not be grouped or sorted: the
+ * runs of a shape are merged by sequence once the whole file is read, so memory is bounded by the
+ * largest shape plus the packed output rather than by the whole shapes.txt. shapes.txt is optional,
+ * a feed without it has stops only. Stops form one more line, {@link #STOPS_KEYWORD}, with markers
+ * only and their stop_id, see {@link RouteDataset.Line#getMarkerId(int)}. This class is plain Java, the feed file is located by {@link RouteDataLoader}.
+ */
+final class GtfsImporter {
+
+    static final String ROUTES = "routes.txt";
+    static final String TRIPS = "trips.txt";
+    static final String SHAPES = "shapes.txt";
+    static final String STOPS = "stops.txt";
+
+    /**
+     * Keyword of the line holding all the stops of the feed.
+     */
+    static final String STOPS_KEYWORD = "stops";
+
+    /**
+     * Prefix of the keyword of a shape whose shape_id could be mistaken for another line, see
+     * {@link #shapeKeyword(String)}.
+     */
+    static final String SHAPE_KEYWORD_PREFIX = "shape:";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private GtfsImporter() {
+    }
+
+    /**
+     * Import a GTFS zip. Lines are drawn with the given width and the stops with the given style.
+     */
+    static RouteDataset read(ZipFile feed, float lineWidth, LineStyle stopStyle) throws IOException {
+        Map<String, String> routeColors = readRouteColors(feed);
+        Map<String, String> shapeRoutes = readShapeRoutes(feed);
+        Map<String, RouteDataset.Line> lines = new LinkedHashMap<>();
+        int[] counts = new int[2];
+        readShapes(feed, routeColors, shapeRoutes, lineWidth, lines, counts);
+        readStops(feed, stopStyle, lines, counts);
+        return new RouteDataset(lines, counts[0], counts[1]);
+    }
+
+    /**
+     * Keyword of the line of a shape: its shape_id, prefixed with {@link #SHAPE_KEYWORD_PREFIX} if
+     * it is {@link #STOPS_KEYWORD} or already starts with the prefix, so that no two lines collide.
+     */
+    static String shapeKeyword(String shapeId) {
+        return shapeId.equals(STOPS_KEYWORD) || shapeId.startsWith(SHAPE_KEYWORD_PREFIX)
+                ? SHAPE_KEYWORD_PREFIX + shapeId : shapeId;
+    }
+
+    /**
+     * Read route_id to "#RRGGBB" route_color, empty if the route has no color.
+     */
+    private static Map<String, String> readRouteColors(ZipFile feed) throws IOException {
+        Map<String, String> colors = new HashMap<>();
+        Table table = Table.open(feed, ROUTES);
+        try {
+            int id = table.column("route_id", true);
+            int color = table.column("route_color", false);
+            while (table.next()) {
+                String value = table.get(color);
+                colors.put(table.get(id), value.isEmpty() ? "" : "#" + value);
+            }
+        } finally {
+            table.close();
+        }
+        return colors;
+    }
+
+    /**
+     * Read shape_id to route_id of the first trip using each shape.
+     */
+    private static Map<String, String> readShapeRoutes(ZipFile feed) throws IOException {
+        Map<String, String> shapeRoutes = new HashMap<>();
+        Table table = Table.open(feed, TRIPS);
+        try {
+            int route = table.column("route_id", true);
+            int shape = table.column("shape_id", false);
+            while (table.next()) {
+                String shapeId = table.get(shape);
+                if (!shapeId.isEmpty() && !shapeRoutes.containsKey(shapeId)) {
+                    shapeRoutes.put(shapeId, table.get(route));
+                }
+            }
+        } finally {
+            table.close();
+        }
+        return shapeRoutes;
+    }
+
+    private static void readShapes(ZipFile feed, Map<String, String> routeColors, Map<String, String> shapeRoutes,
+                                   float lineWidth, Map<String, RouteDataset.Line> lines, int[] counts)
+            throws IOException {
+        if (feed.getEntry(SHAPES) == null) {
+            // Optional, lines are then drawn from stops only.
+            return;
+        }
+        // The packed runs of every shape, in order of first appearance.
+        Map<String, List<PackedRun>> shapes = new LinkedHashMap<>();
+        Table table = Table.open(feed, SHAPES);
+        try {
+            int id = table.column("shape_id", true);
+            int lat = table.column("shape_pt_lat", true);
+            int lng = table.column("shape_pt_lon", true);
+            int sequence = table.column("shape_pt_sequence", true);
+            ShapeRun run = new ShapeRun();
+            while (table.next()) {
+                counts[0]++;
+                String shapeId = table.get(id);
+                if (!shapeId.equals(run.shapeId)) {
+                    run.flush(shapes);
+                    run.shapeId = shapeId;
+                }
+                try {
+                    run.add(Integer.parseInt(table.get(sequence)),
+                            Double.parseDouble(table.get(lat)), Double.parseDouble(table.get(lng)));
+                } catch (IllegalArgumentException e) {
+                    counts[1]++;
+                }
+            }
+            run.flush(shapes);
+        } finally {
+            table.close();
+        }
+
+        Iterator<Map.Entry<String, List<PackedRun>>> iterator = shapes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<PackedRun>> shape = iterator.next();
+            String shapeId = shape.getKey();
+            List<PackedRun> runs = shape.getValue();
+            // Dropped as soon as merged, the packed line replaces it.
+            iterator.remove();
+            ByteBuffer path;
+            int pathCount;
+            if (runs.size() == 1) {
+                path = runs.get(0).points;
+                pathCount = runs.get(0).count;
+            } else {
+                Coordinates merged = merge(runs);
+                path = RouteBinaryFormat.pack(merged);
+                pathCount = merged.size();
+            }
+            String color = routeColors.get(shapeRoutes.get(shapeId));
+            LineStyle style = new LineStyle(color != null ? color : "", "", "", lineWidth, 0f);
+            String keyword = shapeKeyword(shapeId);
+            lines.put(keyword, new RouteDataset.Line(keyword, style, path, pathCount,
+                    new Coordinates(0), new String[0]));
+        }
+    }
+
+    /**
+     * Merge the sorted runs of a shape by sequence, a k-way merge over a heap of the next point of
+     * every run. Points of equal sequence are kept in file order.
+     */
+    private static Coordinates merge(List<PackedRun> runs) {
+        int runCount = runs.size();
+        Coordinates[] points = new Coordinates[runCount];
+        int[][] sequences = new int[runCount][];
+        int[] next = new int[runCount];
+        // Sequence in the high bits and run in the low bits of every key.
+        long[] heap = new long[runCount];
+        int total = 0;
+        for (int run = 0; run < runCount; run++) {
+            PackedRun packed = runs.get(run);
+            points[run] = new Coordinates(packed.count);
+            RouteBinaryFormat.unpack(packed.points.duplicate(), packed.count, points[run]);
+            sequences[run] = packed.sequences();
+            heap[run] = ((long) sequences[run][0] << 32) | run;
+            total += packed.count;
+        }
+        int heapSize = runCount;
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i);
+        }
+        Coordinates merged = new Coordinates(total);
+        while (heapSize > 0) {
+            int run = (int) heap[0];
+            int index = next[run]++;
+            merged.add(points[run].latE7(index), points[run].lngE7(index));
+            if (next[run] < points[run].size()) {
+                heap[0] = ((long) sequences[run][next[run]] << 32) | run;
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0);
+        }
+        return merged;
+    }
+
+    private static void siftDown(long[] heap, int size, int index) {
+        long key = heap[index];
+        while (index * 2 + 1 < size) {
+            int child = index * 2 + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (key <= heap[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = key;
+    }
+
+    private static void readStops(ZipFile feed, LineStyle stopStyle, Map<String, RouteDataset.Line> lines,
+                                  int[] counts) throws IOException {
+        Coordinates stops = new Coordinates();
+        List<String> names = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        Table table = Table.open(feed, STOPS);
+        try {
+            int id = table.column("stop_id", false);
+            int name = table.column("stop_name", false);
+            int lat = table.column("stop_lat", true);
+            int lng = table.column("stop_lon", true);
+            int locationType = table.column("location_type", false);
+            while (table.next()) {
+                counts[0]++;
+                String type = table.get(locationType);
+                if (!type.isEmpty() && !type.equals("0")) {
+                    // Stations, entrances and nodes are not stops of a line.
+                    continue;
+                }
+                try {
+                    stops.add(Double.parseDouble(table.get(lat)), Double.parseDouble(table.get(lng)));
+                    names.add(table.get(name));
+                    ids.add(table.get(id));
+                } catch (IllegalArgumentException e) {
+                    counts[1]++;
+                }
+            }
+        } finally {
+            table.close();
+        }
+        lines.put(STOPS_KEYWORD, new RouteDataset.Line(STOPS_KEYWORD, stopStyle, new Coordinates(0),
+                stops, names.toArray(new String[names.size()]), ids.toArray(new String[ids.size()])));
+    }
+
+    /**
+     * The points of the shape being read, reused from one run to the next.
+     */
+    private static final class ShapeRun {
+        String shapeId;
+        final Coordinates points = new Coordinates();
+        int[] sequences = new int[256];
+        boolean sorted = true;
+
+        void add(int sequence, double latitude, double longitude) {
+            int size = points.size();
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+            }
+            if (size > 0 && sequence < sequences[size - 1]) {
+                sorted = false;
+            }
+            sequences[size] = sequence;
+            points.add(latitude, longitude);
+        }
+
+        /**
+         * Sort and pack the run, add it to the runs of its shape and start over.
+         */
+        void flush(Map<String, List<PackedRun>> shapes) {
+            if (shapeId == null || points.isEmpty()) {
+                return;
+            }
+            if (!sorted) {
+                sort();
+            }
+            List<PackedRun> runs = shapes.get(shapeId);
+            if (runs == null) {
+                runs = new ArrayList<>(1);
+                shapes.put(shapeId, runs);
+            }
+            runs.add(new PackedRun(RouteBinaryFormat.pack(points), points.size(), sequences));
+            points.clear();
+            sorted = true;
+        }
+
+        /**
+         * Order the points and their sequences by sequence, keys are sorted with the point index in
+         * their low bits.
+         */
+        private void sort() {
+            int size = points.size();
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) sequences[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            Coordinates sortedPoints = new Coordinates(size);
+            for (int i = 0; i < size; i++) {
+                int index = (int) keys[i];
+                sortedPoints.add(points.latE7(index), points.lngE7(index));
+                sequences[i] = (int) (keys[i] >> 32);
+            }
+            points.clear();
+            points.addAll(sortedPoints);
+        }
+    }
+
+    /**
+     * A sorted run of a shape: its points packed like the compiled route asset, and its sequences
+     * as the first one followed by the differences to the next as unsigned varints.
+     */
+    private static final class PackedRun {
+        final ByteBuffer points;
+        final int count;
+        private final int mFirstSequence;
+        private final byte[] mSequenceSteps;
+
+        /**
+         * A run of the first count points and sequences, sequences being sorted.
+         */
+        PackedRun(ByteBuffer points, int count, int[] sequences) {
+            this.points = points;
+            this.count = count;
+            mFirstSequence = sequences[0];
+            byte[] steps = new byte[count * 5];
+            int length = 0;
+            for (int i = 1; i < count; i++) {
+                // Sorted, so the step is unsigned, usually a single byte.
+                long step = (long) sequences[i] - sequences[i - 1];
+                while (step >= 0x80) {
+                    steps[length++] = (byte) (step | 0x80);
+                    step >>>= 7;
+                }
+                steps[length++] = (byte) step;
+            }
+            mSequenceSteps = Arrays.copyOf(steps, length);
+        }
+
+        int[] sequences() {
+            int[] sequences = new int[count];
+            sequences[0] = mFirstSequence;
+            int offset = 0;
+            for (int i = 1; i < count; i++) {
+                long step = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = mSequenceSteps[offset++];
+                    step |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                sequences[i] = (int) (sequences[i - 1] + step);
+            }
+            return sequences;
+        }
+    }
+
+    /**
+     * A CSV file of the feed read row by row, with fields looked up by header name.
+     */
+    private static final class Table {
+        private final BufferedReader mReader;
+        private final List<String> mHeader;
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+
+        private Table(BufferedReader reader, List<String> header) {
+            mReader = reader;
+            mHeader = header;
+        }
+
+        static Table open(ZipFile feed, String name) throws IOException {
+            ZipEntry entry = feed.getEntry(name);
+            if (entry == null) {
+                throw new IOException("Missing " + name);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(feed.getInputStream(entry), UTF_8));
+            Table table = new Table(reader, new ArrayList<String>());
+            String header = reader.readLine();
+            if (header == null) {
+                reader.close();
+                throw new IOException("Empty " + name);
+            }
+            if (header.startsWith("\uFEFF")) {
+                // Byte order mark.
+                header = header.substring(1);
+            }
+            table.split(header);
+            table.mHeader.addAll(table.mFields);
+            return table;
+        }
+
+        /**
+         * Index of a column, -1 if an optional column is missing.
+         */
+        int column(String name, boolean required) throws IOException {
+            int index = mHeader.indexOf(name);
+            if (index < 0 && required) {
+                throw new IOException("Missing column " + name);
+            }
+            return index;
+        }
+
+        /**
+         * Read the next non empty row, false at the end of the file.
+         */
+        boolean next() throws IOException {
+            String row;
+            do {
+                row = mReader.readLine();
+                if (row == null) {
+                    return false;
+                }
+            } while (row.isEmpty());
+            split(row);
+            return true;
+        }
+
+        /**
+         * Field of the current row, empty if the column or the field is missing.
+         */
+        String get(int column) {
+            return column >= 0 && column < mFields.size() ? mFields.get(column) : "";
+        }
+
+        void close() throws IOException {
+            mReader.close();
+        }
+
+        /**
+         * Split a row into trimmed fields, fields may be quoted with "" as an escaped quote.
+         */
+        private void split(String row) {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            for (int i = 0; i < row.length(); i++) {
+                char c = row.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        mField.append(c);
+                    } else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                        mField.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    mFields.add(mField.toString().trim());
+                    mField.setLength(0);
+                } else {
+                    mField.append(c);
+                }
+            }
+            mFields.add(mField.toString().trim());
+        }
+    }
+}
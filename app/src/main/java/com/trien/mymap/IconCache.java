@@ -0,0 +1,240 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Map;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+/**
+ * Process wide cache of scaled icon bitmaps and their BitmapDescriptors.
+ * Icons are keyed by drawable, target width or scale and screen density, so every marker of a line
+ * shares a single bitmap and a single descriptor. Entries are evicted least recently used first
+ * once the bitmaps exceed the byte budget.
+ */
+final class IconCache {
+
+    /**
+     * Share of the maximum heap the cached bitmaps may use.
+     */
+    private static final int HEAP_FRACTION = 16;
+
+    private static IconCache sInstance;
+
+    private final LruCache<Key, Icon> mCache;
+
+    /**
+     * Get the shared cache.
+     */
+    static synchronized IconCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new IconCache((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+        }
+        return sInstance;
+    }
+
+    IconCache(int maxBytes) {
+        mCache = new LruCache<Key, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Icon icon) {
+                return icon.mBitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Get a marker icon scaled to the given width, see {@link Utils#resizeMarker(Context, int)}.
+     */
+    synchronized Icon getMarker(Context context, int drawable) {
+        Key key = markerKey(drawable, densityDpi(context));
+        Icon icon = mCache.get(key);
+        if (icon == null) {
+            icon = new Icon(Utils.resizeMarker(context, drawable));
+            mCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Get an annotation icon scaled by the common factor, see {@link Utils#resizeCommonAnnotation(Context, int)}.
+     */
+    synchronized Icon getAnnotation(Context context, int drawable) {
+        Key key = annotationKey(drawable, densityDpi(context));
+        Icon icon = mCache.get(key);
+        if (icon == null) {
+            icon = new Icon(Utils.resizeCommonAnnotation(context, drawable));
+            mCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Get a direction arrow icon scaled to the arrow width, see {@link Utils#resizeArrow(Context, int)}.
+     * Every arrow of a color shares it.
+     */
+    synchronized Icon getArrow(Context context, int drawable) {
+        Key key = arrowKey(drawable, densityDpi(context));
+        Icon icon = mCache.get(key);
+        if (icon == null) {
+            icon = new Icon(Utils.resizeArrow(context, drawable));
+            mCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Get a vehicle icon, the arrow of its line scaled to the vehicle width, see
+     * {@link Utils#resizeVehicle(Context, int)}. Every vehicle of a line shares it.
+     */
+    synchronized Icon getVehicle(Context context, int drawable) {
+        Key key = vehicleKey(drawable, densityDpi(context));
+        Icon icon = mCache.get(key);
+        if (icon == null) {
+            icon = new Icon(Utils.resizeVehicle(context, drawable));
+            mCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Get a copy of the cached icons, most recently used last.
+     */
+    synchronized Map<Key, Icon> snapshot() {
+        return mCache.snapshot();
+    }
+
+    /**
+     * Cache a bitmap that was scaled for the given key elsewhere, e.g. read back from
+     * {@link RouteSceneCache}. An icon already cached for the key is kept.
+     */
+    synchronized void putBitmap(Key key, Bitmap bitmap) {
+        if (mCache.get(key) == null) {
+            mCache.put(key, new Icon(bitmap));
+        }
+    }
+
+    /**
+     * Key of the bitmap of {@link #getMarker(Context, int)}.
+     */
+    static Key markerKey(int drawable, int densityDpi) {
+        return new Key(drawable, Utils.MARKER_WIDTH, 0f, densityDpi);
+    }
+
+    /**
+     * Key of the bitmap of {@link #getAnnotation(Context, int)}.
+     */
+    static Key annotationKey(int drawable, int densityDpi) {
+        return new Key(drawable, 0, Utils.ANNOTATION_SCALE, densityDpi);
+    }
+
+    /**
+     * Key of the bitmap of {@link #getArrow(Context, int)}.
+     */
+    static Key arrowKey(int drawable, int densityDpi) {
+        return new Key(drawable, Utils.ARROW_WIDTH, 0f, densityDpi);
+    }
+
+    /**
+     * Key of the bitmap of {@link #getVehicle(Context, int)}.
+     */
+    static Key vehicleKey(int drawable, int densityDpi) {
+        return new Key(drawable, Utils.VEHICLE_WIDTH, 0f, densityDpi);
+    }
+
+    int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * Bytes of bitmaps currently held by the cache.
+     */
+    int getSizeBytes() {
+        return mCache.size();
+    }
+
+    void clear() {
+        mCache.evictAll();
+    }
+
+    static int densityDpi(Context context) {
+        return context.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    /**
+     * A cached icon: a scaled bitmap, with its BitmapDescriptor created on first use.
+     */
+    static final class Icon {
+
+        private final Bitmap mBitmap;
+        private BitmapDescriptor mDescriptor;
+
+        private Icon(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+
+        /**
+         * The scaled bitmap.
+         */
+        Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * Get the descriptor shared by every map object using this icon. Must be called on the main
+         * thread once the map is ready.
+         */
+        BitmapDescriptor getDescriptor() {
+            if (mDescriptor == null) {
+                mDescriptor = BitmapDescriptorFactory.fromBitmap(mBitmap);
+            }
+            return mDescriptor;
+        }
+    }
+
+    /**
+     * Cache key: drawable, target width (0 if scaled by factor), scale factor (0 if sized by width)
+     * and screen density.
+     */
+    static final class Key {
+        final int drawable;
+        final int width;
+        final float scale;
+        final int densityDpi;
+
+        Key(int drawable, int width, float scale, int densityDpi) {
+            this.drawable = drawable;
+            this.width = width;
+            this.scale = scale;
+            this.densityDpi = densityDpi;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return drawable == other.drawable && width == other.width
+                    && Float.compare(scale, other.scale) == 0 && densityDpi == other.densityDpi;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = drawable;
+            result = 31 * result + width;
+            result = 31 * result + Float.floatToIntBits(scale);
+            result = 31 * result + densityDpi;
+            return result;
+        }
+    }
+}
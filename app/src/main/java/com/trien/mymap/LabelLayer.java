@@ -0,0 +1,281 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotation labels on the map, placed without overlaps by a {@link LabelPlacer}.
+ * Whenever the camera settles, the labels near the viewport that were not placed yet are given an
+ * anchor, their preferred one or an alternate one, or hidden when every anchor collides with a
+ * label of higher priority. Panning keeps the placements and only places the labels coming into
+ * range, zooming or rotating places them again. Only placed labels in range have a marker, added,
+ * re-anchored and removed through the frame-budgeted {@link MapSceneApplier}. Boxes are computed
+ * for a camera without tilt. The specs can be replaced by a newer version, markers are then
+ * matched by spec id like in {@link ViewportMarkerCuller}, except that the marker of a changed label
+ * is added again rather than updated, its anchor being the one of the placement.
+ * All methods must be called on the main thread.
+ */
+final class LabelLayer {
+
+    /**
+     * Margin added around the visible region on every side, as a fraction of its size, see
+     * {@link ViewportMarkerCuller}.
+     */
+    private static final double MARGIN_FRACTION = 0.5;
+
+    /**
+     * Space kept around every label, in dp.
+     */
+    private static final float PADDING = 2;
+
+    /**
+     * Size of a map tile in dp, the world is this wide at zoom 0.
+     */
+    private static final int TILE_SIZE = 256;
+
+    private final MapSceneApplier mApplier;
+    private final float mDensity;
+
+    private List<RouteScene.MarkerSpec> mSpecs;
+    private Map<String, Integer> mSpecIds;
+    private GridIndex mIndex;
+    private LabelPlacer mPlacer;
+
+    /**
+     * Map marker of every label, null while it is not on the map (or not added yet).
+     */
+    private Marker[] mMarkers;
+    /**
+     * Whether an add is queued in the applier for a label.
+     */
+    private boolean[] mAdding;
+    /**
+     * Anchor the marker of a label shows or is being added with, -1 if unknown.
+     */
+    private int[] mMarkerAnchors;
+    /**
+     * Query stamp of every label, equal to mStamp when it is in range and placed.
+     */
+    private int[] mWantedStamp;
+    /**
+     * Whether a label is in mLiveIds.
+     */
+    private boolean[] mLive;
+    /**
+     * Labels that are on the map or being added, mLiveCount first entries are valid.
+     */
+    private int[] mLiveIds = new int[16];
+    private int mLiveCount;
+    private int mStamp;
+
+    /**
+     * Labels in range of the viewport, mInRangeCount first entries are valid.
+     */
+    private int[] mInRangeIds = new int[16];
+    private int mInRangeCount;
+
+    /**
+     * Last camera and visible region, null before the first camera idle.
+     */
+    private CameraPosition mCamera;
+    private LatLngBounds mVisibleBounds;
+
+    LabelLayer(MapSceneApplier applier, float density) {
+        mApplier = applier;
+        mDensity = density;
+        index(Collections.<RouteScene.MarkerSpec>emptyList());
+    }
+
+    /**
+     * Replace the labels by a newer version. Markers whose spec id is gone or whose spec changed are
+     * removed, the others are kept, and the labels are then placed again.
+     */
+    void setSpecs(List<RouteScene.MarkerSpec> specs) {
+        List<RouteScene.MarkerSpec> oldSpecs = mSpecs;
+        Marker[] oldMarkers = mMarkers;
+        boolean[] oldAdding = mAdding;
+        int[] oldMarkerAnchors = mMarkerAnchors;
+        int[] oldLiveIds = mLiveIds;
+        int oldLiveCount = mLiveCount;
+        index(specs);
+        mLiveIds = new int[Math.max(16, oldLiveCount)];
+        mLiveCount = 0;
+        for (int i = 0; i < oldLiveCount; i++) {
+            int oldId = oldLiveIds[i];
+            RouteScene.MarkerSpec oldSpec = oldSpecs.get(oldId);
+            Integer id = mSpecIds.get(oldSpec.id);
+            if (id == null || !oldSpec.sameAs(specs.get(id))) {
+                // A marker still being added is removed once it arrives, see add().
+                if (oldMarkers[oldId] != null) {
+                    mApplier.removeMarker(oldMarkers[oldId]);
+                }
+                continue;
+            }
+            mMarkers[id] = oldMarkers[oldId];
+            mAdding[id] = oldAdding[oldId];
+            mMarkerAnchors[id] = oldMarkerAnchors[oldId];
+            mLive[id] = true;
+            mLiveIds[mLiveCount++] = id;
+        }
+        if (mCamera != null) {
+            onCameraIdle(mCamera, mVisibleBounds);
+        }
+    }
+
+    /**
+     * Place the labels for a new camera and update their markers.
+     */
+    void onCameraIdle(CameraPosition camera, LatLngBounds visibleBounds) {
+        mCamera = camera;
+        mVisibleBounds = visibleBounds;
+        mStamp++;
+        mPlacer.setCamera(TILE_SIZE * mDensity * Math.pow(2, camera.zoom), camera.bearing);
+
+        // Place the labels in range that were not placed yet, which may move or hide labels of a
+        // lower priority: these are re-anchored or removed below, or removed as out of range.
+        mInRangeCount = 0;
+        mIndex.queryViewport(visibleBounds.southwest.latitude, visibleBounds.southwest.longitude,
+                visibleBounds.northeast.latitude, visibleBounds.northeast.longitude, MARGIN_FRACTION,
+                new GridIndex.Visitor() {
+                    @Override
+                    public void visit(int id) {
+                        if (mInRangeCount == mInRangeIds.length) {
+                            mInRangeIds = Arrays.copyOf(mInRangeIds, mInRangeCount * 2);
+                        }
+                        mInRangeIds[mInRangeCount++] = id;
+                    }
+                });
+        mPlacer.place(mInRangeIds, mInRangeCount);
+
+        // Show the placed labels at their anchor.
+        for (int i = 0; i < mInRangeCount; i++) {
+            int id = mInRangeIds[i];
+            int anchor = mPlacer.getAnchor(id);
+            if (anchor < 0) {
+                continue;
+            }
+            mWantedStamp[id] = mStamp;
+            if (mMarkers[id] == null && !mAdding[id]) {
+                add(id, anchor);
+            } else if (mMarkerAnchors[id] != anchor) {
+                if (mMarkers[id] != null) {
+                    mApplier.updateMarkerAnchor(mMarkers[id], mPlacer.anchorU(id, anchor), mPlacer.anchorV(id, anchor));
+                }
+                // Otherwise re-anchored once added, see add().
+                mMarkerAnchors[id] = anchor;
+            }
+        }
+
+        // Remove the markers of labels hidden or out of range, only the live set is scanned.
+        int kept = 0;
+        for (int i = 0; i < mLiveCount; i++) {
+            int id = mLiveIds[i];
+            if (mWantedStamp[id] == mStamp || mAdding[id]) {
+                mLiveIds[kept++] = id;
+            } else {
+                if (mMarkers[id] != null) {
+                    mApplier.removeMarker(mMarkers[id]);
+                    mMarkers[id] = null;
+                }
+                mLive[id] = false;
+            }
+        }
+        mLiveCount = kept;
+    }
+
+    /**
+     * Number of labels currently on the map or being added.
+     */
+    int getLiveCount() {
+        return mLiveCount;
+    }
+
+    /**
+     * Index new specs, with no marker and no placement yet.
+     */
+    private void index(List<RouteScene.MarkerSpec> specs) {
+        int count = specs.size();
+        mSpecs = specs;
+        mSpecIds = new HashMap<>(count * 2);
+        Coordinates positions = new Coordinates(count);
+        double[] x = new double[count];
+        double[] y = new double[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        float[] anchorU = new float[count];
+        float[] anchorV = new float[count];
+        int[] priorities = new int[count];
+        for (int i = 0; i < count; i++) {
+            RouteScene.MarkerSpec spec = specs.get(i);
+            mSpecIds.put(spec.id, i);
+            positions.add(spec.position.latitude, spec.position.longitude);
+            x[i] = RouteTileRenderer.x(spec.position.longitude);
+            y[i] = RouteTileRenderer.y(spec.position.latitude);
+            widths[i] = spec.icon.getBitmap().getWidth();
+            heights[i] = spec.icon.getBitmap().getHeight();
+            anchorU[i] = spec.anchorU;
+            anchorV[i] = spec.anchorV;
+            priorities[i] = spec.priority;
+        }
+        mIndex = new GridIndex(positions);
+        mPlacer = new LabelPlacer(x, y, widths, heights, anchorU, anchorV, priorities, PADDING * mDensity);
+        mMarkers = new Marker[count];
+        mAdding = new boolean[count];
+        mMarkerAnchors = new int[count];
+        mWantedStamp = new int[count];
+        mLive = new boolean[count];
+    }
+
+    private void add(int id, int anchor) {
+        final RouteScene.MarkerSpec spec = mSpecs.get(id);
+        mAdding[id] = true;
+        mMarkerAnchors[id] = anchor;
+        if (!mLive[id]) {
+            if (mLiveCount == mLiveIds.length) {
+                mLiveIds = Arrays.copyOf(mLiveIds, mLiveCount * 2);
+            }
+            mLiveIds[mLiveCount++] = id;
+            mLive[id] = true;
+        }
+        final float anchorU = mPlacer.anchorU(id, anchor);
+        final float anchorV = mPlacer.anchorV(id, anchor);
+        mApplier.addMarker(new MarkerOptions()
+                .position(spec.position)
+                .anchor(anchorU, anchorV)
+                .flat(spec.flat)
+                .rotation(spec.rotation)
+                .icon(spec.icon.getDescriptor()), new MapSceneApplier.OnObjectAddedListener<Marker>() {
+            @Override
+            public void onObjectAdded(Marker marker) {
+                // The specs may have been replaced while the add was queued, look the spec up again.
+                Integer id = mSpecIds.get(spec.id);
+                if (id == null || !mAdding[id] || !spec.sameAs(mSpecs.get(id))) {
+                    // Gone from the specs or changed, a changed label was added again by setSpecs().
+                    marker.remove();
+                    return;
+                }
+                mAdding[id] = false;
+                if (mWantedStamp[id] != mStamp) {
+                    // Hidden or out of range while the add was queued.
+                    marker.remove();
+                    return;
+                }
+                mMarkers[id] = marker;
+                int anchor = mPlacer.getAnchor(id);
+                if (mPlacer.anchorU(id, anchor) != anchorU || mPlacer.anchorV(id, anchor) != anchorV) {
+                    // Placed again while the add was queued.
+                    mApplier.updateMarkerAnchor(marker, mPlacer.anchorU(id, anchor), mPlacer.anchorV(id, anchor));
+                }
+                mMarkerAnchors[id] = anchor;
+            }
+        });
+    }
+}
@@ -0,0 +1,404 @@
+package com.trien.mymap;
+
+import java.util.Arrays;
+
+/**
+ * Screen space placement of map labels without overlaps.
+ * Every label is a box of fixed size in pixels, anchored to a point of the map like a marker icon.
+ * Labels are tried in priority order, each at its preferred anchor and then at alternate anchors
+ * around its point; the first box that collides with no placed label is kept, and a label whose
+ * boxes all collide is hidden, so the labels left out are those of the lowest priority.
+ * Collisions are tested against a uniform grid of placed boxes, a box only against the boxes of the
+ * cells it overlaps, instead of against every other label.
+ * Boxes are computed in world pixels of the camera zoom, rotated by the camera bearing: moving the
+ * camera without zooming or rotating changes none of them. Placements are therefore kept until the
+ * zoom or the bearing changes, and only labels that were never tested are placed, e.g. those that
+ * came into view. Such a label may take the place of labels of a lower priority placed before it,
+ * these are then placed again around it, so a pan never hides a label behind a less important one.
+ * This class is plain Java.
+ */
+final class LabelPlacer {
+
+    /**
+     * A label not tested since the last reset, see {@link #getAnchor(int)}.
+     */
+    static final int UNTESTED = -2;
+
+    /**
+     * A label tested and hidden, see {@link #getAnchor(int)}.
+     */
+    static final int HIDDEN = -1;
+
+    /**
+     * Alternate anchors tried after the preferred one: right of, left of, above and below the
+     * point, then at its four corners.
+     */
+    private static final float[] ALTERNATE_ANCHOR_U = {0f, 1f, 0.5f, 0.5f, 0f, 1f, 0f, 1f};
+    private static final float[] ALTERNATE_ANCHOR_V = {0.5f, 0.5f, 1f, 0f, 0f, 0f, 1f, 1f};
+
+    /**
+     * Number of anchors of a label, the preferred one being anchor 0.
+     */
+    static final int ANCHOR_COUNT = 1 + ALTERNATE_ANCHOR_U.length;
+
+    /**
+     * Side of a grid cell, in pixels.
+     */
+    private static final int CELL_SIZE = 128;
+
+    private final double[] mX;
+    private final double[] mY;
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final float[] mAnchorU;
+    private final float[] mAnchorV;
+    private final int[] mPriorities;
+    private final float mPadding;
+
+    private double mWorldSize = Double.NaN;
+    private float mBearing;
+    private double mCos;
+    private double mSin;
+
+    /**
+     * Anchor of every label, or {@link #HIDDEN} or {@link #UNTESTED}.
+     */
+    private final int[] mAnchors;
+
+    /**
+     * Anchor a label was last placed at, tried first at the next placement to keep labels still.
+     */
+    private final int[] mLastAnchors;
+
+    /**
+     * Box of every placed label, in rotated world pixels.
+     */
+    private final double[] mLeft;
+    private final double[] mTop;
+    private final double[] mRight;
+    private final double[] mBottom;
+
+    /**
+     * Grid of the placed boxes: an open addressing table from cell key to the first entry of its
+     * linked list, entries holding a label and the next entry of the cell.
+     */
+    private long[] mCellKeys = new long[64];
+    private int[] mCellHeads = new int[64];
+    private int mCellCount;
+    private int[] mEntryLabels = new int[64];
+    private int[] mEntryNext = new int[64];
+    private int mEntryCount;
+
+    /**
+     * Placed labels overlapped by the box being tested, reused.
+     */
+    private int[] mColliders = new int[16];
+    private int mColliderCount;
+
+    /**
+     * Labels taken out of the grid by a label of a higher priority, to place again.
+     */
+    private int[] mPending = new int[16];
+    private int mPendingCount;
+
+    /**
+     * Labels to place sorted by priority, as the negated priority and the label packed in a long, reused.
+     */
+    private long[] mOrder = new long[16];
+
+    /**
+     * Labels at points given in normalized Web Mercator coordinates, see {@link RouteTileRenderer#x(double)},
+     * with their size in pixels and preferred anchor, and a higher priority for labels to place
+     * first. Boxes are grown by the given padding in pixels on every side.
+     */
+    LabelPlacer(double[] x, double[] y, int[] widths, int[] heights, float[] anchorU, float[] anchorV,
+                int[] priorities, float padding) {
+        int count = x.length;
+        mX = x;
+        mY = y;
+        mWidths = widths;
+        mHeights = heights;
+        mAnchorU = anchorU;
+        mAnchorV = anchorV;
+        mPriorities = priorities;
+        mPadding = padding;
+        mAnchors = new int[count];
+        mLastAnchors = new int[count];
+        mLeft = new double[count];
+        mTop = new double[count];
+        mRight = new double[count];
+        mBottom = new double[count];
+        Arrays.fill(mAnchors, UNTESTED);
+        Arrays.fill(mCellKeys, Long.MIN_VALUE);
+    }
+
+    int size() {
+        return mX.length;
+    }
+
+    /**
+     * Set the camera, the world being worldSize pixels wide at its zoom. If the zoom or the bearing
+     * changed, every placement is forgotten and true is returned.
+     */
+    boolean setCamera(double worldSize, float bearing) {
+        if (worldSize == mWorldSize && bearing == mBearing) {
+            return false;
+        }
+        mWorldSize = worldSize;
+        mBearing = bearing;
+        mCos = Math.cos(Math.toRadians(bearing));
+        mSin = Math.sin(Math.toRadians(bearing));
+        reset();
+        return true;
+    }
+
+    /**
+     * Forget every placement.
+     */
+    void reset() {
+        for (int label = 0; label < mAnchors.length; label++) {
+            if (mAnchors[label] >= 0) {
+                mLastAnchors[label] = mAnchors[label];
+            }
+            mAnchors[label] = UNTESTED;
+        }
+        Arrays.fill(mCellKeys, Long.MIN_VALUE);
+        mCellCount = 0;
+        mEntryCount = 0;
+    }
+
+    /**
+     * Place the labels among the given ones that were not tested yet, highest priority first and in
+     * label order for equal priorities. Labels placed before are kept where they are, unless a label
+     * of a higher priority only collides with labels of a lower priority: these are then placed again.
+     */
+    void place(int[] labels, int count) {
+        if (mOrder.length < count) {
+            mOrder = new long[Math.max(count, mOrder.length * 2)];
+        }
+        int untested = 0;
+        for (int i = 0; i < count; i++) {
+            int label = labels[i];
+            if (mAnchors[label] == UNTESTED) {
+                mOrder[untested++] = ((long) -mPriorities[label] << 32) | label;
+            }
+        }
+        Arrays.sort(mOrder, 0, untested);
+        for (int i = 0; i < untested; i++) {
+            placeLabel((int) mOrder[i]);
+            while (mPendingCount > 0) {
+                // The displaced label of the highest priority first, in label order for equal ones.
+                int first = 0;
+                for (int j = 1; j < mPendingCount; j++) {
+                    int priority = mPriorities[mPending[j]];
+                    if (priority > mPriorities[mPending[first]]
+                            || priority == mPriorities[mPending[first]] && mPending[j] < mPending[first]) {
+                        first = j;
+                    }
+                }
+                int label = mPending[first];
+                mPending[first] = mPending[--mPendingCount];
+                placeLabel(label);
+            }
+        }
+    }
+
+    /**
+     * Anchor of a label: an index below {@link #ANCHOR_COUNT}, {@link #HIDDEN} if it collides at every
+     * anchor, or {@link #UNTESTED} if it has not been placed since the last reset.
+     */
+    int getAnchor(int label) {
+        return mAnchors[label];
+    }
+
+    float anchorU(int label, int anchor) {
+        return anchor == 0 ? mAnchorU[label] : ALTERNATE_ANCHOR_U[anchor - 1];
+    }
+
+    float anchorV(int label, int anchor) {
+        return anchor == 0 ? mAnchorV[label] : ALTERNATE_ANCHOR_V[anchor - 1];
+    }
+
+    private void placeLabel(int label) {
+        // The point in world pixels, rotated like the screen.
+        double worldX = mX[label] * mWorldSize;
+        double worldY = mY[label] * mWorldSize;
+        double x = worldX * mCos + worldY * mSin;
+        double y = -worldX * mSin + worldY * mCos;
+        int last = mLastAnchors[label];
+        for (int i = 0; i < ANCHOR_COUNT; i++) {
+            // The anchor of the last placement first, then the others in order.
+            int anchor = i == 0 ? last : i <= last ? i - 1 : i;
+            double left = x - anchorU(label, anchor) * mWidths[label] - mPadding;
+            double top = y - anchorV(label, anchor) * mHeights[label] - mPadding;
+            double right = left + mWidths[label] + 2 * mPadding;
+            double bottom = top + mHeights[label] + 2 * mPadding;
+            if (!blocked(label, left, top, right, bottom)) {
+                for (int c = 0; c < mColliderCount; c++) {
+                    displace(mColliders[c]);
+                }
+                mAnchors[label] = anchor;
+                mLeft[label] = left;
+                mTop[label] = top;
+                mRight[label] = right;
+                mBottom[label] = bottom;
+                insert(label);
+                return;
+            }
+        }
+        mAnchors[label] = HIDDEN;
+    }
+
+    /**
+     * Whether a box of a label overlaps the placed box of a label of the same or a higher priority,
+     * touching edges not counting. If not, the placed labels it overlaps are left in mColliders.
+     */
+    private boolean blocked(int label, double left, double top, double right, double bottom) {
+        mColliderCount = 0;
+        int firstColumn = cell(left);
+        int lastColumn = cell(right);
+        int firstRow = cell(top);
+        int lastRow = cell(bottom);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int entry = head(key(column, row)); entry >= 0; entry = mEntryNext[entry]) {
+                    int other = mEntryLabels[entry];
+                    if (left < mRight[other] && right > mLeft[other] && top < mBottom[other] && bottom > mTop[other]) {
+                        if (mPriorities[other] >= mPriorities[label]) {
+                            return true;
+                        }
+                        addCollider(other);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addCollider(int label) {
+        // A box is in every cell it overlaps.
+        for (int c = 0; c < mColliderCount; c++) {
+            if (mColliders[c] == label) {
+                return;
+            }
+        }
+        if (mColliderCount == mColliders.length) {
+            mColliders = Arrays.copyOf(mColliders, mColliderCount * 2);
+        }
+        mColliders[mColliderCount++] = label;
+    }
+
+    /**
+     * Take a placed label out of the grid, to be placed again from its current anchor.
+     */
+    private void displace(int label) {
+        remove(label);
+        mLastAnchors[label] = mAnchors[label];
+        mAnchors[label] = UNTESTED;
+        if (mPendingCount == mPending.length) {
+            mPending = Arrays.copyOf(mPending, mPendingCount * 2);
+        }
+        mPending[mPendingCount++] = label;
+    }
+
+    /**
+     * Add a placed label to every cell its box overlaps.
+     */
+    private void insert(int label) {
+        int firstColumn = cell(mLeft[label]);
+        int lastColumn = cell(mRight[label]);
+        int firstRow = cell(mTop[label]);
+        int lastRow = cell(mBottom[label]);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                if (mEntryCount == mEntryLabels.length) {
+                    mEntryLabels = Arrays.copyOf(mEntryLabels, mEntryCount * 2);
+                    mEntryNext = Arrays.copyOf(mEntryNext, mEntryCount * 2);
+                }
+                int slot = slot(key(column, row));
+                if (mCellKeys[slot] == Long.MIN_VALUE) {
+                    mCellKeys[slot] = key(column, row);
+                    mCellHeads[slot] = -1;
+                    mCellCount++;
+                }
+                mEntryLabels[mEntryCount] = label;
+                mEntryNext[mEntryCount] = mCellHeads[slot];
+                mCellHeads[slot] = mEntryCount++;
+                if (mCellCount * 2 > mCellKeys.length) {
+                    growCells();
+                }
+            }
+        }
+    }
+
+    /**
+     * Unlink a placed label from every cell its box overlaps, its entries are reclaimed at the next
+     * reset.
+     */
+    private void remove(int label) {
+        int firstColumn = cell(mLeft[label]);
+        int lastColumn = cell(mRight[label]);
+        int firstRow = cell(mTop[label]);
+        int lastRow = cell(mBottom[label]);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int slot = slot(key(column, row));
+                int previous = -1;
+                for (int entry = mCellHeads[slot]; entry >= 0; entry = mEntryNext[entry]) {
+                    if (mEntryLabels[entry] == label) {
+                        if (previous < 0) {
+                            mCellHeads[slot] = mEntryNext[entry];
+                        } else {
+                            mEntryNext[previous] = mEntryNext[entry];
+                        }
+                        break;
+                    }
+                    previous = entry;
+                }
+            }
+        }
+    }
+
+    private static int cell(double pixels) {
+        return (int) Math.floor(pixels / CELL_SIZE);
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    /**
+     * First entry of a cell, -1 if the cell is empty.
+     */
+    private int head(long key) {
+        int slot = slot(key);
+        return mCellKeys[slot] == key ? mCellHeads[slot] : -1;
+    }
+
+    /**
+     * Slot of a cell key in the table: where it is, or the empty slot where it goes.
+     */
+    private int slot(long key) {
+        int mask = mCellKeys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+        while (mCellKeys[slot] != Long.MIN_VALUE && mCellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void growCells() {
+        long[] keys = mCellKeys;
+        int[] heads = mCellHeads;
+        mCellKeys = new long[keys.length * 2];
+        mCellHeads = new int[keys.length * 2];
+        Arrays.fill(mCellKeys, Long.MIN_VALUE);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != Long.MIN_VALUE) {
+                int slot = slot(keys[i]);
+                mCellKeys[slot] = keys[i];
+                mCellHeads[slot] = heads[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.trien.mymap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Load stage decoding the paths of all lines in parallel.
+ * Every line is an independent task: its path is unpacked or decoded, simplified for every zoom tier,
+ * bounded and measured, see {@link RouteLevelOfDetail.Route#prepare()}. Tasks run on a pool sized to the
+ * cores, while the results are merged in data order, so the scene does not depend on thread timing.
+ */
+final class LineDecodeStage {
+
+    /**
+     * Number of decoding threads, one per core.
+     */
+    static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private LineDecodeStage() {
+    }
+
+    /**
+     * Decode every line with a path, returns the routes by line keyword in data order.
+     */
+    static Map<String, RouteLevelOfDetail.Route> run(RouteDataset dataset, ExecutorService pool) {
+        List<String> keywords = new ArrayList<>();
+        List<Callable<RouteLevelOfDetail.Route>> tasks = new ArrayList<>();
+        for (final RouteDataset.Line line : dataset.getLines()) {
+            keywords.add(line.getKeyword());
+            tasks.add(new Callable<RouteLevelOfDetail.Route>() {
+                @Override
+                public RouteLevelOfDetail.Route call() {
+                    Coordinates path = line.getPath();
+                    if (path.isEmpty()) {
+                        return null;
+                    }
+                    LoadMetrics.increment(LoadMetrics.POINTS_DECODED, path.size());
+                    RouteLevelOfDetail.Route route = new RouteLevelOfDetail.Route(path, line.getMarkers());
+                    route.prepare();
+                    return route;
+                }
+            });
+        }
+
+        List<Future<RouteLevelOfDetail.Route>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        Map<String, RouteLevelOfDetail.Route> routes = new LinkedHashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            RouteLevelOfDetail.Route route;
+            try {
+                route = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error decoding line " + keywords.get(i), e.getCause());
+            }
+            if (route != null) {
+                routes.put(keywords.get(i), route);
+            }
+        }
+        return routes;
+    }
+}
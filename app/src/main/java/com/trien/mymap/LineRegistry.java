@@ -0,0 +1,146 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Color;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * All lines of the route data with their style, keyed by line keyword.
+ * Lines are described entirely by the data (see {@link LineStyle}), so adding a route only takes new
+ * rows in polylines.csv. Paths are decoded and style resources resolved on first use, and resource
+ * names shared by several lines are only looked up once.
+ */
+final class LineRegistry {
+
+    /**
+     * Polyline color of lines without a valid color resource.
+     */
+    private static final int DEFAULT_COLOR = Color.BLACK;
+
+    private final Resources mResources;
+    private final String mPackageName;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Resource ids by "type/name", 0 for names that do not exist.
+     */
+    private final Map<String, Integer> mResourceIds = new HashMap<>();
+
+    LineRegistry(Context context, RouteDataset dataset) {
+        mResources = context.getResources();
+        mPackageName = context.getPackageName();
+        for (RouteDataset.Line line : dataset.getLines()) {
+            mEntries.put(line.getKeyword(), new Entry(line));
+        }
+    }
+
+    /**
+     * Get a line by keyword, null if there is no such line.
+     */
+    Entry get(String keyword) {
+        return mEntries.get(keyword);
+    }
+
+    /**
+     * Get all lines in data order.
+     */
+    Collection<Entry> getLines() {
+        return Collections.unmodifiableCollection(mEntries.values());
+    }
+
+    /**
+     * Resolve a resource name to its id, 0 if the name is empty or unknown.
+     */
+    private synchronized int resolve(String name, String type) {
+        if (name.isEmpty()) {
+            return 0;
+        }
+        String key = type + '/' + name;
+        Integer id = mResourceIds.get(key);
+        if (id == null) {
+            id = mResources.getIdentifier(name, type, mPackageName);
+            mResourceIds.put(key, id);
+        }
+        return id;
+    }
+
+    private static int parseColor(String value) {
+        try {
+            return Color.parseColor(value);
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_COLOR;
+        }
+    }
+
+    /**
+     * A line with its style resources, resolved on first use.
+     */
+    final class Entry {
+
+        private final RouteDataset.Line mLine;
+        private Integer mColor;
+        private Integer mMarkerDrawable;
+        private Integer mArrowDrawable;
+
+        private Entry(RouteDataset.Line line) {
+            mLine = line;
+        }
+
+        String getKeyword() {
+            return mLine.getKeyword();
+        }
+
+        /**
+         * Route data of this line.
+         */
+        RouteDataset.Line getLine() {
+            return mLine;
+        }
+
+        LineStyle getStyle() {
+            return mLine.getStyle();
+        }
+
+        /**
+         * Polyline color, from a color resource or a "#RRGGBB" value.
+         */
+        synchronized int getColor() {
+            if (mColor == null) {
+                String name = getStyle().getColorName();
+                if (name.startsWith("#")) {
+                    mColor = parseColor(name);
+                } else {
+                    int id = resolve(name, "color");
+                    mColor = id != 0 ? mResources.getColor(id) : DEFAULT_COLOR;
+                }
+            }
+            return mColor;
+        }
+
+        /**
+         * Drawable of the bus stop markers, 0 if the line has none.
+         */
+        synchronized int getMarkerDrawable() {
+            if (mMarkerDrawable == null) {
+                mMarkerDrawable = resolve(getStyle().getMarkerName(), "drawable");
+            }
+            return mMarkerDrawable;
+        }
+
+        /**
+         * Drawable of the direction arrows, 0 if the line has none.
+         */
+        synchronized int getArrowDrawable() {
+            if (mArrowDrawable == null) {
+                mArrowDrawable = resolve(getStyle().getArrowName(), "drawable");
+            }
+            return mArrowDrawable;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.trien.mymap;
+
+/**
+ * How a line is drawn, read from the style row of the line in polylines.csv:
+ * "keyword, style, color, marker, arrow, width, zIndex". Color and images are resource names,
+ * resolved by {@link LineRegistry}, the color may also be a "#RRGGBB" value as in GTFS feeds; any
+ * field may be left empty to use its default.
+ */
+final class LineStyle {
+
+    /**
+     * Default polyline width.
+     */
+    static final float DEFAULT_WIDTH = 20f;
+
+    static final LineStyle DEFAULT = new LineStyle("", "", "", DEFAULT_WIDTH, 0f);
+
+    private final String mColorName;
+    private final String mMarkerName;
+    private final String mArrowName;
+    private final float mWidth;
+    private final float mZIndex;
+
+    LineStyle(String colorName, String markerName, String arrowName, float width, float zIndex) {
+        mColorName = colorName;
+        mMarkerName = markerName;
+        mArrowName = arrowName;
+        mWidth = width;
+        mZIndex = zIndex;
+    }
+
+    /**
+     * Parse the fields of a style row starting at the given offset, after the row kind.
+     */
+    static LineStyle parse(String row, int start) {
+        String[] fields = new String[5];
+        for (int i = 0; i < fields.length; i++) {
+            if (start > row.length()) {
+                // Trailing fields left out.
+                fields[i] = "";
+                continue;
+            }
+            int end = row.indexOf(',', start);
+            if (end < 0) {
+                end = row.length();
+            }
+            fields[i] = row.substring(start, end).trim();
+            start = end + 1;
+        }
+        return new LineStyle(fields[0], fields[1], fields[2],
+                fields[3].isEmpty() ? DEFAULT_WIDTH : Float.parseFloat(fields[3]),
+                fields[4].isEmpty() ? 0f : Float.parseFloat(fields[4]));
+    }
+
+    /**
+     * Name of the color resource of the polyline or "#RRGGBB" color, empty if none.
+     */
+    String getColorName() {
+        return mColorName;
+    }
+
+    /**
+     * Name of the drawable of the bus stop markers, empty if none.
+     */
+    String getMarkerName() {
+        return mMarkerName;
+    }
+
+    /**
+     * Name of the drawable of the direction arrows, empty if none.
+     */
+    String getArrowName() {
+        return mArrowName;
+    }
+
+    float getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Drawing order of the polyline, higher values are drawn on top.
+     */
+    float getZIndex() {
+        return mZIndex;
+    }
+}
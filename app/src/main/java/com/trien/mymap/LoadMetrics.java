@@ -0,0 +1,166 @@
+package com.trien.mymap;
+
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing and counters of the route loading pipeline.
+ * Each load stage is a named span, wrapped in an android.os.Trace section so it shows up in
+ * systrace / Perfetto, and its duration is accumulated here together with the load counters.
+ * {@link #snapshot()} gives a consistent copy for tests or a debug overlay.
+ * Verbose logging of the load path is off unless enabled with
+ * "adb shell setprop log.tag.LoadMetrics VERBOSE"; call sites check {@link #VERBOSE} before
+ * building any message, so a disabled log costs a single branch.
+ */
+final class LoadMetrics {
+
+    /**
+     * Log tag of the load path verbose logs.
+     */
+    static final String LOG_TAG = "LoadMetrics";
+
+    /**
+     * Whether verbose load logging is enabled, read once at start up.
+     */
+    static final boolean VERBOSE = Log.isLoggable(LOG_TAG, Log.VERBOSE);
+
+    /**
+     * Span names.
+     */
+    static final String SPAN_PARSE = "parse";
+    static final String SPAN_DECODE = "decode";
+    static final String SPAN_BITMAP_SCALE = "bitmapScale";
+    static final String SPAN_MAP_APPLY = "mapApply";
+
+    /**
+     * Counter names.
+     */
+    static final String ROWS_SCANNED = "rowsScanned";
+    static final String POINTS_DECODED = "pointsDecoded";
+    static final String MARKERS_ADDED = "markersAdded";
+    static final String BITMAP_BYTES = "bitmapBytes";
+
+    private static final ConcurrentMap<String, AtomicLong> sDurations = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> sCounters = new ConcurrentHashMap<>();
+
+    private LoadMetrics() {
+    }
+
+    /**
+     * Start a span on the current thread. Spans nest and must be ended on the same thread with
+     * {@link #endSpan(String, long)}, passing the returned start time.
+     */
+    static long beginSpan(String name) {
+        Trace.beginSection(name);
+        return System.nanoTime();
+    }
+
+    static void endSpan(String name, long startNanos) {
+        Trace.endSection();
+        addDuration(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Add time to a span measured elsewhere, e.g. work spread across several frames.
+     */
+    static void addDuration(String name, long nanos) {
+        get(sDurations, name).addAndGet(nanos);
+    }
+
+    static void increment(String counter, long delta) {
+        get(sCounters, counter).addAndGet(delta);
+    }
+
+    /**
+     * Copy the current durations and counters.
+     */
+    static Snapshot snapshot() {
+        return new Snapshot(copy(sDurations), copy(sCounters));
+    }
+
+    /**
+     * Clear all durations and counters.
+     */
+    static void reset() {
+        sDurations.clear();
+        sCounters.clear();
+    }
+
+    private static AtomicLong get(ConcurrentMap<String, AtomicLong> map, String name) {
+        AtomicLong value = map.get(name);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = map.putIfAbsent(name, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        return value;
+    }
+
+    private static Map<String, Long> copy(ConcurrentMap<String, AtomicLong> map) {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Immutable copy of the metrics at one point in time.
+     */
+    static final class Snapshot {
+
+        private final Map<String, Long> mDurations;
+        private final Map<String, Long> mCounters;
+
+        private Snapshot(Map<String, Long> durations, Map<String, Long> counters) {
+            mDurations = durations;
+            mCounters = counters;
+        }
+
+        /**
+         * Total time spent in a span, 0 if it never ran.
+         */
+        long getDurationNanos(String span) {
+            Long value = mDurations.get(span);
+            return value != null ? value : 0;
+        }
+
+        /**
+         * Value of a counter, 0 if it was never incremented.
+         */
+        long getCount(String counter) {
+            Long value = mCounters.get(counter);
+            return value != null ? value : 0;
+        }
+
+        Map<String, Long> getDurations() {
+            return mDurations;
+        }
+
+        Map<String, Long> getCounters() {
+            return mCounters;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (Map.Entry<String, Long> entry : mDurations.entrySet()) {
+                result.append(entry.getKey()).append('=')
+                        .append(entry.getValue() / 1000000.0).append("ms ");
+            }
+            for (Map.Entry<String, Long> entry : mCounters.entrySet()) {
+                result.append(entry.getKey()).append('=').append(entry.getValue()).append(' ');
+            }
+            return result.toString().trim();
+        }
+    }
+}
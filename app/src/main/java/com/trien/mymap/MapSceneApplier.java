@@ -0,0 +1,346 @@
+package com.trien.mymap;
+
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies queued GoogleMap mutations a chunk per frame instead of all at once.
+ * Every frame, driven by {@link Choreographer}, operations are run until the frame budget is used
+ * up, so populating the map with thousands of objects never blocks the main thread for long.
+ * Operations located inside the visible region of the camera are applied before the others,
+ * except that the operations on one map object always run in the order they were queued.
+ * All methods must be called on the main thread.
+ */
+final class MapSceneApplier implements Choreographer.FrameCallback {
+
+    /**
+     * Default time budget per frame, leaving the rest of a 60 Hz frame for rendering.
+     */
+    static final long DEFAULT_FRAME_BUDGET_NANOS = 4_000_000L;
+
+    /**
+     * Receives a map object once it has been added.
+     */
+    interface OnObjectAddedListener<T> {
+        void onObjectAdded(T object);
+    }
+
+    /**
+     * Notified each time the queue has been fully drained.
+     */
+    interface OnApplyFinishedListener {
+        void onApplyFinished(int operationCount, int frameCount, long elapsedMillis);
+    }
+
+    /**
+     * A single map mutation. Position is used for prioritization, null means it is applied first.
+     * Target is the map object changed, null when the operation adds a new one.
+     */
+    private abstract static class Operation {
+        final LatLng position;
+        final Object target;
+
+        Operation(LatLng position, Object target) {
+            this.position = position;
+            this.target = target;
+        }
+
+        abstract void apply(GoogleMap map);
+    }
+
+    private final GoogleMap mMap;
+    private final long mFrameBudgetNanos;
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    /**
+     * Newly queued operations, not prioritized yet.
+     */
+    private final ArrayDeque<Operation> mPending = new ArrayDeque<>();
+    /**
+     * Operations inside the visible region (or without a position).
+     */
+    private final ArrayDeque<Operation> mVisible = new ArrayDeque<>();
+    /**
+     * Operations outside the visible region.
+     */
+    private final ArrayDeque<Operation> mDeferred = new ArrayDeque<>();
+    /**
+     * Number of operations in mDeferred by target, later operations on these targets are deferred too.
+     */
+    private final Map<Object, Integer> mDeferredTargets = new IdentityHashMap<>();
+
+    private OnApplyFinishedListener mOnApplyFinishedListener;
+
+    private boolean mFrameScheduled;
+    private int mOperationCount;
+    private int mFrameCount;
+    private long mStartNanos;
+
+    MapSceneApplier(GoogleMap map) {
+        this(map, DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    MapSceneApplier(GoogleMap map, long frameBudgetNanos) {
+        mMap = map;
+        mFrameBudgetNanos = frameBudgetNanos;
+    }
+
+    void setOnApplyFinishedListener(OnApplyFinishedListener listener) {
+        mOnApplyFinishedListener = listener;
+    }
+
+    void addMarker(final MarkerOptions options, final OnObjectAddedListener<Marker> listener) {
+        enqueue(new Operation(options.getPosition(), null) {
+            @Override
+            void apply(GoogleMap map) {
+                Marker marker = map.addMarker(options);
+                LoadMetrics.increment(LoadMetrics.MARKERS_ADDED, 1);
+                if (listener != null) {
+                    listener.onObjectAdded(marker);
+                }
+            }
+        });
+    }
+
+    void addPolyline(final PolylineOptions options, final OnObjectAddedListener<Polyline> listener) {
+        enqueue(new Operation(null, null) {
+            @Override
+            void apply(GoogleMap map) {
+                Polyline polyline = map.addPolyline(options);
+                if (listener != null) {
+                    listener.onObjectAdded(polyline);
+                }
+            }
+        });
+    }
+
+    void addGroundOverlay(final GroundOverlayOptions options, final OnObjectAddedListener<GroundOverlay> listener) {
+        enqueue(new Operation(options.getLocation(), null) {
+            @Override
+            void apply(GoogleMap map) {
+                GroundOverlay groundOverlay = map.addGroundOverlay(options);
+                if (listener != null) {
+                    listener.onObjectAdded(groundOverlay);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue an update of a marker showing a spec to show another one, only the attributes that
+     * differ are set.
+     */
+    void updateMarker(final Marker marker, final RouteScene.MarkerSpec from, final RouteScene.MarkerSpec to) {
+        enqueue(new Operation(to.position, marker) {
+            @Override
+            void apply(GoogleMap map) {
+                if (!from.position.equals(to.position)) {
+                    marker.setPosition(to.position);
+                }
+                if (from.icon != to.icon) {
+                    marker.setIcon(to.icon.getDescriptor());
+                }
+                if (from.anchorU != to.anchorU || from.anchorV != to.anchorV) {
+                    marker.setAnchor(to.anchorU, to.anchorV);
+                }
+                if (from.flat != to.flat) {
+                    marker.setFlat(to.flat);
+                }
+                if (from.rotation != to.rotation) {
+                    marker.setRotation(to.rotation);
+                }
+            }
+        });
+    }
+
+    void updatePolyline(final Polyline polyline, final List<LatLng> points) {
+        enqueue(new Operation(null, polyline) {
+            @Override
+            void apply(GoogleMap map) {
+                polyline.setPoints(points);
+            }
+        });
+    }
+
+    void updateMarkerAnchor(final Marker marker, final float anchorU, final float anchorV) {
+        enqueue(new Operation(null, marker) {
+            @Override
+            void apply(GoogleMap map) {
+                marker.setAnchor(anchorU, anchorV);
+            }
+        });
+    }
+
+    void updatePolylineStyle(final Polyline polyline, final int color, final float width, final float zIndex) {
+        enqueue(new Operation(null, polyline) {
+            @Override
+            void apply(GoogleMap map) {
+                polyline.setColor(color);
+                polyline.setWidth(width);
+                polyline.setZIndex(zIndex);
+            }
+        });
+    }
+
+    /**
+     * Queue an update of a ground overlay. A null position or image is left unchanged.
+     */
+    void updateGroundOverlay(final GroundOverlay groundOverlay, final LatLng position, final float bearing,
+                             final BitmapDescriptor image) {
+        enqueue(new Operation(position, groundOverlay) {
+            @Override
+            void apply(GoogleMap map) {
+                if (position != null) {
+                    groundOverlay.setPosition(position);
+                }
+                if (image != null) {
+                    groundOverlay.setImage(image);
+                }
+                groundOverlay.setBearing(bearing);
+            }
+        });
+    }
+
+    void removeMarker(final Marker marker) {
+        enqueue(new Operation(null, marker) {
+            @Override
+            void apply(GoogleMap map) {
+                marker.remove();
+            }
+        });
+    }
+
+    void removePolyline(final Polyline polyline) {
+        enqueue(new Operation(null, polyline) {
+            @Override
+            void apply(GoogleMap map) {
+                polyline.remove();
+            }
+        });
+    }
+
+    void removeGroundOverlay(final GroundOverlay groundOverlay) {
+        enqueue(new Operation(null, groundOverlay) {
+            @Override
+            void apply(GoogleMap map) {
+                groundOverlay.remove();
+            }
+        });
+    }
+
+    /**
+     * Number of operations that have not been applied yet.
+     */
+    int getPendingCount() {
+        return mPending.size() + mVisible.size() + mDeferred.size();
+    }
+
+    /**
+     * Drop all queued operations and stop the frame callback.
+     */
+    void cancel() {
+        mPending.clear();
+        mVisible.clear();
+        mDeferred.clear();
+        mDeferredTargets.clear();
+        if (mFrameScheduled) {
+            mChoreographer.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+    }
+
+    private void enqueue(Operation operation) {
+        if (getPendingCount() == 0 && !mFrameScheduled) {
+            // A new apply run starts.
+            mOperationCount = 0;
+            mFrameCount = 0;
+            mStartNanos = System.nanoTime();
+        }
+        mPending.add(operation);
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        mFrameCount++;
+        // One span per frame, the map apply time is their sum.
+        long start = LoadMetrics.beginSpan(LoadMetrics.SPAN_MAP_APPLY);
+        try {
+            long deadline = start + mFrameBudgetNanos;
+
+            prioritizePending();
+
+            // Always apply at least one operation per frame to guarantee progress.
+            do {
+                Operation operation = mVisible.poll();
+                if (operation == null) {
+                    operation = mDeferred.poll();
+                    if (operation != null && operation.target != null) {
+                        int count = mDeferredTargets.remove(operation.target);
+                        if (count > 1) {
+                            mDeferredTargets.put(operation.target, count - 1);
+                        }
+                    }
+                }
+                if (operation == null) {
+                    break;
+                }
+                operation.apply(mMap);
+                mOperationCount++;
+            } while (System.nanoTime() < deadline);
+        } finally {
+            LoadMetrics.endSpan(LoadMetrics.SPAN_MAP_APPLY, start);
+        }
+
+        if (getPendingCount() > 0) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        } else if (mOnApplyFinishedListener != null) {
+            mOnApplyFinishedListener.onApplyFinished(mOperationCount, mFrameCount,
+                    (System.nanoTime() - mStartNanos) / 1_000_000L);
+        }
+    }
+
+    /**
+     * Split newly queued operations by whether they are inside the current visible region. An
+     * operation on a target that has deferred operations is deferred behind them, whatever its
+     * position, so that e.g. a removal never runs before an earlier update of the same marker.
+     */
+    private void prioritizePending() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        LatLngBounds visibleBounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        Operation operation;
+        while ((operation = mPending.poll()) != null) {
+            Integer deferred = operation.target != null ? mDeferredTargets.get(operation.target) : null;
+            if (deferred == null && (operation.position == null || visibleBounds.contains(operation.position))) {
+                mVisible.add(operation);
+            } else {
+                mDeferred.add(operation);
+                if (operation.target != null) {
+                    mDeferredTargets.put(operation.target, deferred == null ? 1 : deferred + 1);
+                }
+            }
+        }
+    }
+}
@@ -1,38 +1,28 @@
 package com.trien.mymap;
 
-import android.graphics.Bitmap;
-
 import androidx.fragment.app.FragmentActivity;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModelProvider;
+import android.graphics.Point;
 import android.os.Bundle;
+import android.util.Log;
+import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
-import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
-import com.google.android.gms.maps.model.GroundOverlay;
-import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.PolylineOptions;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 
-import static com.trien.mymap.Utils.readEncodedPolyLinePointsFromCSV;
-import static com.trien.mymap.Utils.readMarkersFromCSV;
-import static com.trien.mymap.Utils.resizeCommonAnnotation;
-import static com.trien.mymap.Utils.resizeMarker;
+import java.util.Collections;
 
 public class MapsActivity extends FragmentActivity implements
-        OnMapReadyCallback,
-        OnMapAndViewReadyListener.OnGlobalLayoutAndMapReadyListener {
-
-    /**
-     * Default log tag name for log message.
-     */
-    private static final String LOG_TAG = MapsActivity.class.getName();
+        OnMapViewAndRouteReadyListener.OnMapViewAndRouteReadyCallback,
+        GoogleMap.OnCameraIdleListener,
+        GoogleMap.OnMapClickListener {
 
     /**
      * Bound values for camera focus on app start.
@@ -43,462 +33,292 @@ public class MapsActivity extends FragmentActivity implements
     private static final LatLng BOUND2 = new LatLng(-35.494644, 138.805927);
 
     /**
-     * Keyword constants for reading values from polylines.csv.
-     * Important: these keywords values must be exactly the same as ones in polylines.csv file in raw folder.
+     * Default padding for the bounded area.
      */
-    public static final String LINE_BLUE = "lineBlue";
-    public static final String LINE_ORANGE = "lineOrange";
-    public static final String LINE_VIOLET = "lineViolet";
-    public static final String LINE_GREEN = "lineGreen";
-    public static final String LINE_PINK = "linePink";
-    public static final String MAIN_MARKER = "mainMarker";
+    private static final int BOUNDS_PADDING = 50;
 
     /**
-     * Default width of directional arrows.
+     * Largest distance on screen, in dp, from a tap to the bus stop it selects.
      */
-    private static final float DIRECTION_ARROW_WIDTH = 400f;
+    private static final int STOP_TAP_RADIUS = 32;
 
     /**
-     * Default polyline width.
+     * Number of buses driven along the routes by the {@link VehicleSimulator}, and the seed of their
+     * start positions and speeds.
      */
-    private static final float POLYLINE_WIDTH = 20f;
+    private static final int SIMULATED_VEHICLE_COUNT = 300;
+    private static final long SIMULATED_VEHICLE_SEED = 42;
 
     /**
-     * Default padding for the bounded area.
+     * GoogleMap instance.
      */
-    private static final int BOUNDS_PADDING = 50;
+    private GoogleMap mMap;
 
     /**
-     * GoogleMap instance.
+     * Holds the route scene and the route tiles across configuration changes.
      */
-    private GoogleMap mMap;
+    private RouteSceneViewModel mSceneViewModel;
+
+    /**
+     * Whether the activity is recreated, e.g. after a rotation, in which case the map fragment
+     * restores the camera position itself.
+     */
+    private boolean mRecreated;
+
+    /**
+     * Frame-budgeted applier of map objects.
+     */
+    private MapSceneApplier mSceneApplier;
+
+    /**
+     * Zoom dependent level of detail of the route polylines.
+     */
+    private final RouteLevelOfDetail mLevelOfDetail = new RouteLevelOfDetail();
+
+    /**
+     * Adds and removes markers as they come in and out of the viewport and of the detail level of
+     * the zoom: bus stops and direction arrows, when they are not drawn as tiles.
+     */
+    private ViewportMarkerCuller mMarkerCuller;
+
+    /**
+     * Places the annotation labels near the viewport without overlaps.
+     */
+    private LabelLayer mLabelLayer;
+
+    /**
+     * Brings the map objects to the scene of updated route data.
+     */
+    private SceneReconciler mReconciler;
+
+    /**
+     * The pre-rendered route layer, when drawn as tiles.
+     */
+    private TileOverlay mTileOverlay;
+
+    /**
+     * Index of the bus stops, for the stop nearest to a tap.
+     */
+    private StopIndex mStopIndex;
 
     /**
-     * List of GroundOverlay objects.
+     * Live vehicle markers, running while the activity is started.
      */
-    private List<GroundOverlay> mGroundOverlay = new ArrayList<>();
+    private VehicleLayer mVehicleLayer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_maps);
-        // Obtain the SupportMapFragment and get notified when the map is ready to be used.
+        // Obtain the SupportMapFragment and get notified when the map, its view and the route scene
+        // are all ready to be used.
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
                 .findFragmentById(R.id.map);
-        mapFragment.getMapAsync(this);
+        final OnMapViewAndRouteReadyListener readyListener = new OnMapViewAndRouteReadyListener(mapFragment, this);
+        mRecreated = savedInstanceState != null;
+
+        // The route scene is loaded by a ViewModel that survives configuration changes, a
+        // recreated activity gets the scene that was already loaded instead of building it again.
+        mSceneViewModel = new ViewModelProvider(this,
+                ViewModelProvider.AndroidViewModelFactory.getInstance(getApplication()))
+                .get(RouteSceneViewModel.class);
+        mSceneViewModel.getScene().observe(this, new Observer<RouteScene>() {
+            @Override
+            public void onChanged(RouteScene scene) {
+                if (scene == null) {
+                    return;
+                }
+                if (mReconciler != null) {
+                    // The route data was updated after the map got its first scene.
+                    onSceneUpdated(scene);
+                } else {
+                    readyListener.onSceneLoaded(scene);
+                }
+            }
+        });
+        mSceneViewModel.getLoadError().observe(this, new Observer<RuntimeException>() {
+            @Override
+            public void onChanged(RuntimeException error) {
+                if (error != null) {
+                    // The map stays as it is, the route data is loaded again on the next start.
+                    Toast.makeText(MapsActivity.this, R.string.route_load_error, Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Pick up route data that changed while the app was in the background.
+        mSceneViewModel.updateIfChanged();
+        if (mVehicleLayer != null) {
+            mVehicleLayer.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (mVehicleLayer != null) {
+            mVehicleLayer.stop();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Stop adding objects to the map of this activity.
+        if (mSceneApplier != null) {
+            mSceneApplier.cancel();
+        }
+        super.onDestroy();
     }
 
     /**
      * Manipulates the map once available.
-     * This callback is triggered when the map is ready to be used.
-     * This is where we can add markers or lines, add listeners or move the camera. In this case,
-     * we just add a marker near Sydney, Australia.
+     * This callback is triggered when the map is ready to be used, its view has completed layout and
+     * the route scene has been loaded in the background.
+     * This is where we can add markers or lines, add listeners or move the camera.
      * If Google Play services is not installed on the device, the user will be prompted to install
      * it inside the SupportMapFragment. This method will only be triggered once the user has
      * installed Google Play services and returned to the app.
      */
     @Override
-    public void onMapReady(GoogleMap googleMap) {
+    public void onMapAndRouteReady(GoogleMap googleMap, RouteScene scene) {
         mMap = googleMap;
 
-        // Move camera to wanted area.
-        moveCameraToWantedArea();
-
-        // Draw all polylines.
-        drawAllPolyLines();
-
-        // All all markers (bus stops) to the map.
-        addAllBusStopMarkers();
+        // Move camera to wanted area, unless the map fragment restored the previous camera.
+        if (!mRecreated) {
+            moveCameraToWantedArea(scene);
+        }
 
-        // Add all annotations as markers on map.
-        addAllAnnotationsAsMarkers();
+        // Follow camera changes.
+        mMap.setOnCameraIdleListener(this);
 
-        // Add all directional arrows.
-        addAllDirectionArrowsAsGroundOverlay();
-    }
+        // Show the bus stop nearest to a tap.
+        mStopIndex = scene.getStopIndex();
+        mMap.setOnMapClickListener(this);
 
-    /**
-     * Method to move camera to wanted bus area.
-     */
-    private void moveCameraToWantedArea() {
-        mMap.setOnMapLoadedCallback(new GoogleMap.OnMapLoadedCallback() {
+        // Add the scene to the map a few objects per frame, visible ones first.
+        mSceneApplier = new MapSceneApplier(mMap);
+        mSceneApplier.setOnApplyFinishedListener(new MapSceneApplier.OnApplyFinishedListener() {
             @Override
-            public void onMapLoaded() {
-                // Set up the bounds coordinates for the area we want the user's viewpoint to be.
-                LatLngBounds bounds = new LatLngBounds.Builder()
-                        .include(BOUND1)
-                        .include(BOUND2)
-                        .build();
-                // Move the camera now.
-                mMap.moveCamera(CameraUpdateFactory.newLatLngBounds(bounds, BOUNDS_PADDING));
+            public void onApplyFinished(int operationCount, int frameCount, long elapsedMillis) {
+                if (LoadMetrics.VERBOSE) {
+                    IconCache iconCache = IconCache.getInstance();
+                    Log.v(LoadMetrics.LOG_TAG, operationCount + " map operations applied in " + frameCount
+                            + " frames, " + elapsedMillis + " ms, icon cache hits " + iconCache.getHitCount()
+                            + ", misses " + iconCache.getMissCount() + ", " + LoadMetrics.snapshot());
+                }
             }
         });
+
+        if (BuildConfig.ROUTE_TILE_LAYER) {
+            // Draw the polylines, bus stops and direction arrows as a single layer of pre-rendered tiles.
+            mTileOverlay = mMap.addTileOverlay(new TileOverlayOptions()
+                    .tileProvider(mSceneViewModel.getTileProvider())
+                    .fadeIn(false));
+        }
+        // Add the polylines, unless drawn as tiles, and the markers near the viewport, the rest
+        // follow the camera. This is the difference with an empty map.
+        mMarkerCuller = new ViewportMarkerCuller(Collections.<RouteScene.MarkerSpec>emptyList(), mSceneApplier);
+        mLabelLayer = new LabelLayer(mSceneApplier, getResources().getDisplayMetrics().density);
+        mReconciler = new SceneReconciler(mSceneApplier, mLevelOfDetail, mMarkerCuller, mLabelLayer,
+                BuildConfig.ROUTE_TILE_LAYER);
+        mReconciler.apply(scene, mMap.getCameraPosition().zoom);
+        LatLngBounds visibleBounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        mMarkerCuller.onCameraIdle(visibleBounds, arrowLevel());
+        mLabelLayer.onCameraIdle(mMap.getCameraPosition(), visibleBounds);
+
+        // Drive simulated buses along the routes.
+        mVehicleLayer = new VehicleLayer(mMap, mSceneApplier, scene,
+                new VehicleSimulator(scene.getVehicleLines(), SIMULATED_VEHICLE_COUNT, SIMULATED_VEHICLE_SEED));
+        mVehicleLayer.start();
     }
 
     /**
-     * Method to draw all poly lines.
+     * Called when the route data was updated, apply only what changed to the map. The tile provider
+     * already dropped the changed tiles, the map is told to request them again.
      */
-    private void drawAllPolyLines() {
-        // Add a blue Polyline.
-        mMap.addPolyline(new PolylineOptions()
-                .color(getResources().getColor(R.color.colorPolyLineBlue))
-                .width(POLYLINE_WIDTH)
-                .clickable(false)
-                .addAll(readEncodedPolyLinePointsFromCSV(this, LINE_BLUE)));
-        // Add a violet Polyline.
-        mMap.addPolyline(new PolylineOptions()
-                .color(getResources().getColor(R.color.colorPolyLineViolet))
-                .width(POLYLINE_WIDTH)
-                .clickable(false)
-                .addAll(readEncodedPolyLinePointsFromCSV(this, LINE_VIOLET)));
-        // Add an orange Polyline.
-        mMap.addPolyline(new PolylineOptions()
-                .color(getResources().getColor(R.color.colorPolyLineOrange))
-                .width(POLYLINE_WIDTH)
-                .clickable(false)
-                .addAll(readEncodedPolyLinePointsFromCSV(this, LINE_ORANGE)));
-        // Add a green Polyline.
-        mMap.addPolyline(new PolylineOptions()
-                .color(getResources().getColor(R.color.colorPolyLineGreen))
-                .width(POLYLINE_WIDTH)
-                .clickable(false)
-                .addAll(readEncodedPolyLinePointsFromCSV(this, LINE_GREEN)));
-        // Add a pink Polyline.
-        mMap.addPolyline(new PolylineOptions()
-                .color(getResources().getColor(R.color.colorPolyLinePink))
-                .width(POLYLINE_WIDTH)
-                .clickable(false)
-                .addAll(readEncodedPolyLinePointsFromCSV(this, LINE_PINK)));
+    private void onSceneUpdated(RouteScene scene) {
+        mStopIndex = scene.getStopIndex();
+        if (mTileOverlay != null) {
+            mTileOverlay.clearTileCache();
+        }
+        mReconciler.apply(scene, mMap.getCameraPosition().zoom);
+        mVehicleLayer.setScene(scene);
     }
 
     /**
-     * Method to add all bus stop markers based on line colors.
+     * Called when the camera has stopped moving, update everything that depends on the viewport.
      */
-    private void addAllBusStopMarkers() {
-        addBulkMarkers(MAIN_MARKER);
-        addBulkMarkers(LINE_BLUE);
-        addBulkMarkers(LINE_ORANGE);
-        addBulkMarkers(LINE_VIOLET);
-        addBulkMarkers(LINE_GREEN);
-        addBulkMarkers(LINE_PINK);
+    @Override
+    public void onCameraIdle() {
+        mLevelOfDetail.onCameraIdle(mMap.getCameraPosition().zoom, mSceneApplier);
+        if (mMarkerCuller != null) {
+            LatLngBounds visibleBounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+            mMarkerCuller.onCameraIdle(visibleBounds, arrowLevel());
+            mLabelLayer.onCameraIdle(mMap.getCameraPosition(), visibleBounds);
+        }
+        if (mVehicleLayer != null) {
+            mVehicleLayer.onCameraIdle();
+        }
     }
 
     /**
-     * Helper method to add bulk markers to map as per line keyword.
+     * Called when the map is tapped, show the name of the nearest bus stop and how far it is, if
+     * the stop is close to the tap on screen.
      */
-    private void addBulkMarkers(String lineKeyword) {
-
-        // Create a list of LatLng objects and load all of the markers coordinates from CSV file.
-        List<LatLng> latLngList = readMarkersFromCSV(this, lineKeyword);
-
-        // Create a Bitmap object that holds the right resized marker image based on line color.
-        Bitmap resizedBitmap = resizeMarker(this, R.drawable.marker_blue_dark);
-        switch (lineKeyword) {
-            case LINE_BLUE:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_blue_light);
-                break;
-            case LINE_ORANGE:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_orange);
-                break;
-            case LINE_VIOLET:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_violet);
-                break;
-            case LINE_GREEN:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_green);
-                break;
-            case LINE_PINK:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_pink);
-                break;
-            case MAIN_MARKER:
-                resizedBitmap = resizeMarker(this, R.drawable.marker_blue_dark);
-                break;
+    @Override
+    public void onMapClick(LatLng point) {
+        if (mStopIndex == null) {
+            return;
         }
-
-        // For each of LatLng object in the latLngList, add a relevant marker with the right latitude
-        // and longitude values and bitmap image.
-        for (LatLng latLng : latLngList) {
-            mMap.addMarker(new MarkerOptions()
-                    .position(new LatLng(latLng.latitude, latLng.longitude))
-                    .icon(BitmapDescriptorFactory.fromBitmap(resizedBitmap)));
-            //newMarker.showInfoWindow();
-            //newMarker.setTag();
+        int stop = mStopIndex.nearest(point.latitude, point.longitude);
+        if (stop < 0) {
+            return;
+        }
+        LatLng position = new LatLng(mStopIndex.latitude(stop), mStopIndex.longitude(stop));
+        Point tap = mMap.getProjection().toScreenLocation(point);
+        Point stopPoint = mMap.getProjection().toScreenLocation(position);
+        float radius = STOP_TAP_RADIUS * getResources().getDisplayMetrics().density;
+        if (Math.hypot(stopPoint.x - tap.x, stopPoint.y - tap.y) > radius) {
+            return;
         }
+        String name = mStopIndex.getName(stop);
+        if (name.isEmpty()) {
+            name = mStopIndex.getLineKeyword(stop);
+        }
+        long meters = Math.round(StopIndex.distanceMeters(point.latitude, point.longitude,
+                position.latitude, position.longitude));
+        Toast.makeText(this, getString(R.string.nearest_stop, name, meters), Toast.LENGTH_SHORT).show();
     }
 
     /**
-     * Method to add all annotations on map as markers. This case the texts won't scale when we zoom the map
-     * Use helper method resizeCommonAnnotation() to adjust the size of every annotation image accordingly
-     * The anchor() method specifies the anchor at a particular point in the marker image.
-     * The anchor specifies the point in the icon image that is anchored to the marker's position on the Earth's surface.
-     * The anchor point is specified in the continuous space [0.0, 1.0] x [0.0, 1.0], where (0, 0) is
-     * the top-left corner of the image, and (1, 1) is the bottom-right corner. The anchoring point
-     * in a W x H image is the nearest discrete grid point in a (W + 1) x (H + 1) grid, obtained by
-     * scaling the then rounding. For example, in a 4 x 2 image, the anchor point (0.7, 0.6) resolves
-     * to the grid point at (3, 1).
+     * Helper method to get the detail level of direction arrows for the current camera, so that
+     * arrows keep about the same spacing on screen at every zoom.
      */
-    /*      *-----+-----+-----+-----*
-            |     |     |     |     |
-            |     |     |     |     |
-            +-----+-----+-----+-----+
-            |     |     |   X |     |   (U, V) = (0.7, 0.6)
-            |     |     |     |     |
-            *-----+-----+-----+-----*
-
-            *-----+-----+-----+-----*
-            |     |     |     |     |
-            |     |     |     |     |
-            +-----+-----+-----X-----+   (X, Y) = (3, 1)
-            |     |     |     |     |
-            |     |     |     |     |
-            *-----+-----+-----+-----*      */
-    private void addAllAnnotationsAsMarkers() {
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_whalers_inn)))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.5863, 138.59842))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_yilki_store)))
-                .anchor(0, 0)
-                .position(new LatLng(-35.574789, 138.602354))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_victor_harbor_holiday_park)))
-                .anchor(1, 1)
-                .position(new LatLng(-35.559881, 138.608045))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_beachfront_holiday_park)))
-                .anchor(0, 0)
-                .position(new LatLng(-35.559180000000005, 138.61157))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_warland_reserve)))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.55678, 138.62361))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_adare_caravan_park)))
-                .anchor(0, 0)
-                .position(new LatLng(-35.542840000000005, 138.63001))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_repco_bus_stop6)))
-                .anchor(0.5f, 1)
-                .position(new LatLng(-35.536411, 138.639775))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_bus_stop8)))
-                .anchor(0.5f, 0)
-                .position(new LatLng(-35.534787, 138.650920))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_port_elliot_bus_stop)))
-                .anchor(0.5f, 1)
-                .position(new LatLng(-35.530169, 138.681719))
-        );
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_port_elliot_holiday_park)))
-                .anchor(0, 0)
-                .position(new LatLng(-35.530570000000004, 138.68959))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_middleton_store_stop12)))
-                .anchor(0.3f, 0)
-                .position(new LatLng(-35.510994, 138.703837))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_chapman_rd_stop13)))
-                .anchor(0.3f, 1)
-                .position(new LatLng(-35.509204, 138.721063))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_goolwa_camping_tourist_park)))
-                .anchor(0.5f, 1)
-                .position(new LatLng(-35.498173, 138.772636))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_goolwa_caltex)))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.499598, 138.78091))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_goolwa_stratco)))
-                .anchor(0.5f, 0)
-                .position(new LatLng(-35.504947, 138.779322))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_beach_td)))
-                .anchor(0.5f, 0)
-                .position(new LatLng(-35.515146, 138.774872))
-        );
-
-        mMap.addMarker(new MarkerOptions()
-                .icon(BitmapDescriptorFactory.fromBitmap(resizeCommonAnnotation(this, R.drawable.anno_bus_stop14)))
-                .anchor(0.5f, 0)
-                .position(new LatLng(-35.505026, 138.772299))
-        );
+    private int arrowLevel() {
+        CameraPosition camera = mMap.getCameraPosition();
+        return DirectionArrows.levelForZoom(camera.zoom, camera.target.latitude);
     }
 
     /**
-     * Method to add all directional arrows as ground overlay images.
-     * The bearing() method specifies the bearing of the ground overlay in degrees clockwise from north.
-     * The rotation is performed about the anchor point.
-     * If not specified, the default is 0 (i.e., up on the image points north).
-     * Values outside the range [0, 360) will be normalized (Google developer docs).
-     * DIRECTION_ARROW_WIDTH specifies the default width of the Ground Overlays
+     * Method to move camera to wanted bus area, or to the whole network if the routes are elsewhere,
+     * e.g. when they come from a GTFS feed.
+     * The map view has already completed layout at this point, so the bounds can be applied right away.
      */
-    private void addAllDirectionArrowsAsGroundOverlay() {
-
-        // Blue arrows.
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_blue))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.586970, 138.597452), DIRECTION_ARROW_WIDTH)
-                .bearing(250)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_blue))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.579636, 138.598846), DIRECTION_ARROW_WIDTH)
-                .bearing(100)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_blue))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.571573, 138.592793), DIRECTION_ARROW_WIDTH)
-                .bearing(55)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_blue))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.574142, 138.604587), DIRECTION_ARROW_WIDTH)
-                .bearing(315)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_blue))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.563598, 138.601641), DIRECTION_ARROW_WIDTH)
-                .bearing(170)
-                .clickable(false)));
-
-        // Orange arrows.
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_orange))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.559907, 138.616066), DIRECTION_ARROW_WIDTH)
-                .bearing(340)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_orange))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.556842, 138.625798), DIRECTION_ARROW_WIDTH)
-                .bearing(265)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_orange))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.555459, 138.619425), DIRECTION_ARROW_WIDTH)
-                .bearing(165)
-                .clickable(false)));
-
-        // Violet arrows.
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_violet))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.549445, 138.622413), DIRECTION_ARROW_WIDTH)
-                .bearing(305)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_violet))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.544262, 138.630482), DIRECTION_ARROW_WIDTH)
-                .bearing(130)
-                .clickable(false)));
-
-        // Green arrows.
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_green))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.533821, 138.662244), DIRECTION_ARROW_WIDTH)
-                .bearing(170)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_green))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.530991, 138.667883), DIRECTION_ARROW_WIDTH)
-                .bearing(350)
-                .clickable(false)));
-
-        // Pink arrows.
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.517387, 138.685901), DIRECTION_ARROW_WIDTH)
-                .bearing(300)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.513056, 138.698840), DIRECTION_ARROW_WIDTH)
-                .bearing(170)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.507226, 138.736613), DIRECTION_ARROW_WIDTH)
-                .bearing(355)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.508623, 138.747492), DIRECTION_ARROW_WIDTH)
-                .bearing(175)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.504478, 138.760327), DIRECTION_ARROW_WIDTH)
-                .bearing(280)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.497321, 138.771540), DIRECTION_ARROW_WIDTH)
-                .bearing(355)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.508181, 138.777899), DIRECTION_ARROW_WIDTH)
-                .bearing(100)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.512730, 138.773930), DIRECTION_ARROW_WIDTH)
-                .bearing(280)
-                .clickable(false)));
-        mGroundOverlay.add(mMap.addGroundOverlay(new GroundOverlayOptions()
-                .image(BitmapDescriptorFactory.fromResource(R.drawable.arrow_pink))
-                .anchor(0, 0.5f)
-                .position(new LatLng(-35.506263, 138.770638), DIRECTION_ARROW_WIDTH)
-                .bearing(175)
-                .clickable(false)));
+    private void moveCameraToWantedArea(RouteScene scene) {
+        // Set up the bounds coordinates for the area we want the user's viewpoint to be.
+        LatLngBounds bounds = new LatLngBounds.Builder()
+                .include(BOUND1)
+                .include(BOUND2)
+                .build();
+        LatLngBounds routeBounds = scene.getBounds();
+        if (routeBounds != null && !bounds.contains(routeBounds.getCenter())) {
+            bounds = routeBounds;
+        }
+        // Move the camera now.
+        mMap.moveCamera(CameraUpdateFactory.newLatLngBounds(bounds, BOUNDS_PADDING));
     }
 }
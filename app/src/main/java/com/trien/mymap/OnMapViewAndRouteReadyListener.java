@@ -0,0 +1,61 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.SupportMapFragment;
+
+/**
+ * Helper class that adds a third condition to {@link OnMapAndViewReadyListener}: the route scene
+ * being loaded. The callback is delayed until the GoogleMap, the map View and the route scene have
+ * all completed initialization, so that route loading can be started in onCreate and run at the
+ * same time as the map initialization instead of after it.
+ * All methods are called on the main thread.
+ */
+class OnMapViewAndRouteReadyListener implements OnMapAndViewReadyListener.OnGlobalLayoutAndMapReadyListener {
+
+    /** A listener that needs to wait for the GoogleMap, the View and the route scene to be initialized. */
+    interface OnMapViewAndRouteReadyCallback {
+        void onMapAndRouteReady(GoogleMap googleMap, RouteScene scene);
+    }
+
+    private final OnMapViewAndRouteReadyCallback devCallback;
+
+    private GoogleMap googleMap;
+    private RouteScene scene;
+
+    /** Constructor. Starts waiting for the map and its view right away. */
+    OnMapViewAndRouteReadyListener(SupportMapFragment mapFragment, OnMapViewAndRouteReadyCallback devCallback) {
+        this.devCallback = devCallback;
+        googleMap = null;
+        scene = null;
+
+        // The map and view conditions are tracked by OnMapAndViewReadyListener.
+        new OnMapAndViewReadyListener(mapFragment, this);
+    }
+
+    /**
+     * Called once both the GoogleMap and its View are ready.
+     **/
+    @Override
+    public void onMapReady(GoogleMap googleMap) {
+        this.googleMap = googleMap;
+        fireCallbackIfReady();
+    }
+
+    /**
+     * Called once the route scene has been loaded. A scene that failed to load never arrives, the
+     * callback then waits for a later load to succeed, see {@link RouteSceneViewModel#getLoadError()}.
+     **/
+    public void onSceneLoaded(RouteScene scene) {
+        this.scene = scene;
+        fireCallbackIfReady();
+    }
+
+    /**
+     * If map, view and route scene are all ready, trigger the callback.
+     **/
+    private void fireCallbackIfReady() {
+        if (googleMap != null && scene != null) {
+            devCallback.onMapAndRouteReady(googleMap, scene);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.trien.mymap;
+
+/**
+ * Google encoded polyline decoder and encoder working on primitive coordinates.
+ * Decoding reads the characters of the encoded string in place and appends E7 coordinates to a
+ * reusable {@link Coordinates} buffer, so no LatLng, list or substring is allocated per point.
+ * The same algorithm as PolyUtil.decode() and PolyUtil.encode(), at the format's 5 decimal precision.
+ */
+final class PolylineCodec {
+
+    /**
+     * Factor between the E5 polyline precision and E7 coordinates.
+     */
+    private static final int E5_TO_E7 = 100;
+
+    private PolylineCodec() {
+    }
+
+    /**
+     * Decode a whole encoded path and append its points to out.
+     */
+    static void decode(CharSequence encoded, Coordinates out) {
+        decode(encoded, 0, encoded.length(), false, out);
+    }
+
+    /**
+     * Decode the encoded path found between start and end of a char sequence and append its points
+     * to out. If escaped is true, every doubled backslash is read as a single one, which is how
+     * backslashes are stored in polylines.csv.
+     */
+    static void decode(CharSequence encoded, int start, int end, boolean escaped, Coordinates out) {
+        int index = start;
+        int lat = 0;
+        int lng = 0;
+        while (index < end) {
+            // Latitude delta.
+            int result = 1;
+            int shift = 0;
+            int b;
+            do {
+                char c = encoded.charAt(index++);
+                if (escaped && c == '\\' && index < end && encoded.charAt(index) == '\\') {
+                    index++;
+                }
+                b = c - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f && index < end);
+            lat += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            // Longitude delta.
+            result = 1;
+            shift = 0;
+            do {
+                if (index >= end) {
+                    throw new IllegalArgumentException("Truncated encoded polyline");
+                }
+                char c = encoded.charAt(index++);
+                if (escaped && c == '\\' && index < end && encoded.charAt(index) == '\\') {
+                    index++;
+                }
+                b = c - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f);
+            lng += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            out.add(lat * E5_TO_E7, lng * E5_TO_E7);
+        }
+    }
+
+    /**
+     * Encode coordinates into an encoded path, rounding them to 5 decimals.
+     */
+    static String encode(Coordinates coordinates) {
+        StringBuilder result = new StringBuilder(coordinates.size() * 8);
+        encode(coordinates, result);
+        return result.toString();
+    }
+
+    /**
+     * Encode coordinates and append the encoded path to out.
+     */
+    static void encode(Coordinates coordinates, StringBuilder out) {
+        long lastLat = 0;
+        long lastLng = 0;
+        for (int i = 0; i < coordinates.size(); i++) {
+            long lat = Math.round(coordinates.latE7(i) / (double) E5_TO_E7);
+            long lng = Math.round(coordinates.lngE7(i) / (double) E5_TO_E7);
+            encodeValue(lat - lastLat, out);
+            encodeValue(lng - lastLng, out);
+            lastLat = lat;
+            lastLng = lng;
+        }
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            out.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        out.append((char) (value + 63));
+    }
+}
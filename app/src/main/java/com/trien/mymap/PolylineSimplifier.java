@@ -0,0 +1,93 @@
+package com.trien.mymap;
+
+/**
+ * Douglas-Peucker simplification of primitive coordinates.
+ * Distances are measured in meters on a local equirectangular projection around the first point,
+ * which is accurate enough at the scale of a bus network.
+ */
+final class PolylineSimplifier {
+
+    /**
+     * Mean earth radius in meters.
+     */
+    static final double EARTH_RADIUS = 6371009;
+
+    private PolylineSimplifier() {
+    }
+
+    /**
+     * Simplify a path so that no removed point is further than tolerance meters from the result.
+     * The first and last points are always kept.
+     */
+    static Coordinates simplify(Coordinates path, double tolerance) {
+        int size = path.size();
+        if (size < 3 || tolerance <= 0) {
+            Coordinates copy = new Coordinates(size);
+            copy.addAll(path);
+            return copy;
+        }
+
+        // Project once into meters.
+        double cosLat = Math.cos(Math.toRadians(path.latitude(0)));
+        double metersPerDegree = Math.toRadians(1) * EARTH_RADIUS;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = path.longitude(i) * metersPerDegree * cosLat;
+            y[i] = path.latitude(i) * metersPerDegree;
+        }
+
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+
+        // Explicit stack of [first, last] ranges instead of recursion.
+        int[] stack = new int[size * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        double toleranceSquared = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistance = -1;
+            int maxIndex = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistanceSquared(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    maxIndex = i;
+                }
+            }
+            if (maxIndex >= 0 && maxDistance > toleranceSquared) {
+                keep[maxIndex] = true;
+                stack[top++] = first;
+                stack[top++] = maxIndex;
+                stack[top++] = maxIndex;
+                stack[top++] = last;
+            }
+        }
+
+        Coordinates result = new Coordinates();
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                result.add(path.latE7(i), path.lngE7(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Squared distance from point p to segment ab.
+     */
+    static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,150 @@
+package com.trien.mymap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reader for the binary route asset that the compileRouteData Gradle task (see routes.gradle)
+ * builds from res/raw/polylines.csv. All values are big-endian.
+ * <pre>
+ * int    magic, "RTE1"
+ * short  version
+ * short  line count
+ * int    absolute offset of the data section
+ * line table, once per line:
+ *   short  keyword length, followed by the UTF-8 keyword bytes
+ *   style  3 * (short length, UTF-8 bytes) for the color, marker and arrow resource names,
+ *          float width, float z-index, see LineStyle
+ *   int    path point count,   int path offset (relative to the data section)
+ *   int    marker count,       int marker offset (relative to the data section)
+ * data section:
+ *   path     point count * (zigzag varint latitude delta, zigzag varint longitude delta)
+ *   markers  marker count * (zigzag varint latitude delta, zigzag varint longitude delta),
+ *            then marker count * (short name length, UTF-8 name bytes)
+ * </pre>
+ * Coordinates are E7 integers, each delta is relative to the previous point of the same list
+ * and the first point is relative to (0, 0).
+ */
+final class RouteBinaryFormat {
+
+    /**
+     * File name of the compiled route asset.
+     */
+    static final String ASSET_NAME = "routes.bin";
+
+    static final int MAGIC = 0x52544531;
+    static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RouteBinaryFormat() {
+    }
+
+    /**
+     * Read the line table of a compiled route buffer. Paths are not unpacked here, every line keeps
+     * a view of its own slice of the buffer and unpacks it the first time it is needed.
+     */
+    static RouteDataset read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a compiled route buffer");
+        }
+        int version = in.getShort();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported route buffer version " + version);
+        }
+        int lineCount = in.getShort();
+        int dataOffset = in.getInt();
+
+        Map<String, RouteDataset.Line> lines = new LinkedHashMap<>();
+        for (int i = 0; i < lineCount; i++) {
+            String keyword = readString(in);
+            LineStyle style = new LineStyle(readString(in), readString(in), readString(in),
+                    in.getFloat(), in.getFloat());
+            int pathCount = in.getInt();
+            int pathOffset = in.getInt();
+            int markerCount = in.getInt();
+            int markerOffset = in.getInt();
+
+            ByteBuffer path = buffer.duplicate();
+            path.position(dataOffset + pathOffset);
+
+            ByteBuffer markerData = buffer.duplicate();
+            markerData.position(dataOffset + markerOffset);
+            Coordinates markers = new Coordinates(markerCount);
+            unpack(markerData, markerCount, markers);
+            String[] names = new String[markerCount];
+            for (int m = 0; m < markerCount; m++) {
+                names[m] = readString(markerData);
+            }
+
+            lines.put(keyword, new RouteDataset.Line(keyword, style, path, pathCount, markers, names));
+        }
+        return new RouteDataset(lines);
+    }
+
+    /**
+     * Unpack count delta encoded points from the current position of a buffer.
+     */
+    static void unpack(ByteBuffer in, int count, Coordinates out) {
+        int lat = 0;
+        int lng = 0;
+        for (int i = 0; i < count; i++) {
+            lat += readZigZagVarInt(in);
+            lng += readZigZagVarInt(in);
+            out.add(lat, lng);
+        }
+    }
+
+    /**
+     * Pack points the way paths are stored in the data section, e.g. for imported routes.
+     */
+    static ByteBuffer pack(Coordinates points) {
+        // At most 5 bytes per varint.
+        byte[] bytes = new byte[points.size() * 10];
+        int length = 0;
+        int lat = 0;
+        int lng = 0;
+        for (int i = 0; i < points.size(); i++) {
+            length = writeZigZagVarInt(bytes, length, points.latE7(i) - lat);
+            length = writeZigZagVarInt(bytes, length, points.lngE7(i) - lng);
+            lat = points.latE7(i);
+            lng = points.lngE7(i);
+        }
+        return ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+    }
+
+    private static int readZigZagVarInt(ByteBuffer in) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (result >>> 1) ^ -(result & 1);
+    }
+
+    /**
+     * Write a zigzag varint at the given offset of out, returns the offset after it.
+     */
+    private static int writeZigZagVarInt(byte[] out, int offset, int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7f) != 0) {
+            out[offset++] = (byte) ((zigZag & 0x7f) | 0x80);
+            zigZag >>>= 7;
+        }
+        out[offset++] = (byte) zigZag;
+        return offset;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
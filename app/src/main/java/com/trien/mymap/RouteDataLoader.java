@@ -0,0 +1,139 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the {@link RouteDataset} from a GTFS feed downloaded to the app files dir, or from the app
+ * assets and resources.
+ */
+final class RouteDataLoader {
+
+    /**
+     * Default log tag name for log message.
+     */
+    private static final String LOG_TAG = RouteDataLoader.class.getName();
+
+    /**
+     * File name of the GTFS feed in the app files dir, used instead of the bundled routes when present.
+     */
+    static final String GTFS_FEED = "gtfs.zip";
+
+    /**
+     * Style of the stops of a GTFS feed, the lines take their color from the feed.
+     */
+    private static final LineStyle GTFS_STOP_STYLE = new LineStyle("", "marker_blue_dark", "",
+            LineStyle.DEFAULT_WIDTH, 0f);
+
+    private RouteDataLoader() {
+    }
+
+    /**
+     * Helper method to load the route data. A GTFS feed is imported if there is one, otherwise the
+     * compiled binary asset is memory-mapped when it is available, polylines.csv is parsed otherwise.
+     */
+    static RouteDataset load(Context context) {
+        File feed = new File(context.getFilesDir(), GTFS_FEED);
+        if (feed.isFile()) {
+            try {
+                return loadGtfs(feed);
+            } catch (IOException | RuntimeException e) {
+                Log.w(LOG_TAG, "Unreadable GTFS feed, falling back to the bundled routes", e);
+            }
+        }
+        try {
+            return RouteBinaryFormat.read(mapAsset(context, RouteBinaryFormat.ASSET_NAME));
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Compiled route asset unavailable, falling back to polylines.csv", e);
+        }
+        return loadCsv(context);
+    }
+
+    /**
+     * Version of the route data returned by {@link #load(Context)}, for the caches built from it:
+     * the content hash of the bundled routes, plus the size and date of the GTFS feed if there is one.
+     */
+    static String getContentVersion(Context context) {
+        File feed = new File(context.getFilesDir(), GTFS_FEED);
+        if (!feed.isFile()) {
+            return BuildConfig.ROUTE_CONTENT_HASH;
+        }
+        return BuildConfig.ROUTE_CONTENT_HASH + "-" + feed.length() + "-" + feed.lastModified();
+    }
+
+    /**
+     * Import a GTFS feed, streaming its files out of the zip, see {@link GtfsImporter}.
+     */
+    private static RouteDataset loadGtfs(File feed) throws IOException {
+        ZipFile zip = new ZipFile(feed);
+        try {
+            RouteDataset dataset = GtfsImporter.read(zip, LineStyle.DEFAULT_WIDTH, GTFS_STOP_STYLE);
+            LoadMetrics.increment(LoadMetrics.ROWS_SCANNED, dataset.getRowCount());
+            if (dataset.getSkippedRowCount() > 0) {
+                Log.w(LOG_TAG, dataset.getSkippedRowCount() + " malformed rows skipped in " + GTFS_FEED);
+            }
+            return dataset;
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Map an uncompressed asset into memory, see aaptOptions.noCompress in build.gradle.
+     */
+    private static ByteBuffer mapAsset(Context context, String name) throws IOException {
+        AssetFileDescriptor fd = context.getAssets().openFd(name);
+        try {
+            FileInputStream stream = fd.createInputStream();
+            try {
+                FileChannel channel = stream.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+            } finally {
+                // The mapping stays valid after the channel is closed.
+                stream.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    /**
+     * Helper method to read the whole polylines.csv raw resource into a dataset.
+     */
+    static RouteDataset loadCsv(Context context) {
+        // Create an InputStream object.
+        InputStream is = context.getResources().openRawResource(R.raw.polylines);
+        // Create a BufferedReader object to read values from CSV file.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
+        try {
+            RouteDataset dataset = RouteDataset.parse(reader);
+            LoadMetrics.increment(LoadMetrics.ROWS_SCANNED, dataset.getRowCount());
+            if (dataset.getSkippedRowCount() > 0) {
+                Log.w(LOG_TAG, dataset.getSkippedRowCount() + " malformed rows skipped in polylines.csv");
+            }
+            return dataset;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading polylines.csv", e);
+            return new RouteDataset(Collections.<String, RouteDataset.Line>emptyMap());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with a raw resource stream we failed to close.
+            }
+        }
+    }
+}
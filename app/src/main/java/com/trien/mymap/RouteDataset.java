@@ -0,0 +1,308 @@
+package com.trien.mymap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory, keyword-indexed view of the route data.
+ * The data is read in a single pass and every row is attached to the record of its line keyword,
+ * so looking up a line afterwards is a map lookup instead of another scan of the file.
+ * This class is plain Java, reading the data from the app resources is done by {@link RouteDataLoader}.
+ */
+final class RouteDataset {
+
+    /**
+     * Keyword constants for reading values from polylines.csv.
+     * Important: these keywords values must be exactly the same as ones in polylines.csv file in raw folder.
+     */
+    static final String ENCODED_POINTS = "encodedPoints";
+    static final String LAT_LNG_POINT = "latLngPoint";
+    static final String MARKER = "marker";
+    static final String STYLE = "style";
+
+    /**
+     * Prefix of comment rows in polylines.csv.
+     */
+    private static final String COMMENT_PREFIX = "//";
+
+    /**
+     * All line records keyed by their line keyword, in the order they first appear in the data.
+     */
+    private final Map<String, Line> mLines;
+
+    /**
+     * Number of rows read and number of rows skipped because they were malformed or of an unknown
+     * kind, both 0 when the data did not come from a text source (polylines.csv or a GTFS feed).
+     */
+    private final int mRowCount;
+    private final int mSkippedRowCount;
+
+    RouteDataset(Map<String, Line> lines) {
+        this(lines, 0, 0);
+    }
+
+    RouteDataset(Map<String, Line> lines, int rowCount, int skippedRowCount) {
+        mLines = lines;
+        mRowCount = rowCount;
+        mSkippedRowCount = skippedRowCount;
+    }
+
+    /**
+     * Parse polylines.csv formatted rows in a single pass.
+     * Rows that are empty, commented out or malformed are skipped.
+     */
+    static RouteDataset parse(BufferedReader reader) throws IOException {
+        Map<String, Line> lines = new LinkedHashMap<>();
+        int rowCount = 0;
+        int skippedRowCount = 0;
+        String row;
+        while ((row = reader.readLine()) != null) {
+            rowCount++;
+            if (row.isEmpty() || row.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+            // Locate the first two separators only, the remaining fields depend on the row kind.
+            int keywordEnd = row.indexOf(',');
+            int kindEnd = keywordEnd < 0 ? -1 : row.indexOf(',', keywordEnd + 1);
+            if (kindEnd < 0) {
+                continue;
+            }
+            String keyword = row.substring(0, keywordEnd).trim();
+            String kind = row.substring(keywordEnd + 1, kindEnd).trim();
+
+            Line line = lines.get(keyword);
+            if (line == null) {
+                line = new Line(keyword);
+                lines.put(keyword, line);
+            }
+
+            try {
+                switch (kind) {
+                    case ENCODED_POINTS:
+                        // Kept as is, backslashes are unescaped while decoding.
+                        line.mEncodedPaths.add(row.substring(kindEnd + 1).trim());
+                        break;
+                    case LAT_LNG_POINT:
+                        parseLatLng(row, kindEnd + 1, line.mPathRows, null);
+                        break;
+                    case MARKER:
+                        StringBuilder name = new StringBuilder();
+                        parseLatLng(row, kindEnd + 1, line.mMarkers, name);
+                        line.mMarkerNames.add(name.toString());
+                        break;
+                    case STYLE:
+                        line.mStyle = LineStyle.parse(row, kindEnd + 1);
+                        break;
+                    default:
+                        // Unknown row kind.
+                        skippedRowCount++;
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                skippedRowCount++;
+            }
+        }
+        return new RouteDataset(lines, rowCount, skippedRowCount);
+    }
+
+    /**
+     * Parse "lat, lng[, name]" starting at the given offset of a row into out.
+     * If name is not null, the optional name field is appended to it.
+     */
+    private static void parseLatLng(String row, int start, Coordinates out, StringBuilder name) {
+        int latEnd = row.indexOf(',', start);
+        if (latEnd < 0) {
+            throw new IllegalArgumentException("Missing longitude");
+        }
+        int lngEnd = row.indexOf(',', latEnd + 1);
+        if (lngEnd < 0) {
+            lngEnd = row.length();
+        } else if (name != null) {
+            int nameEnd = row.indexOf(',', lngEnd + 1);
+            name.append(row.substring(lngEnd + 1, nameEnd < 0 ? row.length() : nameEnd).trim());
+        }
+        out.add(Double.parseDouble(row.substring(start, latEnd).trim()),
+                Double.parseDouble(row.substring(latEnd + 1, lngEnd).trim()));
+    }
+
+    /**
+     * Number of polylines.csv or GTFS rows read, comments and empty rows of polylines.csv included.
+     */
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Number of rows that were malformed or of an unknown kind.
+     */
+    int getSkippedRowCount() {
+        return mSkippedRowCount;
+    }
+
+    /**
+     * Get the record of a line keyword. An empty record is returned for unknown keywords.
+     */
+    Line getLine(String lineKeyword) {
+        Line line = mLines.get(lineKeyword);
+        return line != null ? line : new Line(lineKeyword);
+    }
+
+    /**
+     * Get all line records in data order.
+     */
+    Collection<Line> getLines() {
+        return Collections.unmodifiableCollection(mLines.values());
+    }
+
+    /**
+     * All route data that belongs to one line keyword.
+     */
+    static final class Line {
+
+        private final String mKeyword;
+        private final Coordinates mMarkers;
+        private final List<String> mMarkerNames;
+
+        /**
+         * Stable ids of the bus stops, parallel to mMarkers, or null if the data has none.
+         */
+        private final List<String> mStopIds;
+
+        /**
+         * Source rows of a line parsed from polylines.csv.
+         */
+        private final List<String> mEncodedPaths = new ArrayList<>();
+        private final Coordinates mPathRows = new Coordinates();
+
+        /**
+         * Packed path of a line read from the compiled route asset.
+         */
+        private final ByteBuffer mPackedPath;
+        private final int mPackedPathCount;
+
+        /**
+         * Route path, unpacked or decoded on first use.
+         */
+        private Coordinates mPath;
+
+        private LineStyle mStyle;
+
+        private Line(String keyword) {
+            mKeyword = keyword;
+            mMarkers = new Coordinates();
+            mMarkerNames = new ArrayList<>();
+            mStopIds = null;
+            mPackedPath = null;
+            mPackedPathCount = 0;
+            mStyle = LineStyle.DEFAULT;
+        }
+
+        Line(String keyword, LineStyle style, ByteBuffer packedPath, int packedPathCount,
+             Coordinates markers, String[] markerNames) {
+            mKeyword = keyword;
+            mMarkers = markers;
+            mMarkerNames = Arrays.asList(markerNames);
+            mStopIds = null;
+            mPackedPath = packedPath;
+            mPackedPathCount = packedPathCount;
+            mStyle = style;
+        }
+
+        /**
+         * A line whose path is already decoded, see {@link RouteSceneCache}.
+         */
+        Line(String keyword, LineStyle style, Coordinates path, Coordinates markers, String[] markerNames) {
+            this(keyword, style, path, markers, markerNames, null);
+        }
+
+        /**
+         * A line whose path is already decoded, with the stable ids of its bus stops, e.g. the GTFS
+         * stop_id, or null if the data has none.
+         */
+        Line(String keyword, LineStyle style, Coordinates path, Coordinates markers, String[] markerNames,
+             String[] stopIds) {
+            mKeyword = keyword;
+            mMarkers = markers;
+            mMarkerNames = Arrays.asList(markerNames);
+            mStopIds = stopIds != null ? Arrays.asList(stopIds) : null;
+            mPackedPath = null;
+            mPackedPathCount = 0;
+            mPath = path;
+            mStyle = style;
+        }
+
+        String getKeyword() {
+            return mKeyword;
+        }
+
+        /**
+         * Style of this line, {@link LineStyle#DEFAULT} if the data has no style row for it.
+         */
+        LineStyle getStyle() {
+            return mStyle;
+        }
+
+        /**
+         * Route path of this line. It comes from the encodedPoints rows, or from the explicit
+         * latLngPoint rows if the line has no encoded path.
+         */
+        synchronized Coordinates getPath() {
+            if (mPath == null) {
+                if (mPackedPath != null) {
+                    mPath = new Coordinates(mPackedPathCount);
+                    RouteBinaryFormat.unpack(mPackedPath.duplicate(), mPackedPathCount, mPath);
+                } else if (!mEncodedPaths.isEmpty()) {
+                    mPath = new Coordinates();
+                    for (String encodedPath : mEncodedPaths) {
+                        PolylineCodec.decode(encodedPath, 0, encodedPath.length(), true, mPath);
+                    }
+                } else {
+                    mPath = mPathRows;
+                }
+            }
+            return mPath;
+        }
+
+        /**
+         * Bus stop positions of this line (marker rows).
+         */
+        Coordinates getMarkers() {
+            return mMarkers;
+        }
+
+        /**
+         * Bus stop names of this line, parallel to {@link #getMarkers()}.
+         */
+        List<String> getMarkerNames() {
+            return Collections.unmodifiableList(mMarkerNames);
+        }
+
+        /**
+         * Ids of the bus stops in the data, parallel to {@link #getMarkers()} and empty for stops
+         * without one, or null if the data has no stop ids.
+         */
+        List<String> getStopIds() {
+            return mStopIds != null ? Collections.unmodifiableList(mStopIds) : null;
+        }
+
+        /**
+         * Id of a bus stop that stays the same across versions of the route data: its id in the
+         * data, e.g. the GTFS stop_id, or else the line keyword and the stop position rounded to E7,
+         * see {@link Coordinates}. Stops added or removed elsewhere in the data do not change it.
+         */
+        String getMarkerId(int marker) {
+            if (mStopIds != null && !mStopIds.get(marker).isEmpty()) {
+                return mStopIds.get(marker);
+            }
+            return mKeyword + "/" + mMarkers.latE7(marker) + "," + mMarkers.lngE7(marker);
+        }
+    }
+}
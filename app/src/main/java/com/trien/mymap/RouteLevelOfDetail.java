@@ -0,0 +1,210 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Zoom dependent level of detail for route polylines.
+ * Every route has a few simplified tiers, one per zoom band, built lazily the first time they are
+ * needed and then cached. When the camera settles, each registered Polyline is switched to the tier
+ * of the new zoom, so zoomed out views only push a fraction of the vertices to the map.
+ */
+final class RouteLevelOfDetail {
+
+    /**
+     * Upper zoom bound (exclusive) of each simplified tier. Zoom levels above the last bound use
+     * the full resolution path.
+     */
+    private static final float[] TIER_MAX_ZOOMS = {11f, 13f, 15f};
+
+    /**
+     * Allowed simplification error, in screen pixels at the highest zoom of a tier.
+     */
+    private static final double TOLERANCE_PIXELS = 1;
+
+    /**
+     * Ground resolution of zoom level 0 at the equator, in meters per pixel.
+     */
+    private static final double METERS_PER_PIXEL_ZOOM_0 = 156543.03392;
+
+    private final List<TrackedPolyline> mPolylines = new ArrayList<>();
+
+    /**
+     * Tier index used for a zoom level, {@link #TIER_MAX_ZOOMS}.length being the full resolution.
+     */
+    static int tierForZoom(float zoom) {
+        for (int tier = 0; tier < TIER_MAX_ZOOMS.length; tier++) {
+            if (zoom < TIER_MAX_ZOOMS[tier]) {
+                return tier;
+            }
+        }
+        return TIER_MAX_ZOOMS.length;
+    }
+
+    /**
+     * Track a polyline showing the given route at the given zoom.
+     */
+    void register(Polyline polyline, Route route, float zoom) {
+        mPolylines.add(new TrackedPolyline(polyline, route, tierForZoom(zoom)));
+    }
+
+    /**
+     * Stop tracking a polyline, e.g. before registering it again with another route.
+     */
+    void unregister(Polyline polyline) {
+        for (int i = 0; i < mPolylines.size(); i++) {
+            if (mPolylines.get(i).polyline == polyline) {
+                mPolylines.remove(i);
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        mPolylines.clear();
+    }
+
+    /**
+     * Switch every tracked polyline whose tier differs from the one of the new zoom.
+     * Point updates go through the applier, so that they are spread across frames.
+     */
+    void onCameraIdle(float zoom, MapSceneApplier applier) {
+        int tier = tierForZoom(zoom);
+        for (TrackedPolyline tracked : mPolylines) {
+            if (tracked.tier != tier) {
+                tracked.tier = tier;
+                applier.updatePolyline(tracked.polyline, tracked.route.getPoints(tier));
+            }
+        }
+    }
+
+    /**
+     * A polyline on the map with the route it shows and its current tier.
+     */
+    private static final class TrackedPolyline {
+        final Polyline polyline;
+        final Route route;
+        int tier;
+
+        TrackedPolyline(Polyline polyline, Route route, int tier) {
+            this.polyline = polyline;
+            this.route = route;
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * The full path of a route with its simplified tiers, its bounds and its measure.
+     */
+    static final class Route {
+
+        private final Coordinates mPath;
+        private final Coordinates mStops;
+        private final Coordinates[] mSimplified = new Coordinates[TIER_MAX_ZOOMS.length];
+        private final List<List<LatLng>> mTiers = new ArrayList<>();
+        private LatLngBounds mBounds;
+        private RouteMeasure mMeasure;
+
+        /**
+         * A route along a path, serving the given bus stops.
+         */
+        Route(Coordinates path, Coordinates stops) {
+            mPath = path;
+            mStops = stops;
+            for (int i = 0; i <= TIER_MAX_ZOOMS.length; i++) {
+                mTiers.add(null);
+            }
+        }
+
+        /**
+         * The full resolution path.
+         */
+        Coordinates getPath() {
+            return mPath;
+        }
+
+        /**
+         * Simplify the path for every tier, compute its bounds and measure it ahead of time, so that
+         * switching tiers later only creates the LatLng objects. Safe to call from any thread.
+         */
+        synchronized void prepare() {
+            for (int tier = 0; tier < TIER_MAX_ZOOMS.length; tier++) {
+                getSimplified(tier);
+            }
+            getBounds();
+            getMeasure();
+        }
+
+        /**
+         * Distances along the path and of the bus stops, measured on first use.
+         */
+        synchronized RouteMeasure getMeasure() {
+            if (mMeasure == null) {
+                mMeasure = new RouteMeasure(mPath, mStops);
+            }
+            return mMeasure;
+        }
+
+        /**
+         * Bounds of the path, null if it is empty.
+         */
+        synchronized LatLngBounds getBounds() {
+            if (mBounds == null && !mPath.isEmpty()) {
+                int south = Integer.MAX_VALUE;
+                int west = Integer.MAX_VALUE;
+                int north = Integer.MIN_VALUE;
+                int east = Integer.MIN_VALUE;
+                for (int i = 0; i < mPath.size(); i++) {
+                    south = Math.min(south, mPath.latE7(i));
+                    north = Math.max(north, mPath.latE7(i));
+                    west = Math.min(west, mPath.lngE7(i));
+                    east = Math.max(east, mPath.lngE7(i));
+                }
+                mBounds = new LatLngBounds(new LatLng(south / Coordinates.E7, west / Coordinates.E7),
+                        new LatLng(north / Coordinates.E7, east / Coordinates.E7));
+            }
+            return mBounds;
+        }
+
+        /**
+         * Get the points of a tier, simplifying the path on first use.
+         */
+        synchronized List<LatLng> getPoints(int tier) {
+            List<LatLng> points = mTiers.get(tier);
+            if (points == null) {
+                points = Utils.toLatLngList(tier == TIER_MAX_ZOOMS.length ? mPath : getSimplified(tier));
+                mTiers.set(tier, points);
+            }
+            return points;
+        }
+
+        /**
+         * Get the simplified path of a tier below the full resolution one.
+         */
+        private Coordinates getSimplified(int tier) {
+            if (mSimplified[tier] == null) {
+                mSimplified[tier] = mPath.isEmpty() ? mPath : PolylineSimplifier.simplify(mPath, tolerance(tier));
+            }
+            return mSimplified[tier];
+        }
+
+        /**
+         * Get the points to show at a zoom level.
+         */
+        List<LatLng> getPointsForZoom(float zoom) {
+            return getPoints(tierForZoom(zoom));
+        }
+
+        /**
+         * Simplification tolerance in meters of a tier, at the latitude of the route.
+         */
+        private double tolerance(int tier) {
+            double cosLat = Math.cos(Math.toRadians(mPath.latitude(0)));
+            return TOLERANCE_PIXELS * METERS_PER_PIXEL_ZOOM_0 * cosLat / Math.pow(2, TIER_MAX_ZOOMS[tier]);
+        }
+    }
+}
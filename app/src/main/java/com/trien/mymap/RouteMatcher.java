@@ -0,0 +1,368 @@
+package com.trien.mymap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snaps positions, e.g. GPS fixes of a device or a vehicle, to the route path of a line.
+ * The segments of all paths are put in a uniform grid of about {@link #CELL_METERS} cells, every
+ * segment in each cell its bounding box covers, so a match only tests the segments near the fix.
+ * A {@link Tracker} follows one vehicle along one line: as consecutive fixes are close along the
+ * path, it first searches the segments around the previous match and only falls back to the grid
+ * when the vehicle is no longer there.
+ * Offsets are measured in meters on a local equirectangular projection around the fix, which is
+ * accurate enough at the scale of a route segment, distances along the path come from the
+ * {@link RouteMeasure} of the line. Matching does not allocate. This class is plain Java.
+ */
+final class RouteMatcher {
+
+    /**
+     * Largest distance in meters from a fix to the path it is snapped to.
+     */
+    static final double MAX_OFFSET_METERS = 50;
+
+    /**
+     * Size of a grid cell, in meters.
+     */
+    private static final double CELL_METERS = 250;
+
+    /**
+     * Distance in meters along the path, either side of the previous match, a tracker searches first.
+     */
+    private static final double TRACK_WINDOW_METERS = 300;
+
+    /**
+     * Offset in meters below which a tracker keeps the match found near the previous one. Further
+     * than this the path may run closer elsewhere, e.g. on the way back of a loop, and the grid decides.
+     */
+    private static final double TRACK_OFFSET_METERS = 15;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(PolylineSimplifier.EARTH_RADIUS);
+
+    /**
+     * A position snapped to a path. Filled in by the matching methods, so that one instance can be
+     * reused for every fix.
+     */
+    static final class Match {
+        /**
+         * Index of the segment the fix is snapped to, from its first point in the path.
+         */
+        int segment = -1;
+        double latitude;
+        double longitude;
+
+        /**
+         * Distance in meters along the path, from its first point to the snapped point.
+         */
+        double distanceAlong;
+
+        /**
+         * Distance in meters from the fix to the snapped point.
+         */
+        double offset;
+
+        /**
+         * Bearing of the segment, in degrees clockwise from north.
+         */
+        float bearing;
+    }
+
+    private final Map<String, Integer> mLineIndexes = new HashMap<>();
+
+    /**
+     * Points of all paths one after the other, line l using points mLineStarts[l] to
+     * mLineStarts[l + 1] - 1. A segment id is the id of its first point.
+     */
+    private final Coordinates mPoints = new Coordinates();
+    private final int[] mLineStarts;
+    private final int[] mPointLines;
+    private final RouteMeasure[] mMeasures;
+
+    private final double mSouth;
+    private final double mWest;
+    private final double mCellHeight;
+    private final double mCellWidth;
+    private final int mRows;
+    private final int mColumns;
+    private final int[] mCellStarts;
+    private final int[] mSegments;
+
+    private RouteMatcher(Map<String, RouteMeasure> measures) {
+        int lineCount = 0;
+        for (RouteMeasure measure : measures.values()) {
+            if (measure.getPath().size() >= 2) {
+                lineCount++;
+            }
+        }
+        mLineStarts = new int[lineCount + 1];
+        mMeasures = new RouteMeasure[lineCount];
+        int lineIndex = 0;
+        for (Map.Entry<String, RouteMeasure> entry : measures.entrySet()) {
+            Coordinates path = entry.getValue().getPath();
+            if (path.size() >= 2) {
+                mLineIndexes.put(entry.getKey(), lineIndex);
+                mMeasures[lineIndex] = entry.getValue();
+                mPoints.addAll(path);
+                mLineStarts[++lineIndex] = mPoints.size();
+            }
+        }
+        int size = mPoints.size();
+        mPointLines = new int[size];
+        double south = Double.MAX_VALUE;
+        double west = Double.MAX_VALUE;
+        double north = -Double.MAX_VALUE;
+        double east = -Double.MAX_VALUE;
+        for (int line = 0; line < lineCount; line++) {
+            for (int i = mLineStarts[line]; i < mLineStarts[line + 1]; i++) {
+                mPointLines[i] = line;
+                south = Math.min(south, mPoints.latitude(i));
+                north = Math.max(north, mPoints.latitude(i));
+                west = Math.min(west, mPoints.longitude(i));
+                east = Math.max(east, mPoints.longitude(i));
+            }
+        }
+        if (size == 0) {
+            south = north = west = east = 0;
+        }
+
+        // Cells of about CELL_METERS, with a bounded count for continent wide feeds.
+        double cosLat = Math.max(0.01, Math.cos(Math.toRadians((south + north) / 2)));
+        double height = Math.max(north - south, 1e-9);
+        double width = Math.max(east - west, 1e-9);
+        mRows = (int) Math.max(1, Math.min(1024, Math.ceil(height * METERS_PER_DEGREE / CELL_METERS)));
+        mColumns = (int) Math.max(1, Math.min(1024, Math.ceil(width * METERS_PER_DEGREE * cosLat / CELL_METERS)));
+        mSouth = south;
+        mWest = west;
+        mCellHeight = height / mRows;
+        mCellWidth = width / mColumns;
+
+        // Counting sort of the segments by cell, a segment being in every cell its box overlaps.
+        mCellStarts = new int[mRows * mColumns + 1];
+        for (int segment = 0; segment < size - 1; segment++) {
+            sortIntoCells(segment, null, null);
+        }
+        for (int cell = 0; cell < mRows * mColumns; cell++) {
+            mCellStarts[cell + 1] += mCellStarts[cell];
+        }
+        int[] next = new int[mRows * mColumns];
+        System.arraycopy(mCellStarts, 0, next, 0, next.length);
+        mSegments = new int[mCellStarts[mRows * mColumns]];
+        for (int segment = 0; segment < size - 1; segment++) {
+            sortIntoCells(segment, next, mSegments);
+        }
+    }
+
+    /**
+     * Index the measured paths of the lines, by line keyword.
+     */
+    static RouteMatcher build(Map<String, RouteMeasure> measures) {
+        return new RouteMatcher(measures);
+    }
+
+    /**
+     * Whether the line has a path to match against.
+     */
+    boolean hasLine(String lineKeyword) {
+        return mLineIndexes.containsKey(lineKeyword);
+    }
+
+    /**
+     * Snap a position to the nearest segment of a line, searching the grid.
+     * Returns false if the line has no path within {@link #MAX_OFFSET_METERS}, the match is then undefined.
+     */
+    boolean match(String lineKeyword, double latitude, double longitude, Match match) {
+        Integer line = mLineIndexes.get(lineKeyword);
+        return line != null && matchGrid(line, latitude, longitude, match);
+    }
+
+    /**
+     * Follows one vehicle along one line, see {@link Tracker#track(double, double)}.
+     */
+    Tracker newTracker(String lineKeyword) {
+        Integer line = mLineIndexes.get(lineKeyword);
+        return new Tracker(line != null ? line : -1);
+    }
+
+    /**
+     * Snaps the consecutive fixes of one vehicle to one line.
+     */
+    final class Tracker {
+        private final int mLine;
+        private final Match mMatch = new Match();
+        private final Match mCandidate = new Match();
+        private boolean mMatched;
+
+        private Tracker(int line) {
+            mLine = line;
+        }
+
+        /**
+         * Snap the next fix, searching near the previous match first. Returns false if the line has
+         * no path within {@link #MAX_OFFSET_METERS}, the next fix is then searched in the grid again.
+         */
+        boolean track(double latitude, double longitude) {
+            if (mLine < 0) {
+                return false;
+            }
+            if (mMatched && matchNear(latitude, longitude, mCandidate)
+                    && mCandidate.offset <= TRACK_OFFSET_METERS) {
+                copy(mCandidate, mMatch);
+                return true;
+            }
+            mMatched = matchGrid(mLine, latitude, longitude, mCandidate);
+            if (mMatched) {
+                copy(mCandidate, mMatch);
+            }
+            return mMatched;
+        }
+
+        /**
+         * The last successful match, its segment is -1 before the first one.
+         */
+        Match getMatch() {
+            return mMatch;
+        }
+
+        /**
+         * Search the segments within {@link #TRACK_WINDOW_METERS} along the path of the previous match.
+         */
+        private boolean matchNear(double latitude, double longitude, Match match) {
+            RouteMeasure measure = mMeasures[mLine];
+            int start = mLineStarts[mLine];
+            int last = mLineStarts[mLine + 1] - start - 2;
+            double cosLat = Math.cos(Math.toRadians(latitude));
+            match.offset = Double.MAX_VALUE;
+            for (int segment = mMatch.segment; segment >= 0
+                    && measure.distanceAt(segment + 1) >= mMatch.distanceAlong - TRACK_WINDOW_METERS; segment--) {
+                project(start + segment, latitude, longitude, cosLat, match);
+            }
+            for (int segment = mMatch.segment + 1; segment <= last
+                    && measure.distanceAt(segment) <= mMatch.distanceAlong + TRACK_WINDOW_METERS; segment++) {
+                project(start + segment, latitude, longitude, cosLat, match);
+            }
+            return finish(mLine, match);
+        }
+
+        private void copy(Match from, Match to) {
+            to.segment = from.segment;
+            to.latitude = from.latitude;
+            to.longitude = from.longitude;
+            to.distanceAlong = from.distanceAlong;
+            to.offset = from.offset;
+            to.bearing = from.bearing;
+        }
+    }
+
+    /**
+     * Test the segments of a line in the grid cells within {@link #MAX_OFFSET_METERS} of a position.
+     */
+    private boolean matchGrid(int line, double latitude, double longitude, Match match) {
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double latitudeRadius = MAX_OFFSET_METERS / METERS_PER_DEGREE;
+        double longitudeRadius = latitudeRadius / Math.max(0.01, cosLat);
+        double south = latitude - latitudeRadius;
+        double north = latitude + latitudeRadius;
+        double west = longitude - longitudeRadius;
+        double east = longitude + longitudeRadius;
+        match.offset = Double.MAX_VALUE;
+        if (mSegments.length == 0 || north < mSouth || south > mSouth + mCellHeight * mRows
+                || east < mWest || west > mWest + mCellWidth * mColumns) {
+            return false;
+        }
+        int lastRow = row(north);
+        int lastColumn = column(east);
+        for (int row = row(south); row <= lastRow; row++) {
+            for (int column = column(west); column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                    int segment = mSegments[i];
+                    if (mPointLines[segment] == line) {
+                        project(segment, latitude, longitude, cosLat, match);
+                    }
+                }
+            }
+        }
+        return finish(line, match);
+    }
+
+    /**
+     * Project a position on a segment, keeping it in the match if it is nearer than the match so far.
+     * The match holds the segment id and the fraction along the segment until {@link #finish(int, Match)}.
+     */
+    private void project(int segment, double latitude, double longitude, double cosLat, Match match) {
+        double ax = (mPoints.longitude(segment) - longitude) * cosLat;
+        double ay = mPoints.latitude(segment) - latitude;
+        double dx = (mPoints.longitude(segment + 1) - longitude) * cosLat - ax;
+        double dy = mPoints.latitude(segment + 1) - latitude - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+        double px = ax + fraction * dx;
+        double py = ay + fraction * dy;
+        double offset = Math.sqrt(px * px + py * py) * METERS_PER_DEGREE;
+        if (offset < match.offset) {
+            match.offset = offset;
+            match.segment = segment;
+            match.distanceAlong = fraction;
+        }
+    }
+
+    /**
+     * Turn the nearest segment found into the snapped point, false if none is close enough.
+     */
+    private boolean finish(int line, Match match) {
+        if (match.offset > MAX_OFFSET_METERS) {
+            return false;
+        }
+        int segment = match.segment;
+        double fraction = match.distanceAlong;
+        double latitude0 = mPoints.latitude(segment);
+        double longitude0 = mPoints.longitude(segment);
+        double dLatitude = mPoints.latitude(segment + 1) - latitude0;
+        double dLongitude = mPoints.longitude(segment + 1) - longitude0;
+        match.latitude = latitude0 + fraction * dLatitude;
+        match.longitude = longitude0 + fraction * dLongitude;
+        match.segment = segment - mLineStarts[line];
+        match.distanceAlong = mMeasures[line].distanceAt(match.segment, fraction);
+        match.bearing = RouteMeasure.bearing(dLatitude, dLongitude * Math.cos(Math.toRadians(latitude0)));
+        return true;
+    }
+
+    /**
+     * Count a segment in every cell its box overlaps, or store it there if next holds the next free
+     * position of every cell.
+     */
+    private void sortIntoCells(int segment, int[] next, int[] segments) {
+        if (mPointLines[segment + 1] != mPointLines[segment]) {
+            // Last point of a path.
+            return;
+        }
+        double latitude0 = mPoints.latitude(segment);
+        double latitude1 = mPoints.latitude(segment + 1);
+        double longitude0 = mPoints.longitude(segment);
+        double longitude1 = mPoints.longitude(segment + 1);
+        int lastRow = row(Math.max(latitude0, latitude1));
+        int lastColumn = column(Math.max(longitude0, longitude1));
+        for (int row = row(Math.min(latitude0, latitude1)); row <= lastRow; row++) {
+            for (int column = column(Math.min(longitude0, longitude1)); column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                if (next == null) {
+                    mCellStarts[cell + 1]++;
+                } else {
+                    segments[next[cell]++] = segment;
+                }
+            }
+        }
+    }
+
+    private int row(double latitude) {
+        return clamp((int) Math.floor((latitude - mSouth) / mCellHeight), mRows);
+    }
+
+    private int column(double longitude) {
+        return clamp((int) Math.floor((longitude - mWest) / mCellWidth), mColumns);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+}
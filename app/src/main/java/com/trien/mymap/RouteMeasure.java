@@ -0,0 +1,178 @@
+package com.trien.mymap;
+
+/**
+ * Distances along the route path of a line, from the cumulative great circle length of its
+ * segments computed once. A position at a distance along the path is found with a binary search,
+ * and the bus stops of the line are located along the path when it is measured, so the distance
+ * between two stops is a subtraction. Queries do not allocate and may run on any thread.
+ * This class is plain Java.
+ */
+final class RouteMeasure {
+
+    /**
+     * A position along the path, filled in by {@link #interpolate(double, Position)} so that one
+     * instance can be reused for every query.
+     */
+    static final class Position {
+        /**
+         * Index of the segment holding the position, from its first point in the path.
+         */
+        int segment;
+        double latitude;
+        double longitude;
+
+        /**
+         * Bearing of the segment, in degrees clockwise from north.
+         */
+        float bearing;
+    }
+
+    private final Coordinates mPath;
+
+    /**
+     * Distance in meters from the first point of the path to every point.
+     */
+    private final double[] mDistances;
+
+    /**
+     * Distance in meters along the path of every bus stop.
+     */
+    private final double[] mStopDistances;
+
+    /**
+     * Measure a path and locate the stops along it, each one at the nearest point of the path.
+     * On a path passing the same place twice, a stop goes to the nearer of both passes.
+     */
+    RouteMeasure(Coordinates path, Coordinates stops) {
+        mPath = path;
+        int size = path.size();
+        mDistances = new double[size];
+        for (int i = 1; i < size; i++) {
+            mDistances[i] = mDistances[i - 1] + StopIndex.distanceMeters(path.latitude(i - 1), path.longitude(i - 1),
+                    path.latitude(i), path.longitude(i));
+        }
+        mStopDistances = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            mStopDistances[i] = locate(stops.latitude(i), stops.longitude(i));
+        }
+    }
+
+    Coordinates getPath() {
+        return mPath;
+    }
+
+    /**
+     * Length of the path, in meters.
+     */
+    double length() {
+        return mDistances.length == 0 ? 0 : mDistances[mDistances.length - 1];
+    }
+
+    /**
+     * Distance in meters along the path of one of its points.
+     */
+    double distanceAt(int point) {
+        return mDistances[point];
+    }
+
+    int getStopCount() {
+        return mStopDistances.length;
+    }
+
+    /**
+     * Distance in meters along the path of a bus stop.
+     */
+    double stopDistance(int stop) {
+        return mStopDistances[stop];
+    }
+
+    /**
+     * Distance in meters along the path from one bus stop to another, negative if the second stop
+     * comes first.
+     */
+    double distanceBetweenStops(int from, int to) {
+        return mStopDistances[to] - mStopDistances[from];
+    }
+
+    /**
+     * Index of the segment holding a distance along the path: the last point at or before it,
+     * clamped to the segments of the path. The path must have two points at least.
+     */
+    int segmentAt(double distance) {
+        int low = 0;
+        int high = mDistances.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (mDistances[middle] <= distance) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the position at a distance in meters along the path, clamped to the path.
+     * Returns false for a path of less than two points.
+     */
+    boolean interpolate(double distance, Position position) {
+        if (mDistances.length < 2) {
+            return false;
+        }
+        int segment = segmentAt(distance);
+        double length = mDistances[segment + 1] - mDistances[segment];
+        double fraction = length == 0 ? 0 : Math.max(0, Math.min(1, (distance - mDistances[segment]) / length));
+        double latitude = mPath.latitude(segment);
+        double longitude = mPath.longitude(segment);
+        double dLatitude = mPath.latitude(segment + 1) - latitude;
+        double dLongitude = mPath.longitude(segment + 1) - longitude;
+        position.segment = segment;
+        position.latitude = latitude + fraction * dLatitude;
+        position.longitude = longitude + fraction * dLongitude;
+        position.bearing = bearing(dLatitude, dLongitude * Math.cos(Math.toRadians(latitude)));
+        return true;
+    }
+
+    /**
+     * Distance along a segment of a fraction of its length, e.g. of a position projected on it.
+     */
+    double distanceAt(int segment, double fraction) {
+        return mDistances[segment] + fraction * (mDistances[segment + 1] - mDistances[segment]);
+    }
+
+    /**
+     * Bearing in degrees clockwise from north of a step, its east component scaled to the latitude.
+     */
+    static float bearing(double dLatitude, double dLongitudeScaled) {
+        return (float) ((Math.toDegrees(Math.atan2(dLongitudeScaled, dLatitude)) + 360) % 360);
+    }
+
+    /**
+     * Distance along the path of the point of the path nearest to a position, testing every segment.
+     */
+    private double locate(double latitude, double longitude) {
+        if (mDistances.length < 2) {
+            return 0;
+        }
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double nearest = Double.MAX_VALUE;
+        double distance = 0;
+        for (int segment = 0; segment < mDistances.length - 1; segment++) {
+            double ax = (mPath.longitude(segment) - longitude) * cosLat;
+            double ay = mPath.latitude(segment) - latitude;
+            double dx = (mPath.longitude(segment + 1) - longitude) * cosLat - ax;
+            double dy = mPath.latitude(segment + 1) - latitude - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+            double px = ax + fraction * dx;
+            double py = ay + fraction * dy;
+            double offset = px * px + py * py;
+            if (offset < nearest) {
+                nearest = offset;
+                distance = distanceAt(segment, fraction);
+            }
+        }
+        return distance;
+    }
+}
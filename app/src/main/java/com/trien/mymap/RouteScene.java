@@ -0,0 +1,243 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of everything drawn on the map: the route polylines and markers (bus stops and
+ * direction arrows), which never change, the annotation labels, and the indexes of the bus stops and of the route paths.
+ * It is built off the main thread by {@link RouteSceneLoader}, so it only holds plain values and
+ * cached icons, the GoogleMap objects are created from it on the main thread.
+ */
+final class RouteScene {
+
+    private final List<PolylineSpec> mPolylines;
+    private final List<MarkerSpec> mMarkers;
+    private final List<MarkerSpec> mAnnotations;
+    private final List<VehicleLineSpec> mVehicleLines;
+    private final LatLngBounds mBounds;
+    private final StopIndex mStopIndex;
+    private final RouteMatcher mRouteMatcher;
+
+    private RouteScene(Builder builder) {
+        mPolylines = Collections.unmodifiableList(new ArrayList<>(builder.mPolylines));
+        mMarkers = Collections.unmodifiableList(new ArrayList<>(builder.mMarkers));
+        mAnnotations = Collections.unmodifiableList(new ArrayList<>(builder.mAnnotations));
+        mVehicleLines = Collections.unmodifiableList(new ArrayList<>(builder.mVehicleLines));
+        LatLngBounds.Builder bounds = null;
+        for (PolylineSpec polyline : mPolylines) {
+            LatLngBounds routeBounds = polyline.route.getBounds();
+            if (routeBounds != null) {
+                if (bounds == null) {
+                    bounds = new LatLngBounds.Builder();
+                }
+                bounds.include(routeBounds.southwest).include(routeBounds.northeast);
+            }
+        }
+        mBounds = bounds != null ? bounds.build() : null;
+        mStopIndex = builder.mStopIndex;
+        mRouteMatcher = builder.mRouteMatcher;
+    }
+
+    List<PolylineSpec> getPolylines() {
+        return mPolylines;
+    }
+
+    /**
+     * Bus stop and direction arrow markers.
+     */
+    List<MarkerSpec> getMarkers() {
+        return mMarkers;
+    }
+
+    /**
+     * Annotation labels, placed on the map without overlaps, see {@link LabelLayer}.
+     */
+    List<MarkerSpec> getAnnotations() {
+        return mAnnotations;
+    }
+
+    /**
+     * Lines vehicles can run on, see {@link VehicleLayer}.
+     */
+    List<VehicleLineSpec> getVehicleLines() {
+        return mVehicleLines;
+    }
+
+    /**
+     * Bounds of all polylines, null if there are none.
+     */
+    LatLngBounds getBounds() {
+        return mBounds;
+    }
+
+    /**
+     * Index of the bus stops of all lines, for nearest stop lookups.
+     */
+    StopIndex getStopIndex() {
+        return mStopIndex;
+    }
+
+    /**
+     * Index of the route paths of all lines, for snapping positions to a line.
+     */
+    RouteMatcher getRouteMatcher() {
+        return mRouteMatcher;
+    }
+
+    /**
+     * A polyline with its color, width and route, whose points depend on the zoom level.
+     * The id stays the same across versions of the route data, see {@link SceneReconciler}.
+     */
+    static final class PolylineSpec {
+        final String id;
+        final int color;
+        final float width;
+        final float zIndex;
+        final RouteLevelOfDetail.Route route;
+
+        PolylineSpec(String id, int color, float width, float zIndex, RouteLevelOfDetail.Route route) {
+            this.id = id;
+            this.color = color;
+            this.width = width;
+            this.zIndex = zIndex;
+            this.route = route;
+        }
+
+        /**
+         * Whether both specs have the same style.
+         */
+        boolean sameStyle(PolylineSpec other) {
+            return color == other.color && width == other.width && zIndex == other.zIndex;
+        }
+
+        /**
+         * Whether both specs draw the same polyline.
+         */
+        boolean sameAs(PolylineSpec other) {
+            return sameStyle(other) && route.getPath().contentEquals(other.route.getPath());
+        }
+    }
+
+    /**
+     * A marker with its position, cached icon and anchor point. Flat markers lie on the map and
+     * their rotation is relative to north, like direction arrows. Markers of a detail level above 0
+     * are only shown once the zoom reaches it, see {@link DirectionArrows#levelForZoom(float, double)}.
+     * Labels of a higher priority are placed first, see {@link LabelPlacer}.
+     * The id stays the same across versions of the route data, see {@link SceneReconciler}.
+     */
+    static final class MarkerSpec {
+        final String id;
+        final LatLng position;
+        final IconCache.Icon icon;
+        final float anchorU;
+        final float anchorV;
+        final boolean flat;
+        final float rotation;
+        final int level;
+        final int priority;
+
+        MarkerSpec(String id, LatLng position, IconCache.Icon icon, float anchorU, float anchorV) {
+            this(id, position, icon, anchorU, anchorV, 0);
+        }
+
+        /**
+         * A label, its anchor being the preferred one.
+         */
+        MarkerSpec(String id, LatLng position, IconCache.Icon icon, float anchorU, float anchorV, int priority) {
+            this(id, position, icon, anchorU, anchorV, false, 0f, 0, priority);
+        }
+
+        MarkerSpec(String id, LatLng position, IconCache.Icon icon, float anchorU, float anchorV,
+                   boolean flat, float rotation, int level) {
+            this(id, position, icon, anchorU, anchorV, flat, rotation, level, 0);
+        }
+
+        private MarkerSpec(String id, LatLng position, IconCache.Icon icon, float anchorU, float anchorV,
+                           boolean flat, float rotation, int level, int priority) {
+            this.id = id;
+            this.position = position;
+            this.icon = icon;
+            this.anchorU = anchorU;
+            this.anchorV = anchorV;
+            this.flat = flat;
+            this.rotation = rotation;
+            this.level = level;
+            this.priority = priority;
+        }
+
+        /**
+         * Whether both specs draw the same marker.
+         */
+        boolean sameAs(MarkerSpec other) {
+            return position.equals(other.position) && icon == other.icon && anchorU == other.anchorU
+                    && anchorV == other.anchorV && flat == other.flat && rotation == other.rotation
+                    && level == other.level && priority == other.priority;
+        }
+    }
+
+    /**
+     * A line vehicles can run on, with its measured path and the icon of its vehicles.
+     */
+    static final class VehicleLineSpec {
+        final String keyword;
+        final RouteMeasure measure;
+        final IconCache.Icon icon;
+
+        VehicleLineSpec(String keyword, RouteMeasure measure, IconCache.Icon icon) {
+            this.keyword = keyword;
+            this.measure = measure;
+            this.icon = icon;
+        }
+    }
+
+    /**
+     * Collects the scene objects while the scene is being built.
+     */
+    static final class Builder {
+        private final List<PolylineSpec> mPolylines = new ArrayList<>();
+        private final List<MarkerSpec> mMarkers = new ArrayList<>();
+        private final List<MarkerSpec> mAnnotations = new ArrayList<>();
+        private final List<VehicleLineSpec> mVehicleLines = new ArrayList<>();
+        private StopIndex mStopIndex;
+        private RouteMatcher mRouteMatcher;
+
+        Builder addPolyline(PolylineSpec polyline) {
+            mPolylines.add(polyline);
+            return this;
+        }
+
+        Builder addMarker(MarkerSpec marker) {
+            mMarkers.add(marker);
+            return this;
+        }
+
+        Builder addAnnotation(MarkerSpec annotation) {
+            mAnnotations.add(annotation);
+            return this;
+        }
+
+        Builder addVehicleLine(VehicleLineSpec vehicleLine) {
+            mVehicleLines.add(vehicleLine);
+            return this;
+        }
+
+        Builder setStopIndex(StopIndex stopIndex) {
+            mStopIndex = stopIndex;
+            return this;
+        }
+
+        Builder setRouteMatcher(RouteMatcher routeMatcher) {
+            mRouteMatcher = routeMatcher;
+            return this;
+        }
+
+        RouteScene build() {
+            return new RouteScene(this);
+        }
+    }
+}
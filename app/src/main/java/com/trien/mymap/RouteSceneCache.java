@@ -0,0 +1,313 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * On-disk cache of the decoded route geometry and the scaled icon bitmaps, in the app cache dir.
+ * The first start after an install or update decodes everything as usual and stores the result,
+ * later starts read it back with a single sequential read instead of decoding paths and drawables
+ * again. The cache is only used when it was written by the same APK version code, from the same
+ * route data and drawables (a content hash computed at build time, see routes.gradle, and the GTFS
+ * feed if any, see {@link RouteDataLoader#getContentVersion(Context)}) and for the same screen
+ * density; otherwise, or if it is corrupt, it is ignored and rewritten.
+ * All values are big-endian.
+ * <pre>
+ * int    magic, "RSC1"
+ * int    version
+ * int    APK version code
+ * short  content version length, followed by the UTF-8 content version
+ * int    screen density dpi
+ * int    line count, then once per line:
+ *   short  keyword length, followed by the UTF-8 keyword bytes
+ *   style  as in RouteBinaryFormat
+ *   int    path point count, followed by point count * (int latitude E7, int longitude E7)
+ *   int    marker count, followed by marker count * (int latitude E7, int longitude E7)
+ *          and marker count * (short name length, UTF-8 name bytes)
+ *   int    stop id count, 0 or the marker count, followed by count * (short id length, UTF-8 id bytes)
+ * int    icon count, then once per icon:
+ *   short  drawable name length, followed by the UTF-8 drawable entry name
+ *   int    key width, float key scale, see IconCache
+ *   int    bitmap width, int bitmap height, followed by width * height ARGB_8888 pixels
+ * int    CRC32 of all the previous bytes
+ * </pre>
+ */
+final class RouteSceneCache {
+
+    /**
+     * Default log tag name for log message.
+     */
+    private static final String LOG_TAG = RouteSceneCache.class.getName();
+
+    private static final String FILE_NAME = "route_scene.cache";
+
+    static final int MAGIC = 0x52534331;
+    static final int VERSION = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String DRAWABLE = "drawable";
+
+    private final File mFile;
+    private final Resources mResources;
+    private final String mPackageName;
+    private final int mDensityDpi;
+    private final String mContentVersion;
+
+    RouteSceneCache(Context context) {
+        mFile = new File(context.getCacheDir(), FILE_NAME);
+        mResources = context.getResources();
+        mPackageName = context.getPackageName();
+        mDensityDpi = IconCache.densityDpi(context);
+        mContentVersion = RouteDataLoader.getContentVersion(context);
+    }
+
+    /**
+     * Read the cached route data and put the cached icon bitmaps into the {@link IconCache}.
+     * Returns null if there is no valid cache for this APK and screen.
+     */
+    RouteDataset read() {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(readFile());
+            RouteDataset dataset = readDataset(in);
+            if (dataset == null) {
+                return null;
+            }
+            List<IconCache.Key> keys = new ArrayList<>();
+            List<Bitmap> bitmaps = new ArrayList<>();
+            if (!readIcons(in, keys, bitmaps)) {
+                return null;
+            }
+            // Only publish the icons once the whole cache has been read successfully.
+            IconCache iconCache = IconCache.getInstance();
+            for (int i = 0; i < keys.size(); i++) {
+                iconCache.putBitmap(keys.get(i), bitmaps.get(i));
+            }
+            return dataset;
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable route scene cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the route data, with every path decoded, and the scaled icon bitmaps of the
+     * {@link IconCache}. The file is replaced atomically, a failed write leaves no cache behind.
+     */
+    void write(RouteDataset dataset, IconCache iconCache) {
+        File temporary = new File(mFile.getPath() + ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(new FileOutputStream(temporary), crc)));
+            try {
+                writeHeader(out);
+                writeDataset(out, dataset);
+                writeIcons(out, iconCache);
+                out.flush();
+                out.writeInt((int) crc.getValue());
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing route scene cache", e);
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Read the whole file and check its CRC.
+     */
+    private byte[] readFile() throws IOException {
+        long length = mFile.length();
+        if (length < 4 || length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid cache size " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Cache checksum mismatch");
+        }
+        return bytes;
+    }
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(BuildConfig.VERSION_CODE);
+        writeString(out, mContentVersion);
+        out.writeInt(mDensityDpi);
+    }
+
+    /**
+     * Read the header and the lines, null if the cache was written for other inputs.
+     */
+    private RouteDataset readDataset(ByteBuffer in) {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != BuildConfig.VERSION_CODE
+                || !readString(in).equals(mContentVersion) || in.getInt() != mDensityDpi) {
+            Log.i(LOG_TAG, "Route scene cache is out of date");
+            return null;
+        }
+        int lineCount = in.getInt();
+        Map<String, RouteDataset.Line> lines = new LinkedHashMap<>();
+        for (int i = 0; i < lineCount; i++) {
+            String keyword = readString(in);
+            LineStyle style = new LineStyle(readString(in), readString(in), readString(in),
+                    in.getFloat(), in.getFloat());
+            Coordinates path = readCoordinates(in);
+            Coordinates markers = readCoordinates(in);
+            String[] names = new String[markers.size()];
+            for (int m = 0; m < names.length; m++) {
+                names[m] = readString(in);
+            }
+            String[] stopIds = null;
+            int stopIdCount = in.getInt();
+            if (stopIdCount > 0) {
+                stopIds = new String[stopIdCount];
+                for (int m = 0; m < stopIdCount; m++) {
+                    stopIds[m] = readString(in);
+                }
+            }
+            lines.put(keyword, new RouteDataset.Line(keyword, style, path, markers, names, stopIds));
+        }
+        return new RouteDataset(lines);
+    }
+
+    private static void writeDataset(DataOutputStream out, RouteDataset dataset) throws IOException {
+        out.writeInt(dataset.getLines().size());
+        for (RouteDataset.Line line : dataset.getLines()) {
+            writeString(out, line.getKeyword());
+            LineStyle style = line.getStyle();
+            writeString(out, style.getColorName());
+            writeString(out, style.getMarkerName());
+            writeString(out, style.getArrowName());
+            out.writeFloat(style.getWidth());
+            out.writeFloat(style.getZIndex());
+            writeCoordinates(out, line.getPath());
+            writeCoordinates(out, line.getMarkers());
+            for (String name : line.getMarkerNames()) {
+                writeString(out, name);
+            }
+            List<String> stopIds = line.getStopIds();
+            out.writeInt(stopIds != null ? stopIds.size() : 0);
+            if (stopIds != null) {
+                for (String stopId : stopIds) {
+                    writeString(out, stopId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the icons into keys and bitmaps, false if a drawable no longer exists.
+     */
+    private boolean readIcons(ByteBuffer in, List<IconCache.Key> keys, List<Bitmap> bitmaps) {
+        int iconCount = in.getInt();
+        for (int i = 0; i < iconCount; i++) {
+            int drawable = mResources.getIdentifier(readString(in), DRAWABLE, mPackageName);
+            int keyWidth = in.getInt();
+            float keyScale = in.getFloat();
+            int width = in.getInt();
+            int height = in.getInt();
+            if (drawable == 0 || width <= 0 || height <= 0) {
+                return false;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            int byteCount = bitmap.getByteCount();
+            ByteBuffer pixels = in.duplicate();
+            pixels.limit(pixels.position() + byteCount);
+            bitmap.copyPixelsFromBuffer(pixels);
+            in.position(in.position() + byteCount);
+            keys.add(new IconCache.Key(drawable, keyWidth, keyScale, mDensityDpi));
+            bitmaps.add(bitmap);
+        }
+        return true;
+    }
+
+    private void writeIcons(DataOutputStream out, IconCache iconCache) throws IOException {
+        List<IconCache.Key> keys = new ArrayList<>();
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (Map.Entry<IconCache.Key, IconCache.Icon> entry : iconCache.snapshot().entrySet()) {
+            Bitmap bitmap = entry.getValue().getBitmap();
+            if (!bitmap.isRecycled() && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                    && entry.getKey().densityDpi == mDensityDpi) {
+                keys.add(entry.getKey());
+                bitmaps.add(bitmap);
+            }
+        }
+        out.writeInt(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            IconCache.Key key = keys.get(i);
+            Bitmap bitmap = bitmaps.get(i);
+            writeString(out, mResources.getResourceEntryName(key.drawable));
+            out.writeInt(key.width);
+            out.writeFloat(key.scale);
+            out.writeInt(bitmap.getWidth());
+            out.writeInt(bitmap.getHeight());
+            ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+            bitmap.copyPixelsToBuffer(pixels);
+            out.write(pixels.array());
+        }
+    }
+
+    private static Coordinates readCoordinates(ByteBuffer in) {
+        int count = in.getInt();
+        Coordinates coordinates = new Coordinates(count);
+        IntBuffer values = in.asIntBuffer();
+        coordinates.read(values, count);
+        in.position(in.position() + count * 8);
+        return coordinates;
+    }
+
+    private static void writeCoordinates(DataOutputStream out, Coordinates coordinates) throws IOException {
+        out.writeInt(coordinates.size());
+        ByteBuffer values = ByteBuffer.allocate(coordinates.size() * 8);
+        coordinates.write(values.asIntBuffer());
+        out.write(values.array());
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,388 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds the {@link RouteScene} on a background thread: route data loading, polyline decoding and
+ * bitmap scaling all happen off the main thread, only the finished scene is posted back to it.
+ * Line paths are decoded in parallel on a pool of their own, see {@link LineDecodeStage}.
+ * The decoded data is then stored in the {@link RouteSceneCache} so that later starts skip the decoding.
+ * Newer versions of the route data, e.g. a new GTFS feed, are built into a scene the same way,
+ * see {@link #update(Context, Callback)}.
+ */
+final class RouteSceneLoader {
+
+    /**
+     * Default log tag name for log message.
+     */
+    private static final String LOG_TAG = RouteSceneLoader.class.getName();
+
+    /**
+     * Label priorities of the annotations: bus stops are kept over other places when labels collide.
+     */
+    private static final int STOP_LABEL_PRIORITY = 1;
+    private static final int PLACE_LABEL_PRIORITY = 0;
+
+    /**
+     * Receives the finished scene, or the error that prevented building it, on the main thread.
+     */
+    interface Callback {
+        void onSceneLoaded(RouteScene scene);
+
+        void onSceneFailed(RuntimeException error);
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            backgroundThreadFactory("RouteSceneLoader"));
+
+    /**
+     * Pool decoding the line paths, see {@link LineDecodeStage}, kept for updates until the loader is cancelled.
+     */
+    private final ExecutorService mDecodePool = Executors.newFixedThreadPool(LineDecodeStage.THREAD_COUNT,
+            backgroundThreadFactory("RouteDecoder"));
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private Future<?> mTask;
+
+    private volatile boolean mCancelled;
+
+    /**
+     * Start building the scene. The callback is invoked on the main thread unless the load is cancelled
+     * first, with the error if the route data cannot be loaded or built.
+     */
+    void load(Context context, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        mTask = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                RouteSceneCache cache = new RouteSceneCache(appContext);
+                RouteDataset dataset;
+                boolean cached;
+                final RouteScene scene;
+                try {
+                    // Load the route data once for all lines, from the scene cache if it is valid.
+                    long start = LoadMetrics.beginSpan(LoadMetrics.SPAN_PARSE);
+                    try {
+                        dataset = cache.read();
+                        cached = dataset != null;
+                        if (!cached) {
+                            dataset = RouteDataLoader.load(appContext);
+                        }
+                    } finally {
+                        LoadMetrics.endSpan(LoadMetrics.SPAN_PARSE, start);
+                    }
+                    throwIfCancelled();
+                    scene = buildScene(appContext, dataset);
+                } catch (CancellationException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error building route scene", e);
+                    deliverFailure(e, callback);
+                    return;
+                }
+                deliver(scene, callback);
+                if (!cached && !mCancelled) {
+                    // Paths are decoded and icons scaled by now, keep them for the next start.
+                    cache.write(dataset, IconCache.getInstance());
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the route data again and build its scene, after any load or update started before, e.g.
+     * when a newer GTFS feed replaced the one the current scene was built from, see {@link RouteDataLoader}.
+     * The callback is invoked on the main thread unless the loader is cancelled first. The scene
+     * cache is left as is, it is rebuilt on the next start.
+     */
+    void update(Context context, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        mTask = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final RouteScene scene;
+                try {
+                    RouteDataset dataset = RouteDataLoader.load(appContext);
+                    throwIfCancelled();
+                    scene = buildScene(appContext, dataset);
+                } catch (CancellationException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error building updated route scene", e);
+                    deliverFailure(e, callback);
+                    return;
+                }
+                deliver(scene, callback);
+            }
+        });
+    }
+
+    /**
+     * Stop any running load and drop its result. Must be called from the main thread,
+     * the loader cannot be reused afterwards.
+     */
+    void cancel() {
+        mCancelled = true;
+        if (mTask != null) {
+            mTask.cancel(true);
+        }
+        mMainHandler.removeCallbacksAndMessages(null);
+        mExecutor.shutdownNow();
+        mDecodePool.shutdownNow();
+    }
+
+    /**
+     * Thread factory of background priority threads.
+     */
+    static ThreadFactory backgroundThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name);
+            }
+        };
+    }
+
+    /**
+     * Post a built scene to the callback on the main thread.
+     */
+    private void deliver(final RouteScene scene, final Callback callback) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    callback.onSceneLoaded(scene);
+                }
+            }
+        });
+    }
+
+    /**
+     * Post the error that prevented building a scene to the callback on the main thread.
+     */
+    private void deliverFailure(final RuntimeException error, final Callback callback) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    callback.onSceneFailed(error);
+                }
+            }
+        });
+    }
+
+    private void throwIfCancelled() {
+        if (mCancelled || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Build the whole scene, checking for cancellation between the stages.
+     */
+    private RouteScene buildScene(Context context, RouteDataset dataset) {
+        RouteScene.Builder builder = new RouteScene.Builder();
+        LineRegistry registry = new LineRegistry(context, dataset);
+
+        // Decode the paths of all lines in parallel, then draw all polylines.
+        Map<String, RouteLevelOfDetail.Route> routes;
+        long start = LoadMetrics.beginSpan(LoadMetrics.SPAN_DECODE);
+        try {
+            routes = LineDecodeStage.run(dataset, mDecodePool);
+        } finally {
+            LoadMetrics.endSpan(LoadMetrics.SPAN_DECODE, start);
+        }
+        throwIfCancelled();
+        addAllPolyLines(registry, routes, builder);
+
+        // All all markers (bus stops) to the map.
+        addAllBusStopMarkers(context, registry, builder);
+        throwIfCancelled();
+
+        // Add all annotations as markers on map.
+        addAllAnnotationsAsMarkers(context, builder);
+        throwIfCancelled();
+
+        // Add all directional arrows along the measured paths.
+        addAllDirectionArrows(context, registry, routes, builder);
+        throwIfCancelled();
+
+        // Let vehicles run on the measured paths.
+        addAllVehicleLines(context, registry, routes, builder);
+
+        // Index the bus stops and the measured paths of all lines for nearest stop lookups and
+        // for snapping positions to a line.
+        builder.setStopIndex(StopIndex.build(dataset));
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        for (Map.Entry<String, RouteLevelOfDetail.Route> route : routes.entrySet()) {
+            measures.put(route.getKey(), route.getValue().getMeasure());
+        }
+        builder.setRouteMatcher(RouteMatcher.build(measures));
+        RouteScene scene = builder.build();
+        if (LoadMetrics.VERBOSE) {
+            Log.v(LoadMetrics.LOG_TAG, "Route scene built: " + LoadMetrics.snapshot());
+        }
+        return scene;
+    }
+
+    /**
+     * Method to add all poly lines, one per line of the registry that has a decoded route.
+     */
+    private void addAllPolyLines(LineRegistry registry, Map<String, RouteLevelOfDetail.Route> routes,
+                                 RouteScene.Builder builder) {
+        for (LineRegistry.Entry line : registry.getLines()) {
+            RouteLevelOfDetail.Route route = routes.get(line.getKeyword());
+            if (route != null) {
+                builder.addPolyline(new RouteScene.PolylineSpec("line/" + line.getKeyword(), line.getColor(), line.getStyle().getWidth(),
+                        line.getStyle().getZIndex(), route));
+            }
+        }
+    }
+
+    /**
+     * Method to add all bus stop markers, with the marker icon of their line.
+     */
+    private void addAllBusStopMarkers(Context context, LineRegistry registry, RouteScene.Builder builder) {
+        for (LineRegistry.Entry line : registry.getLines()) {
+            addBulkMarkers(context, line, builder);
+        }
+    }
+
+    /**
+     * Helper method to add the bulk markers of a line, all sharing one cached marker icon. Their ids
+     * do not depend on the order of the stops, see {@link RouteDataset.Line#getMarkerId(int)}, so
+     * that an update adding or removing a stop only changes that stop.
+     */
+    private void addBulkMarkers(Context context, LineRegistry.Entry line, RouteScene.Builder builder) {
+        Coordinates markers = line.getLine().getMarkers();
+        if (markers.isEmpty() || line.getMarkerDrawable() == 0) {
+            return;
+        }
+        IconCache.Icon icon = IconCache.getInstance().getMarker(context, line.getMarkerDrawable());
+        Set<String> ids = new HashSet<>(markers.size() * 2);
+        for (int i = 0; i < markers.size(); i++) {
+            String id = "stop/" + line.getLine().getMarkerId(i);
+            if (!ids.add(id)) {
+                // A stop listed twice at the same position.
+                id += "/" + i;
+            }
+            builder.addMarker(new RouteScene.MarkerSpec(id,
+                    new LatLng(markers.latitude(i), markers.longitude(i)), icon, 0.5f, 1f));
+        }
+    }
+
+    /**
+     * Method to add all annotations as markers. This case the texts won't scale when we zoom the map
+     * IconCache scales every annotation image accordingly with helper method resizeCommonAnnotation()
+     * The anchor specifies the point in the icon image that is anchored to the marker's position on the Earth's surface.
+     * The anchor point is specified in the continuous space [0.0, 1.0] x [0.0, 1.0], where (0, 0) is
+     * the top-left corner of the image, and (1, 1) is the bottom-right corner. The anchoring point
+     * in a W x H image is the nearest discrete grid point in a (W + 1) x (H + 1) grid, obtained by
+     * scaling the then rounding. For example, in a 4 x 2 image, the anchor point (0.7, 0.6) resolves
+     * to the grid point at (3, 1).
+     */
+    /*      *-----+-----+-----+-----*
+            |     |     |     |     |
+            |     |     |     |     |
+            +-----+-----+-----+-----+
+            |     |     |   X |     |   (U, V) = (0.7, 0.6)
+            |     |     |     |     |
+            *-----+-----+-----+-----*
+
+            *-----+-----+-----+-----*
+            |     |     |     |     |
+            |     |     |     |     |
+            +-----+-----+-----X-----+   (X, Y) = (3, 1)
+            |     |     |     |     |
+            |     |     |     |     |
+            *-----+-----+-----+-----*      */
+    private void addAllAnnotationsAsMarkers(Context context, RouteScene.Builder builder) {
+        builder.addAnnotation(annotation(context, R.drawable.anno_whalers_inn, PLACE_LABEL_PRIORITY, 0, 0.5f, -35.5863, 138.59842));
+        builder.addAnnotation(annotation(context, R.drawable.anno_yilki_store, PLACE_LABEL_PRIORITY, 0, 0, -35.574789, 138.602354));
+        builder.addAnnotation(annotation(context, R.drawable.anno_victor_harbor_holiday_park, PLACE_LABEL_PRIORITY, 1, 1, -35.559881, 138.608045));
+        builder.addAnnotation(annotation(context, R.drawable.anno_beachfront_holiday_park, PLACE_LABEL_PRIORITY, 0, 0, -35.559180000000005, 138.61157));
+        builder.addAnnotation(annotation(context, R.drawable.anno_warland_reserve, PLACE_LABEL_PRIORITY, 0, 0.5f, -35.55678, 138.62361));
+        builder.addAnnotation(annotation(context, R.drawable.anno_adare_caravan_park, PLACE_LABEL_PRIORITY, 0, 0, -35.542840000000005, 138.63001));
+        builder.addAnnotation(annotation(context, R.drawable.anno_repco_bus_stop6, STOP_LABEL_PRIORITY, 0.5f, 1, -35.536411, 138.639775));
+        builder.addAnnotation(annotation(context, R.drawable.anno_bus_stop8, STOP_LABEL_PRIORITY, 0.5f, 0, -35.534787, 138.650920));
+        builder.addAnnotation(annotation(context, R.drawable.anno_port_elliot_bus_stop, STOP_LABEL_PRIORITY, 0.5f, 1, -35.530169, 138.681719));
+        builder.addAnnotation(annotation(context, R.drawable.anno_port_elliot_holiday_park, PLACE_LABEL_PRIORITY, 0, 0, -35.530570000000004, 138.68959));
+        builder.addAnnotation(annotation(context, R.drawable.anno_middleton_store_stop12, STOP_LABEL_PRIORITY, 0.3f, 0, -35.510994, 138.703837));
+        builder.addAnnotation(annotation(context, R.drawable.anno_chapman_rd_stop13, STOP_LABEL_PRIORITY, 0.3f, 1, -35.509204, 138.721063));
+        builder.addAnnotation(annotation(context, R.drawable.anno_goolwa_camping_tourist_park, PLACE_LABEL_PRIORITY, 0.5f, 1, -35.498173, 138.772636));
+        builder.addAnnotation(annotation(context, R.drawable.anno_goolwa_caltex, PLACE_LABEL_PRIORITY, 0, 0.5f, -35.499598, 138.78091));
+        builder.addAnnotation(annotation(context, R.drawable.anno_goolwa_stratco, PLACE_LABEL_PRIORITY, 0.5f, 0, -35.504947, 138.779322));
+        builder.addAnnotation(annotation(context, R.drawable.anno_beach_td, PLACE_LABEL_PRIORITY, 0.5f, 0, -35.515146, 138.774872));
+        builder.addAnnotation(annotation(context, R.drawable.anno_bus_stop14, STOP_LABEL_PRIORITY, 0.5f, 0, -35.505026, 138.772299));
+    }
+
+    private RouteScene.MarkerSpec annotation(Context context, int drawable, int priority, float anchorU, float anchorV,
+                                             double latitude, double longitude) {
+        throwIfCancelled();
+        return new RouteScene.MarkerSpec("annotation/" + drawable, new LatLng(latitude, longitude),
+                IconCache.getInstance().getAnnotation(context, drawable), anchorU, anchorV, priority);
+    }
+
+    /**
+     * Method to add the directional arrows of all lines as flat markers, placed along each path at
+     * the spacing of every detail level and pointing along the path, see {@link DirectionArrows}.
+     * The rotation of a flat marker is in degrees clockwise from north and the arrow images point
+     * east, hence the 90 degrees offset. All arrows of a line share one cached icon.
+     */
+    private void addAllDirectionArrows(Context context, LineRegistry registry,
+                                       Map<String, RouteLevelOfDetail.Route> routes, RouteScene.Builder builder) {
+        for (LineRegistry.Entry line : registry.getLines()) {
+            RouteLevelOfDetail.Route route = routes.get(line.getKeyword());
+            if (route == null || line.getArrowDrawable() == 0) {
+                continue;
+            }
+            IconCache.Icon icon = IconCache.getInstance().getArrow(context, line.getArrowDrawable());
+            DirectionArrows arrows = DirectionArrows.place(route.getMeasure());
+            Coordinates positions = arrows.getPositions();
+            for (int i = 0; i < arrows.size(); i++) {
+                builder.addMarker(new RouteScene.MarkerSpec("arrow/" + line.getKeyword() + "/" + i,
+                        new LatLng(positions.latitude(i), positions.longitude(i)), icon, 0.5f, 0.5f,
+                        true, arrows.bearing(i) - 90f, arrows.level(i)));
+            }
+            throwIfCancelled();
+        }
+    }
+
+    /**
+     * Method to add the lines vehicles can run on: every line with a path and direction arrows,
+     * its vehicles showing a larger arrow of the line, see {@link VehicleLayer}.
+     */
+    private void addAllVehicleLines(Context context, LineRegistry registry,
+                                    Map<String, RouteLevelOfDetail.Route> routes, RouteScene.Builder builder) {
+        for (LineRegistry.Entry line : registry.getLines()) {
+            RouteLevelOfDetail.Route route = routes.get(line.getKeyword());
+            if (route != null && line.getArrowDrawable() != 0) {
+                builder.addVehicleLine(new RouteScene.VehicleLineSpec(line.getKeyword(), route.getMeasure(),
+                        IconCache.getInstance().getVehicle(context, line.getArrowDrawable())));
+            }
+        }
+    }
+}
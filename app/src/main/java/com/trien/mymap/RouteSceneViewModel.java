@@ -0,0 +1,113 @@
+package com.trien.mymap;
+
+import android.app.Application;
+
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+/**
+ * Holds the route scene for {@link MapsActivity} across configuration changes.
+ * The scene is loaded once when the first activity instance creates this ViewModel; an activity
+ * recreated after a rotation or a theme switch gets the same, already loaded scene and only has to
+ * add its objects to the new map. The scaled icons and their descriptors live in the process wide
+ * {@link IconCache}, which the scene references, and the tiles rendered so far in the
+ * {@link RouteTileProvider} held here when the route layer is drawn as tiles. A newer version of
+ * the route data replaces the scene, see {@link #updateIfChanged()}.
+ */
+public class RouteSceneViewModel extends AndroidViewModel {
+
+    private final RouteSceneLoader mSceneLoader = new RouteSceneLoader();
+
+    private final MutableLiveData<RouteScene> mScene = new MutableLiveData<>();
+
+    private final MutableLiveData<RuntimeException> mLoadError = new MutableLiveData<>();
+
+    private final RouteSceneLoader.Callback mSceneCallback;
+
+    private RouteTileProvider mTileProvider;
+
+    /**
+     * Version of the route data of the last load or update, see {@link RouteDataLoader#getContentVersion},
+     * null after a failed one.
+     */
+    private String mContentVersion;
+
+    public RouteSceneViewModel(final Application application) {
+        super(application);
+        mSceneCallback = new RouteSceneLoader.Callback() {
+            @Override
+            public void onSceneLoaded(RouteScene scene) {
+                if (BuildConfig.ROUTE_TILE_LAYER) {
+                    if (mTileProvider == null) {
+                        mTileProvider = new RouteTileProvider(application, scene);
+                    } else {
+                        // Only the tiles the update changed are rendered again.
+                        mTileProvider.update(scene, SceneReconciler.changedRegions(mScene.getValue(), scene));
+                    }
+                }
+                mLoadError.setValue(null);
+                mScene.setValue(scene);
+            }
+
+            @Override
+            public void onSceneFailed(RuntimeException error) {
+                // Try again the next time the activity starts.
+                mContentVersion = null;
+                mLoadError.setValue(error);
+            }
+        };
+        mContentVersion = RouteDataLoader.getContentVersion(application);
+        // Start loading route data and scaling bitmaps off the main thread right away,
+        // so that it overlaps with the map initialization.
+        mSceneLoader.load(application, mSceneCallback);
+    }
+
+    /**
+     * Replace the scene if the route data changed since it was loaded, i.e. a GTFS feed was added,
+     * replaced or removed in the app files dir, see {@link RouteDataLoader#GTFS_FEED}, or load it
+     * again if the last load or update failed. The scene is built in the background, after the one
+     * being loaded if any, and observers then bring their map to it, see {@link SceneReconciler}.
+     * Called when the activity starts: on a debug build, push a feed with adb run-as and bring the
+     * app back to the foreground to try an update.
+     */
+    void updateIfChanged() {
+        String version = RouteDataLoader.getContentVersion(getApplication());
+        if (!version.equals(mContentVersion)) {
+            mContentVersion = version;
+            mSceneLoader.update(getApplication(), mSceneCallback);
+        }
+    }
+
+    /**
+     * The route scene, set on the main thread once it has been loaded and again on every update.
+     */
+    LiveData<RouteScene> getScene() {
+        return mScene;
+    }
+
+    /**
+     * The error of the last load or update if it failed, set on the main thread and cleared by the
+     * next scene.
+     */
+    LiveData<RuntimeException> getLoadError() {
+        return mLoadError;
+    }
+
+    /**
+     * Provider of the pre-rendered route tiles, available once the scene has been loaded, null
+     * when the route layer is not drawn as tiles, see BuildConfig.ROUTE_TILE_LAYER.
+     */
+    RouteTileProvider getTileProvider() {
+        return mTileProvider;
+    }
+
+    @Override
+    protected void onCleared() {
+        // The activity is finishing, drop any route scene still being built.
+        mSceneLoader.cancel();
+        if (mTileProvider != null) {
+            mTileProvider.close();
+        }
+    }
+}
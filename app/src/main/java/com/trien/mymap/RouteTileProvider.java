@@ -0,0 +1,488 @@
+package com.trien.mymap;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * TileProvider of the static route layer, pre-rendered into raster tiles by {@link RouteTileRenderer}.
+ * Shown as a single TileOverlay, it replaces the polylines, bus stop markers and direction arrows,
+ * hundreds of objects the map would otherwise manage on every frame.
+ * Rendered tiles are kept in an LRU memory cache backed by a disk cache in the app cache dir,
+ * empty tiles included. The disk cache is tied to the route content version, the APK version and the
+ * screen density, like {@link RouteSceneCache}; older tile sets are deleted, and the current one is
+ * trimmed least recently used first. Tiles are rendered on a small pool of background threads, a tile
+ * requested again while being rendered waits for the same result.
+ * When the route data is updated, only the tiles of the changed regions are dropped, see
+ * {@link #update(RouteScene, List)}. Tiles of an updated scene are kept on disk in a directory of
+ * their own, the shipped route data is rendered again on the next start.
+ */
+final class RouteTileProvider implements TileProvider {
+
+    /**
+     * Default log tag name for log message.
+     */
+    private static final String LOG_TAG = RouteTileProvider.class.getName();
+
+    private static final String DIRECTORY = "route_tiles";
+
+    /**
+     * Version of the rendering, to be increased whenever the look of the tiles changes.
+     */
+    private static final int RENDER_VERSION = 1;
+
+    /**
+     * Share of the maximum heap the cached tiles may use.
+     */
+    private static final int HEAP_FRACTION = 32;
+
+    /**
+     * Size the disk cache is trimmed to.
+     */
+    private static final long DISK_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Number of rendering threads, the map requests tiles from several threads of its own.
+     */
+    private static final int WORKER_COUNT = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final float mScale;
+    private final int mTileSizePixels;
+    private final String mDirectoryName;
+    private final File mRoot;
+    private final LruCache<String, byte[]> mMemoryCache;
+    private final Map<String, Future<byte[]>> mPending = new HashMap<>();
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "RouteTileProvider");
+        }
+    });
+
+    /**
+     * Serializes the disk cache preparation and the renderer creation of a generation. Both run
+     * outside of the lock on this, so that {@link #update(RouteScene, List)} never waits for disk
+     * I/O or for the scene to be indexed.
+     */
+    private final Object mPrepareLock = new Object();
+
+    /**
+     * Scene, tile directory and renderer of the current generation, guarded by this. The generation
+     * is increased by every update, tiles of an older generation are not cached.
+     */
+    private RouteScene mScene;
+    private File mDirectory;
+    private RouteTileRenderer mRenderer;
+    private int mGeneration;
+    private boolean mDiskCachePrepared;
+
+    /**
+     * Directory of the tiles of the previous generation that may still be moved to the current
+     * one, with the changed regions since, see {@link #prepareDiskCache()}. Guarded by this.
+     */
+    private File mPreviousDirectory;
+    private double[] mChangedBoxes;
+
+    RouteTileProvider(Context context, RouteScene scene) {
+        mScene = scene;
+        mScale = context.getResources().getDisplayMetrics().density;
+        mTileSizePixels = Math.round(RouteTileRenderer.TILE_SIZE * mScale);
+        mRoot = new File(context.getCacheDir(), DIRECTORY);
+        mDirectoryName = RENDER_VERSION + "-" + BuildConfig.VERSION_CODE + "-"
+                + RouteDataLoader.getContentVersion(context) + "-" + IconCache.densityDpi(context);
+        mDirectory = new File(mRoot, mDirectoryName);
+        mMemoryCache = new LruCache<String, byte[]>((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+            @Override
+            protected int sizeOf(String key, byte[] data) {
+                // Count empty tiles as one byte.
+                return Math.max(1, data.length);
+            }
+        };
+    }
+
+    /**
+     * Get a tile, called by the map on its own threads.
+     */
+    @Override
+    public Tile getTile(final int x, final int y, final int zoom) {
+        final String key = zoom + "_" + x + "_" + y;
+        byte[] data = mMemoryCache.get(key);
+        if (data == null) {
+            Future<byte[]> future;
+            // A tile being rendered for an older generation is not waited for.
+            final String pendingKey = generation() + "/" + key;
+            synchronized (mPending) {
+                future = mPending.get(pendingKey);
+                if (future == null) {
+                    try {
+                        future = mExecutor.submit(new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() {
+                                try {
+                                    return loadTile(key, x, y, zoom);
+                                } finally {
+                                    synchronized (mPending) {
+                                        mPending.remove(pendingKey);
+                                    }
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // Closed.
+                        return NO_TILE;
+                    }
+                    mPending.put(pendingKey, future);
+                }
+            }
+            try {
+                data = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (CancellationException e) {
+                return NO_TILE;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Error rendering tile " + key, e.getCause());
+                // The map asks again later.
+                return null;
+            }
+        }
+        return data.length == 0 ? NO_TILE : new Tile(mTileSizePixels, mTileSizePixels, data);
+    }
+
+    /**
+     * Switch to an updated scene, dropping the cached tiles that touch the changed regions, see
+     * {@link SceneReconciler#changedRegions(RouteScene, RouteScene)}. The other tiles are kept.
+     * The map must then be told to request its tiles again. Safe to call from any thread.
+     */
+    void update(RouteScene scene, List<LatLngBounds> changedRegions) {
+        double[] boxes = toBoxes(changedRegions);
+        synchronized (this) {
+            mScene = scene;
+            mRenderer = null;
+            mGeneration++;
+            // The disk tiles are moved to the directory of the new generation on first use.
+            if (mPreviousDirectory == null) {
+                mPreviousDirectory = mDirectory;
+                mChangedBoxes = boxes;
+            } else {
+                double[] merged = Arrays.copyOf(mChangedBoxes, mChangedBoxes.length + boxes.length);
+                System.arraycopy(boxes, 0, merged, mChangedBoxes.length, boxes.length);
+                mChangedBoxes = merged;
+            }
+            mDirectory = new File(mRoot, mDirectoryName + "-" + mGeneration);
+            mDiskCachePrepared = false;
+            for (String key : mMemoryCache.snapshot().keySet()) {
+                if (isChanged(key, boxes)) {
+                    mMemoryCache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop rendering and drop the memory cache, the disk cache is kept for the next start.
+     */
+    void close() {
+        mExecutor.shutdownNow();
+        mMemoryCache.evictAll();
+    }
+
+    private synchronized int generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Get the renderer of a generation, creating it on first use so that the scene is indexed off the
+     * main thread. A renderer created for a generation that was updated meanwhile is not kept.
+     */
+    private RouteTileRenderer renderer(int generation, RouteScene scene) {
+        synchronized (mPrepareLock) {
+            synchronized (this) {
+                if (generation == mGeneration && mRenderer != null) {
+                    return mRenderer;
+                }
+            }
+            RouteTileRenderer renderer = new RouteTileRenderer(scene, mScale);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mRenderer = renderer;
+                }
+            }
+            return renderer;
+        }
+    }
+
+    /**
+     * Read a tile from the disk cache, or render and store it. Runs on a worker thread.
+     */
+    private byte[] loadTile(String key, int x, int y, int zoom) {
+        int generation;
+        File directory;
+        RouteScene scene;
+        RouteTileRenderer renderer;
+        boolean prepared;
+        do {
+            // Prepared again if the scene was updated in between.
+            prepareDiskCache();
+            synchronized (this) {
+                prepared = mDiskCachePrepared;
+                generation = mGeneration;
+                directory = mDirectory;
+                scene = mScene;
+                renderer = mRenderer;
+            }
+        } while (!prepared);
+        if (renderer == null) {
+            renderer = renderer(generation, scene);
+        }
+        File file = new File(directory, key);
+        byte[] data = null;
+        if (file.isFile()) {
+            try {
+                data = readFile(file);
+                // The file modification time keeps the disk cache order, see prepareDiskCache().
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Ignoring unreadable tile " + key, e);
+            }
+        }
+        if (data == null) {
+            data = renderer.render(x, y, zoom);
+            if (data == null) {
+                data = EMPTY;
+            }
+            writeFile(file, data);
+        }
+        synchronized (this) {
+            // Dropped if the scene was updated meanwhile.
+            if (generation == mGeneration) {
+                mMemoryCache.put(key, data);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Move the unchanged tiles of the previous generation, if any, delete the tiles of older route
+     * data, APK versions or densities, and trim the current tiles to the disk budget, least recently
+     * used first. Done once per generation, before its first tile is loaded. An update during the
+     * preparation makes the next one move the tiles again, from the directory prepared here.
+     */
+    private void prepareDiskCache() {
+        synchronized (mPrepareLock) {
+            int generation;
+            File previousDirectory;
+            double[] changedBoxes;
+            File directory;
+            synchronized (this) {
+                if (mDiskCachePrepared) {
+                    return;
+                }
+                generation = mGeneration;
+                previousDirectory = mPreviousDirectory;
+                changedBoxes = mChangedBoxes;
+                directory = mDirectory;
+                mPreviousDirectory = null;
+                mChangedBoxes = null;
+            }
+            try {
+                prepareDiskCache(previousDirectory, changedBoxes, directory);
+            } finally {
+                synchronized (this) {
+                    mDiskCachePrepared = generation == mGeneration;
+                }
+            }
+        }
+    }
+
+    private void prepareDiskCache(File previousDirectory, double[] changedBoxes, File directory) {
+        if (previousDirectory != null) {
+            moveUnchangedTiles(previousDirectory, directory, changedBoxes);
+        }
+        File[] directories = mRoot.listFiles();
+        if (directories != null) {
+            for (File other : directories) {
+                if (!other.equals(directory)) {
+                    deleteDirectory(other);
+                }
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(LOG_TAG, "Cannot create tile cache " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_MAX_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_MAX_BYTES) {
+                break;
+            }
+            total -= file.length();
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Move the tiles of a directory that do not touch the changed regions to another one, and delete
+     * the rest.
+     */
+    private static void moveUnchangedTiles(File from, File to, double[] changedBoxes) {
+        File[] files = from.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (!to.isDirectory() && !to.mkdirs()) {
+            Log.w(LOG_TAG, "Cannot create tile cache " + to);
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp") || isChanged(name, changedBoxes) || !file.renameTo(new File(to, name))) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Normalized Web Mercator boxes of regions, minX, minY, maxX, maxY for every region.
+     */
+    private static double[] toBoxes(List<LatLngBounds> regions) {
+        double[] boxes = new double[regions.size() * 4];
+        for (int i = 0; i < regions.size(); i++) {
+            LatLngBounds region = regions.get(i);
+            boxes[i * 4] = RouteTileRenderer.x(region.southwest.longitude);
+            boxes[i * 4 + 1] = RouteTileRenderer.y(region.northeast.latitude);
+            boxes[i * 4 + 2] = RouteTileRenderer.x(region.northeast.longitude);
+            boxes[i * 4 + 3] = RouteTileRenderer.y(region.southwest.latitude);
+        }
+        return boxes;
+    }
+
+    /**
+     * Whether the tile of a cache key may draw something of the changed regions. Geometry is drawn
+     * into the tiles it is less than a tile away from, see {@link RouteTileRenderer}, so every tile
+     * is grown by one tile on each side. Keys that cannot be parsed count as changed.
+     */
+    private static boolean isChanged(String key, double[] changedBoxes) {
+        int zoom;
+        int x;
+        int y;
+        try {
+            int first = key.indexOf('_');
+            int second = key.indexOf('_', first + 1);
+            zoom = Integer.parseInt(key.substring(0, first));
+            x = Integer.parseInt(key.substring(first + 1, second));
+            y = Integer.parseInt(key.substring(second + 1));
+        } catch (RuntimeException e) {
+            return true;
+        }
+        double size = 1.0 / (1L << zoom);
+        double minX = (x - 1) * size;
+        double minY = (y - 1) * size;
+        double maxX = (x + 2) * size;
+        double maxY = (y + 2) * size;
+        for (int i = 0; i < changedBoxes.length; i += 4) {
+            if (changedBoxes[i] <= maxX && changedBoxes[i + 2] >= minX
+                    && changedBoxes[i + 1] <= maxY && changedBoxes[i + 3] >= minY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Store a tile, replacing the file atomically so that a concurrent read never sees half a tile.
+     */
+    private static void writeFile(File file, byte[] data) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing tile " + file.getName(), e);
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+}
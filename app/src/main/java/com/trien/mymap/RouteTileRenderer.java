@@ -0,0 +1,338 @@
+package com.trien.mymap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rasterizes the static route layer of a {@link RouteScene}, polylines, bus stops and direction
+ * arrows, into PNG map tiles with a software Canvas.
+ * Paths are projected to Web Mercator once and split in chunks of consecutive points whose bounding
+ * boxes are put in a {@link BoxIndex}, markers are put in a {@link GridIndex}, so a tile only visits
+ * the geometry near it whatever the size of the network. Tiles are rendered at the screen density:
+ * one tile pixel is one screen pixel, as for polyline widths and marker icons. Rendering is thread
+ * safe, every thread draws into its own bitmap.
+ */
+final class RouteTileRenderer {
+
+    /**
+     * Size of a map tile, in density independent pixels.
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * Number of segments per path chunk.
+     */
+    private static final int CHUNK_SIZE = 32;
+
+    /**
+     * Points of a path closer than this on screen, in pixels, are drawn as one.
+     */
+    private static final double MIN_SEGMENT_PIXELS = 0.5;
+
+    private final int mTileSizePixels;
+    private final List<ProjectedPath> mPaths = new ArrayList<>();
+
+    /**
+     * Path of every chunk, chunk ids following the paths in drawing order and each path in order.
+     */
+    private final int[] mChunkPaths;
+    private final BoxIndex mChunkIndex;
+    private final List<RouteScene.MarkerSpec> mMarkers;
+    private final GridIndex mMarkerIndex;
+
+    /**
+     * Largest distance from a marker position to the edge of its icon, or from a path to the edge of
+     * its stroke, in pixels: geometry this close to a tile is drawn into it too.
+     */
+    private final float mPaddingPixels;
+
+    private final ThreadLocal<TileCanvas> mCanvas = new ThreadLocal<TileCanvas>() {
+        @Override
+        protected TileCanvas initialValue() {
+            return new TileCanvas(mTileSizePixels);
+        }
+    };
+
+    RouteTileRenderer(RouteScene scene, float scale) {
+        mTileSizePixels = Math.round(TILE_SIZE * scale);
+
+        // Project the paths, drawn in z-index order.
+        List<RouteScene.PolylineSpec> polylines = new ArrayList<>(scene.getPolylines());
+        Collections.sort(polylines, new Comparator<RouteScene.PolylineSpec>() {
+            @Override
+            public int compare(RouteScene.PolylineSpec a, RouteScene.PolylineSpec b) {
+                return Float.compare(a.zIndex, b.zIndex);
+            }
+        });
+        float padding = 0;
+        int chunkCount = 0;
+        for (RouteScene.PolylineSpec polyline : polylines) {
+            ProjectedPath path = new ProjectedPath(polyline, chunkCount);
+            mPaths.add(path);
+            chunkCount += path.chunkCount;
+            padding = Math.max(padding, polyline.width / 2);
+        }
+        mChunkPaths = new int[chunkCount];
+        double[] chunkMinX = new double[chunkCount];
+        double[] chunkMinY = new double[chunkCount];
+        double[] chunkMaxX = new double[chunkCount];
+        double[] chunkMaxY = new double[chunkCount];
+        for (int p = 0; p < mPaths.size(); p++) {
+            ProjectedPath path = mPaths.get(p);
+            for (int chunk = 0; chunk < path.chunkCount; chunk++) {
+                int id = path.firstChunk + chunk;
+                mChunkPaths[id] = p;
+                path.chunkBounds(chunk, id, chunkMinX, chunkMinY, chunkMaxX, chunkMaxY);
+            }
+        }
+        mChunkIndex = new BoxIndex(chunkMinX, chunkMinY, chunkMaxX, chunkMaxY);
+
+        mMarkers = scene.getMarkers();
+        Coordinates positions = new Coordinates(mMarkers.size());
+        for (RouteScene.MarkerSpec marker : mMarkers) {
+            positions.add(marker.position.latitude, marker.position.longitude);
+            Bitmap bitmap = marker.icon.getBitmap();
+            // Rotated icons may reach their diagonal away from the anchor.
+            padding = Math.max(padding, (float) Math.hypot(bitmap.getWidth(), bitmap.getHeight()));
+        }
+        mMarkerIndex = new GridIndex(positions);
+        mPaddingPixels = padding;
+    }
+
+    /**
+     * Render a tile to PNG, null if nothing of the route layer touches it.
+     */
+    byte[] render(int x, int y, int zoom) {
+        TileCanvas tile = mCanvas.get();
+        tile.bitmap.eraseColor(Color.TRANSPARENT);
+
+        // Tile bounds in normalized Web Mercator coordinates, grown by the padding.
+        double worldPixels = (double) mTileSizePixels * (1L << zoom);
+        double padding = mPaddingPixels / worldPixels;
+        double left = (double) x * mTileSizePixels / worldPixels;
+        double top = (double) y * mTileSizePixels / worldPixels;
+        double right = left + mTileSizePixels / worldPixels;
+        double bottom = top + mTileSizePixels / worldPixels;
+
+        boolean drawn = drawPaths(tile, worldPixels, left - padding, top - padding,
+                right + padding, bottom + padding, left, top);
+        drawn |= drawMarkers(tile, zoom, worldPixels, left - padding, top - padding,
+                right + padding, bottom + padding, left, top);
+        if (!drawn) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tile.bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Draw the path chunks overlapping the padded tile, path after path in drawing order, false if
+     * there are none.
+     */
+    private boolean drawPaths(final TileCanvas tile, double worldPixels,
+                              double minX, double minY, double maxX, double maxY, double left, double top) {
+        tile.chunkCount = 0;
+        mChunkIndex.query(minX, minY, maxX, maxY, new BoxIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                if (tile.chunkCount == tile.chunkIds.length) {
+                    tile.chunkIds = Arrays.copyOf(tile.chunkIds, tile.chunkCount * 2);
+                }
+                tile.chunkIds[tile.chunkCount++] = id;
+            }
+        });
+        Arrays.sort(tile.chunkIds, 0, tile.chunkCount);
+        int start = 0;
+        while (start < tile.chunkCount) {
+            int path = mChunkPaths[tile.chunkIds[start]];
+            int end = start + 1;
+            while (end < tile.chunkCount && mChunkPaths[tile.chunkIds[end]] == path) {
+                end++;
+            }
+            drawPath(tile, mPaths.get(path), start, end, worldPixels, left, top);
+            start = end;
+        }
+        return tile.chunkCount > 0;
+    }
+
+    /**
+     * Draw the chunks of a path found for the tile, tile.chunkIds[from] to tile.chunkIds[to - 1].
+     */
+    private void drawPath(TileCanvas tile, ProjectedPath path, int from, int to, double worldPixels,
+                          double left, double top) {
+        Path shape = tile.path;
+        shape.reset();
+        int end = -1;
+        for (int c = from; c < to; c++) {
+            int start = (tile.chunkIds[c] - path.firstChunk) * CHUNK_SIZE;
+            double lastX = (path.x[start] - left) * worldPixels;
+            double lastY = (path.y[start] - top) * worldPixels;
+            if (start != end) {
+                // Not continuing the previous chunk.
+                shape.moveTo((float) lastX, (float) lastY);
+            }
+            end = Math.min(start + CHUNK_SIZE, path.x.length - 1);
+            for (int i = start + 1; i <= end; i++) {
+                double px = (path.x[i] - left) * worldPixels;
+                double py = (path.y[i] - top) * worldPixels;
+                if (i == end || Math.abs(px - lastX) >= MIN_SEGMENT_PIXELS || Math.abs(py - lastY) >= MIN_SEGMENT_PIXELS) {
+                    shape.lineTo((float) px, (float) py);
+                    lastX = px;
+                    lastY = py;
+                }
+            }
+        }
+        tile.linePaint.setColor(path.color);
+        tile.linePaint.setStrokeWidth(path.width);
+        tile.canvas.drawPath(shape, tile.linePaint);
+    }
+
+    /**
+     * Draw the markers overlapping the padded tile, in scene order so that icons crossing a tile edge
+     * overlap the same way on both sides. False if there are none.
+     */
+    private boolean drawMarkers(final TileCanvas tile, int zoom, double worldPixels,
+                                double minX, double minY, double maxX, double maxY, double left, double top) {
+        tile.markerCount = 0;
+        mMarkerIndex.query(latitude(maxY), longitude(minX), latitude(minY), longitude(maxX), new GridIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                if (tile.markerCount == tile.markerIds.length) {
+                    tile.markerIds = Arrays.copyOf(tile.markerIds, tile.markerCount * 2);
+                }
+                tile.markerIds[tile.markerCount++] = id;
+            }
+        });
+        Arrays.sort(tile.markerIds, 0, tile.markerCount);
+
+        int level = DirectionArrows.levelForZoom(zoom, latitude((minY + maxY) / 2));
+        boolean drawn = false;
+        for (int i = 0; i < tile.markerCount; i++) {
+            RouteScene.MarkerSpec marker = mMarkers.get(tile.markerIds[i]);
+            if (marker.level > level) {
+                continue;
+            }
+            Bitmap bitmap = marker.icon.getBitmap();
+            float px = (float) ((x(marker.position.longitude) - left) * worldPixels);
+            float py = (float) ((y(marker.position.latitude) - top) * worldPixels);
+            tile.canvas.save();
+            if (marker.rotation != 0) {
+                // Markers rotate about their anchor.
+                tile.canvas.rotate(marker.rotation, px, py);
+            }
+            tile.canvas.drawBitmap(bitmap, px - marker.anchorU * bitmap.getWidth(),
+                    py - marker.anchorV * bitmap.getHeight(), tile.bitmapPaint);
+            tile.canvas.restore();
+            drawn = true;
+        }
+        return drawn;
+    }
+
+    /**
+     * Normalized Web Mercator x of a longitude, from 0 at 180 degrees west to 1 at 180 degrees east.
+     */
+    static double x(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * Normalized Web Mercator y of a latitude, from 0 at the north edge of the map to 1 at the south edge.
+     */
+    static double y(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double longitude(double x) {
+        return x * 360 - 180;
+    }
+
+    static double latitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    /**
+     * A polyline projected to normalized Web Mercator coordinates, split in chunks.
+     */
+    private static final class ProjectedPath {
+        final int color;
+        final float width;
+        final double[] x;
+        final double[] y;
+
+        /**
+         * Id of the first chunk of the path, see {@link #mChunkIndex}.
+         */
+        final int firstChunk;
+        final int chunkCount;
+
+        ProjectedPath(RouteScene.PolylineSpec polyline, int firstChunk) {
+            color = polyline.color;
+            width = polyline.width;
+            Coordinates path = polyline.route.getPath();
+            int size = path.size();
+            x = new double[size];
+            y = new double[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = x(path.longitude(i));
+                y[i] = y(path.latitude(i));
+            }
+            // Chunk c covers points c * CHUNK_SIZE to (c + 1) * CHUNK_SIZE, its last point being
+            // the first one of the next chunk.
+            this.firstChunk = firstChunk;
+            chunkCount = size < 2 ? 0 : (size - 2) / CHUNK_SIZE + 1;
+        }
+
+        /**
+         * Store the bounding box of a chunk of the path at index id of the box arrays.
+         */
+        void chunkBounds(int chunk, int id, double[] minX, double[] minY, double[] maxX, double[] maxY) {
+            int start = chunk * CHUNK_SIZE;
+            int end = Math.min(start + CHUNK_SIZE, x.length - 1);
+            minX[id] = x[start];
+            minY[id] = y[start];
+            maxX[id] = x[start];
+            maxY[id] = y[start];
+            for (int i = start + 1; i <= end; i++) {
+                minX[id] = Math.min(minX[id], x[i]);
+                minY[id] = Math.min(minY[id], y[i]);
+                maxX[id] = Math.max(maxX[id], x[i]);
+                maxY[id] = Math.max(maxY[id], y[i]);
+            }
+        }
+    }
+
+    /**
+     * Drawing state of a rendering thread.
+     */
+    private static final class TileCanvas {
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final Path path = new Path();
+        final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        int[] markerIds = new int[64];
+        int markerCount;
+        int[] chunkIds = new int[64];
+        int chunkCount;
+
+        TileCanvas(int size) {
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            linePaint.setStyle(Paint.Style.STROKE);
+            linePaint.setStrokeCap(Paint.Cap.ROUND);
+            linePaint.setStrokeJoin(Paint.Join.ROUND);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the map objects of one {@link RouteScene} to another, e.g. when the route data is updated
+ * by a timetable or detour feed, instead of clearing the map and adding everything again.
+ * Every scene object has a stable id; the reconciler keeps a table from id to map object and
+ * compares the new scene with the one applied: objects of new ids are added, objects of ids that
+ * are gone are removed, and changed objects are updated in place (setPoints, setColor, setPosition,
+ * setIcon...), all through the frame-budgeted {@link MapSceneApplier}. Unchanged objects are not
+ * touched. Markers are culled to the viewport, their table is kept by the {@link ViewportMarkerCuller},
+ * and annotation labels are placed without overlaps by the {@link LabelLayer}, which keeps theirs.
+ * When the route layer is drawn as tiles only the annotation labels are map objects, the tiles
+ * to render again are given by {@link #changedRegions(RouteScene, RouteScene)}.
+ * All methods but the static ones must be called on the main thread.
+ */
+final class SceneReconciler {
+
+    private final MapSceneApplier mApplier;
+    private final RouteLevelOfDetail mLevelOfDetail;
+    private final ViewportMarkerCuller mMarkerCuller;
+    private final LabelLayer mLabelLayer;
+    private final boolean mTileLayer;
+
+    /**
+     * Applied polyline specs by id, including those whose polyline is still being added.
+     */
+    private final Map<String, RouteScene.PolylineSpec> mPolylineSpecs = new HashMap<>();
+
+    /**
+     * Polylines on the map by id.
+     */
+    private final Map<String, Polyline> mPolylines = new HashMap<>();
+
+    /**
+     * Reconcile the map objects of a scene. When the route layer is drawn as tiles, the polylines,
+     * bus stops and direction arrows are left to the tiles.
+     */
+    SceneReconciler(MapSceneApplier applier, RouteLevelOfDetail levelOfDetail, ViewportMarkerCuller markerCuller,
+                    LabelLayer labelLayer, boolean tileLayer) {
+        mApplier = applier;
+        mLevelOfDetail = levelOfDetail;
+        mMarkerCuller = markerCuller;
+        mLabelLayer = labelLayer;
+        mTileLayer = tileLayer;
+    }
+
+    /**
+     * Markers of a scene that are map objects, as given to the {@link ViewportMarkerCuller}.
+     * Annotations are left to the {@link LabelLayer}.
+     */
+    static List<RouteScene.MarkerSpec> markers(RouteScene scene, boolean tileLayer) {
+        return tileLayer ? Collections.<RouteScene.MarkerSpec>emptyList() : scene.getMarkers();
+    }
+
+    /**
+     * Apply the difference between the scene applied so far, if any, and a new one. New polylines
+     * get the points of the given zoom.
+     */
+    void apply(RouteScene scene, float zoom) {
+        if (!mTileLayer) {
+            applyPolylines(scene.getPolylines(), zoom);
+        }
+        mMarkerCuller.setSpecs(markers(scene, mTileLayer));
+        mLabelLayer.setSpecs(scene.getAnnotations());
+    }
+
+    private void applyPolylines(List<RouteScene.PolylineSpec> polylines, float zoom) {
+        Map<String, RouteScene.PolylineSpec> specs = new HashMap<>(polylines.size() * 2);
+        for (RouteScene.PolylineSpec spec : polylines) {
+            specs.put(spec.id, spec);
+        }
+
+        // Remove the polylines whose id is gone.
+        Iterator<Map.Entry<String, RouteScene.PolylineSpec>> applied = mPolylineSpecs.entrySet().iterator();
+        while (applied.hasNext()) {
+            String id = applied.next().getKey();
+            if (!specs.containsKey(id)) {
+                applied.remove();
+                Polyline polyline = mPolylines.remove(id);
+                if (polyline != null) {
+                    mLevelOfDetail.unregister(polyline);
+                    mApplier.removePolyline(polyline);
+                }
+                // A polyline still being added is removed once it arrives, see add().
+            }
+        }
+
+        // Add the new ones and update the changed ones.
+        for (RouteScene.PolylineSpec spec : polylines) {
+            RouteScene.PolylineSpec old = mPolylineSpecs.put(spec.id, spec);
+            if (old == null) {
+                add(spec, zoom);
+            } else {
+                Polyline polyline = mPolylines.get(spec.id);
+                if (polyline != null) {
+                    update(polyline, old, spec, zoom);
+                }
+                // Otherwise the polyline is updated once it arrives, see add().
+            }
+        }
+    }
+
+    private void add(final RouteScene.PolylineSpec spec, final float zoom) {
+        PolylineOptions options = new PolylineOptions()
+                .color(spec.color)
+                .width(spec.width)
+                .zIndex(spec.zIndex)
+                .clickable(false)
+                .addAll(spec.route.getPointsForZoom(zoom));
+        mApplier.addPolyline(options, new MapSceneApplier.OnObjectAddedListener<Polyline>() {
+            @Override
+            public void onObjectAdded(Polyline polyline) {
+                RouteScene.PolylineSpec current = mPolylineSpecs.get(spec.id);
+                if (current == null || mPolylines.containsKey(spec.id)) {
+                    // Removed, or removed and added again, while the add was queued.
+                    polyline.remove();
+                    return;
+                }
+                mPolylines.put(spec.id, polyline);
+                mLevelOfDetail.register(polyline, spec.route, zoom);
+                if (current != spec) {
+                    // Updated while the add was queued.
+                    update(polyline, spec, current, zoom);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue the changes between two specs of a polyline on the map.
+     */
+    private void update(Polyline polyline, RouteScene.PolylineSpec from, RouteScene.PolylineSpec to, float zoom) {
+        if (!from.sameStyle(to)) {
+            mApplier.updatePolylineStyle(polyline, to.color, to.width, to.zIndex);
+        }
+        if (from.route != to.route) {
+            mLevelOfDetail.unregister(polyline);
+            mLevelOfDetail.register(polyline, to.route, zoom);
+            if (!from.route.getPath().contentEquals(to.route.getPath())) {
+                mApplier.updatePolyline(polyline, to.route.getPointsForZoom(zoom));
+            }
+        }
+    }
+
+    /**
+     * Regions of the route layer drawn differently in two scenes: the polylines, bus stops and
+     * direction arrows that were added, removed or changed, at their old and new places. A path
+     * that changed only counts from its first to its last differing point, so that a detour does
+     * not invalidate the whole line. A null scene has no objects. Safe to call from any thread.
+     */
+    static List<LatLngBounds> changedRegions(RouteScene from, RouteScene to) {
+        List<LatLngBounds> regions = new ArrayList<>();
+        Map<String, RouteScene.PolylineSpec> oldPolylines = new HashMap<>();
+        if (from != null) {
+            for (RouteScene.PolylineSpec spec : from.getPolylines()) {
+                oldPolylines.put(spec.id, spec);
+            }
+        }
+        for (RouteScene.PolylineSpec spec : to.getPolylines()) {
+            RouteScene.PolylineSpec old = oldPolylines.remove(spec.id);
+            if (old == null || !old.sameStyle(spec)) {
+                addBounds(regions, spec.route.getBounds());
+                if (old != null) {
+                    addBounds(regions, old.route.getBounds());
+                }
+            } else {
+                addChangedBounds(regions, old.route.getPath(), spec.route.getPath());
+            }
+        }
+        for (RouteScene.PolylineSpec old : oldPolylines.values()) {
+            addBounds(regions, old.route.getBounds());
+        }
+
+        Map<String, RouteScene.MarkerSpec> oldMarkers = new HashMap<>();
+        if (from != null) {
+            for (RouteScene.MarkerSpec spec : from.getMarkers()) {
+                oldMarkers.put(spec.id, spec);
+            }
+        }
+        for (RouteScene.MarkerSpec spec : to.getMarkers()) {
+            RouteScene.MarkerSpec old = oldMarkers.remove(spec.id);
+            if (old == null || !old.sameAs(spec)) {
+                regions.add(new LatLngBounds(spec.position, spec.position));
+                if (old != null) {
+                    regions.add(new LatLngBounds(old.position, old.position));
+                }
+            }
+        }
+        for (RouteScene.MarkerSpec old : oldMarkers.values()) {
+            regions.add(new LatLngBounds(old.position, old.position));
+        }
+        return regions;
+    }
+
+    private static void addBounds(List<LatLngBounds> regions, LatLngBounds bounds) {
+        if (bounds != null) {
+            regions.add(bounds);
+        }
+    }
+
+    /**
+     * Add the bounds of the part of two paths between their common start and common end, if they differ.
+     */
+    private static void addChangedBounds(List<LatLngBounds> regions, Coordinates from, Coordinates to) {
+        int prefix = 0;
+        int common = Math.min(from.size(), to.size());
+        while (prefix < common && from.latE7(prefix) == to.latE7(prefix) && from.lngE7(prefix) == to.lngE7(prefix)) {
+            prefix++;
+        }
+        if (prefix == from.size() && prefix == to.size()) {
+            return;
+        }
+        int suffix = 0;
+        while (suffix < common - prefix
+                && from.latE7(from.size() - 1 - suffix) == to.latE7(to.size() - 1 - suffix)
+                && from.lngE7(from.size() - 1 - suffix) == to.lngE7(to.size() - 1 - suffix)) {
+            suffix++;
+        }
+        // The segments joining the changed part to the common parts changed too.
+        LatLngBounds.Builder bounds = new LatLngBounds.Builder();
+        includeRange(bounds, from, Math.max(0, prefix - 1), Math.min(from.size(), from.size() - suffix + 1));
+        includeRange(bounds, to, Math.max(0, prefix - 1), Math.min(to.size(), to.size() - suffix + 1));
+        regions.add(bounds.build());
+    }
+
+    private static void includeRange(LatLngBounds.Builder bounds, Coordinates path, int start, int end) {
+        for (int i = start; i < end; i++) {
+            bounds.include(new LatLng(path.latitude(i), path.longitude(i)));
+        }
+    }
+}
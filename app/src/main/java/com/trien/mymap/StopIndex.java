@@ -0,0 +1,409 @@
+package com.trien.mymap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the bus stops of all lines, answering nearest neighbour and radius queries.
+ * Stops are points of the unit sphere in a balanced KD-tree stored as flat arrays, the median of
+ * every node splitting its subtree along the axis of largest spread. The straight line distance
+ * between two points of the sphere grows with their great circle distance, so the tree finds the
+ * truly nearest stops anywhere on Earth, without the distortion of latitude and longitude.
+ * Distances are great circle distances on a sphere of the mean Earth radius.
+ * Queries do not allocate and may run on any thread. This class is plain Java.
+ */
+final class StopIndex {
+
+    /**
+     * Receives the stops found by a radius query, in no particular order.
+     */
+    interface Visitor {
+        void visit(int stop, double meters);
+    }
+
+    private static final double EARTH_RADIUS = PolylineSimplifier.EARTH_RADIUS;
+
+    private final Coordinates mPositions;
+    private final String[] mLineKeywords;
+    private final String[] mNames;
+
+    /**
+     * Tree nodes in implicit order: the node of a range [from, to) is at (from + to) / 2, its left
+     * subtree is [from, node) and its right subtree is [node + 1, to).
+     */
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+    private final int[] mStops;
+    private final byte[] mAxes;
+
+    private StopIndex(Coordinates positions, String[] lineKeywords, String[] names) {
+        mPositions = positions;
+        mLineKeywords = lineKeywords;
+        mNames = names;
+        int size = positions.size();
+        mX = new double[size];
+        mY = new double[size];
+        mZ = new double[size];
+        mStops = new int[size];
+        mAxes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(positions.latitude(i));
+            double lng = Math.toRadians(positions.longitude(i));
+            mX[i] = Math.cos(lat) * Math.cos(lng);
+            mY[i] = Math.cos(lat) * Math.sin(lng);
+            mZ[i] = Math.sin(lat);
+            mStops[i] = i;
+        }
+        build(0, size);
+    }
+
+    /**
+     * Index the markers of every line of the dataset, a stop id being its rank in data order.
+     */
+    static StopIndex build(RouteDataset dataset) {
+        Coordinates positions = new Coordinates();
+        List<String> lineKeywords = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (RouteDataset.Line line : dataset.getLines()) {
+            Coordinates markers = line.getMarkers();
+            List<String> markerNames = line.getMarkerNames();
+            for (int i = 0; i < markers.size(); i++) {
+                positions.add(markers.latE7(i), markers.lngE7(i));
+                lineKeywords.add(line.getKeyword());
+                names.add(i < markerNames.size() ? markerNames.get(i) : "");
+            }
+        }
+        return new StopIndex(positions, lineKeywords.toArray(new String[lineKeywords.size()]),
+                names.toArray(new String[names.size()]));
+    }
+
+    int size() {
+        return mPositions.size();
+    }
+
+    double latitude(int stop) {
+        return mPositions.latitude(stop);
+    }
+
+    double longitude(int stop) {
+        return mPositions.longitude(stop);
+    }
+
+    /**
+     * Keyword of the line the stop belongs to.
+     */
+    String getLineKeyword(int stop) {
+        return mLineKeywords[stop];
+    }
+
+    /**
+     * Name of the stop, empty if the data has none.
+     */
+    String getName(int stop) {
+        return mNames[stop];
+    }
+
+    /**
+     * Get the stop nearest to a position, -1 if there are no stops.
+     */
+    int nearest(double latitude, double longitude) {
+        if (size() == 0) {
+            return -1;
+        }
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        return mStops[searchNearest(0, size(), Math.cos(lat) * Math.cos(lng), Math.cos(lat) * Math.sin(lng),
+                Math.sin(lat), -1)];
+    }
+
+    /**
+     * Find the k stops nearest to a position. Their ids and distances in meters are written to
+     * stops and meters, nearest first, both must hold at least k values.
+     * Returns the number of stops found, less than k only if there are fewer stops.
+     */
+    int nearest(double latitude, double longitude, int k, int[] stops, double[] meters) {
+        if (k <= 0 || size() == 0) {
+            return 0;
+        }
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        double x = Math.cos(lat) * Math.cos(lng);
+        double y = Math.cos(lat) * Math.sin(lng);
+        double z = Math.sin(lat);
+
+        // Max-heap of the best squared chord lengths so far, in the output arrays.
+        int count = searchNearest(0, size(), x, y, z, Math.min(k, size()), stops, meters, 0);
+
+        // Heap sort, nearest first.
+        for (int end = count - 1; end > 0; end--) {
+            swap(stops, meters, 0, end);
+            siftDown(stops, meters, 0, end);
+        }
+        for (int i = 0; i < count; i++) {
+            meters[i] = toMeters(meters[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Visit every stop within the given distance in meters of a position.
+     */
+    void withinRadius(double latitude, double longitude, double radiusMeters, Visitor visitor) {
+        if (size() == 0 || radiusMeters < 0) {
+            return;
+        }
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        // Squared chord length of the radius, capped at the antipode.
+        double chord = 2 * Math.sin(Math.min(radiusMeters / EARTH_RADIUS, Math.PI) / 2);
+        searchRadius(0, size(), Math.cos(lat) * Math.cos(lng), Math.cos(lat) * Math.sin(lng), Math.sin(lat),
+                chord * chord, visitor);
+    }
+
+    /**
+     * Great circle distance in meters between two positions, with the haversine formula.
+     */
+    static double distanceMeters(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLng = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Arc length in meters of a squared chord length of the unit sphere.
+     */
+    private static double toMeters(double chordSquared) {
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(chordSquared) / 2));
+    }
+
+    /**
+     * Put the median of [from, to) along the axis of largest spread at the node, then build both subtrees.
+     */
+    private void build(int from, int to) {
+        if (to - from < 2) {
+            if (to > from) {
+                mAxes[from] = 0;
+            }
+            return;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            minX = Math.min(minX, mX[i]);
+            maxX = Math.max(maxX, mX[i]);
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+            minZ = Math.min(minZ, mZ[i]);
+            maxZ = Math.max(maxZ, mZ[i]);
+        }
+        double spreadX = maxX - minX;
+        double spreadY = maxY - minY;
+        double spreadZ = maxZ - minZ;
+        int axis = spreadX >= spreadY && spreadX >= spreadZ ? 0 : spreadY >= spreadZ ? 1 : 2;
+
+        int node = (from + to) >>> 1;
+        select(from, to - 1, node, axis);
+        mAxes[node] = (byte) axis;
+        build(from, node);
+        build(node + 1, to);
+    }
+
+    /**
+     * Quickselect: reorder [left, right] so that the k-th entry along the axis is in place, with no
+     * greater entry before it and no smaller entry after it.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = value((left + right) >>> 1, axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (value(i, axis) < pivot) {
+                    i++;
+                }
+                while (value(j, axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swapNodes(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Search [from, to) for a nearer node than best, -1 for none yet, returns the nearest node.
+     */
+    private int searchNearest(int from, int to, double x, double y, double z, int best) {
+        if (from >= to) {
+            return best;
+        }
+        int node = (from + to) >>> 1;
+        double dx = mX[node] - x;
+        double dy = mY[node] - y;
+        double dz = mZ[node] - z;
+        if (best < 0 || dx * dx + dy * dy + dz * dz < distance(best, x, y, z)) {
+            best = node;
+        }
+        int axis = mAxes[node];
+        double split = axis == 0 ? dx : axis == 1 ? dy : dz;
+        // The query is on the left of the node when split > 0, search that side first.
+        if (split > 0) {
+            best = searchNearest(from, node, x, y, z, best);
+            if (split * split < distance(best, x, y, z)) {
+                best = searchNearest(node + 1, to, x, y, z, best);
+            }
+        } else {
+            best = searchNearest(node + 1, to, x, y, z, best);
+            if (split * split < distance(best, x, y, z)) {
+                best = searchNearest(from, node, x, y, z, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Squared chord length between a node and a point of the unit sphere.
+     */
+    private double distance(int node, double x, double y, double z) {
+        double dx = mX[node] - x;
+        double dy = mY[node] - y;
+        double dz = mZ[node] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Search [from, to) for nearer stops than the count ones in the heap, returns the new count.
+     */
+    private int searchNearest(int from, int to, double x, double y, double z, int k,
+                              int[] heapStops, double[] heapDistances, int count) {
+        if (from >= to) {
+            return count;
+        }
+        int node = (from + to) >>> 1;
+        double dx = mX[node] - x;
+        double dy = mY[node] - y;
+        double dz = mZ[node] - z;
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (count < k) {
+            heapStops[count] = mStops[node];
+            heapDistances[count] = distance;
+            siftUp(heapStops, heapDistances, count);
+            count++;
+        } else if (distance < heapDistances[0]) {
+            heapStops[0] = mStops[node];
+            heapDistances[0] = distance;
+            siftDown(heapStops, heapDistances, 0, count);
+        }
+
+        int axis = mAxes[node];
+        double split = axis == 0 ? dx : axis == 1 ? dy : dz;
+        // The query is on the left of the node when split > 0, search that side first.
+        if (split > 0) {
+            count = searchNearest(from, node, x, y, z, k, heapStops, heapDistances, count);
+            if (count < k || split * split < heapDistances[0]) {
+                count = searchNearest(node + 1, to, x, y, z, k, heapStops, heapDistances, count);
+            }
+        } else {
+            count = searchNearest(node + 1, to, x, y, z, k, heapStops, heapDistances, count);
+            if (count < k || split * split < heapDistances[0]) {
+                count = searchNearest(from, node, x, y, z, k, heapStops, heapDistances, count);
+            }
+        }
+        return count;
+    }
+
+    private void searchRadius(int from, int to, double x, double y, double z, double chordSquared,
+                              Visitor visitor) {
+        if (from >= to) {
+            return;
+        }
+        int node = (from + to) >>> 1;
+        double dx = mX[node] - x;
+        double dy = mY[node] - y;
+        double dz = mZ[node] - z;
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (distance <= chordSquared) {
+            visitor.visit(mStops[node], toMeters(distance));
+        }
+        int axis = mAxes[node];
+        double split = axis == 0 ? dx : axis == 1 ? dy : dz;
+        if (split > 0 || split * split <= chordSquared) {
+            searchRadius(from, node, x, y, z, chordSquared, visitor);
+        }
+        if (split <= 0 || split * split <= chordSquared) {
+            searchRadius(node + 1, to, x, y, z, chordSquared, visitor);
+        }
+    }
+
+    private double value(int node, int axis) {
+        return axis == 0 ? mX[node] : axis == 1 ? mY[node] : mZ[node];
+    }
+
+    private void swapNodes(int i, int j) {
+        double x = mX[i];
+        mX[i] = mX[j];
+        mX[j] = x;
+        double y = mY[i];
+        mY[i] = mY[j];
+        mY[j] = y;
+        double z = mZ[i];
+        mZ[i] = mZ[j];
+        mZ[j] = z;
+        int stop = mStops[i];
+        mStops[i] = mStops[j];
+        mStops[j] = stop;
+    }
+
+    private static void siftUp(int[] stops, double[] distances, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (distances[parent] >= distances[index]) {
+                return;
+            }
+            swap(stops, distances, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] stops, double[] distances, int index, int size) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && distances[left] > distances[largest]) {
+                largest = left;
+            }
+            if (right < size && distances[right] > distances[largest]) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(stops, distances, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(int[] stops, double[] distances, int i, int j) {
+        int stop = stops[i];
+        stops[i] = stops[j];
+        stops[j] = stop;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
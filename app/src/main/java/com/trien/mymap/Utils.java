@@ -2,165 +2,78 @@ package com.trien.mymap;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
-import android.util.Log;
 
 import com.google.android.gms.maps.model.LatLng;
-import com.google.maps.android.PolyUtil;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 class Utils {
 
     /**
-     * Default log tag name for log message.
+     * Width in pixels of bus stop marker icons.
      */
-    private static final String LOG_TAG = MapsActivity.class.getName();
+    static final int MARKER_WIDTH = 60;
 
     /**
-     * Keyword constants for reading values from polylines.csv.
-     * Important: these keywords values must be exactly the same as ones in polylines.csv file in raw folder.
+     * Scale factor applied to annotation images.
      */
-    public static final String ENCODED_POINTS = "encodedPoints";
-    public static final String LAT_LNG_POINT = "latLngPoint";
-    public static final String MARKER = "marker";
+    static final float ANNOTATION_SCALE = 0.15f;
 
     /**
-     * Helper method to get polyline points by decoding an encoded coordinates string read from CSV file.
+     * Width in pixels of direction arrow icons.
      */
-    static List<LatLng> readEncodedPolyLinePointsFromCSV(Context context, String lineKeyword) {
-
-        // Create an InputStream object.
-        InputStream is = context.getResources().openRawResource(R.raw.polylines);
-        // Create a BufferedReader object to read values from CSV file.
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-        String line = "";
-        // Create a list of LatLng objects.
-        List<LatLng> latLngList = new ArrayList<>();
-
-        try {
-            while ((line = reader.readLine()) != null) {
-                // Split the line into different tokens (using the comma as a separator).
-                String[] tokens = line.split(",");
-                // Only add the right latlng points to a desired line by color.
-                if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(ENCODED_POINTS)) {
-                    // Use PolyUtil to decode the polylines path into list of LatLng objects.
-                    latLngList.addAll(PolyUtil.decode(tokens[2].trim().replace("\\\\", "\\")));
-
-                    Log.d(LOG_TAG + lineKeyword, tokens[2].trim());
-                    for (LatLng lat : latLngList) {
-                        Log.d(LOG_TAG + lineKeyword, lat.latitude + ", " + lat.longitude);
-                    }
-
-                } else {
-                    Log.d(LOG_TAG, "null");
-                }
-            }
-        } catch (IOException e1) {
-            Log.e(LOG_TAG, "Error" + line, e1);
-            e1.printStackTrace();
-        }
-
-        return latLngList;
-    }
+    static final int ARROW_WIDTH = 48;
 
     /**
-     * Helper method to read polyline points from CSV file.
+     * Width in pixels of vehicle icons.
      */
-    static List<LatLng> readPolyLinePointsFromCSV(Context context, String lineKeyword) {
-
-        // Create an InputStream object.
-        InputStream is = context.getResources().openRawResource(R.raw.polylines);
-        // Create a BufferedReader object to read values from CSV file.
-        BufferedReader reader = new BufferedReader(
-                new InputStreamReader(is, Charset.forName("UTF-8")));
-        String line = "";
-        // Create a list of LatLng objects.
-        List<LatLng> latLngList = new ArrayList<>();
-
-        try {
-            while ((line = reader.readLine()) != null) {
-                // Split the line into different tokens (using the comma as a separator).
-                String[] tokens = line.split(",");
-                // Only add the right latlng points to a desired line by color.
-                if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(LAT_LNG_POINT)) {
-                    latLngList.add(new LatLng(Double.parseDouble(tokens[2].trim()), Double.parseDouble(tokens[3].trim())));
-                } else {
-                    Log.d(LOG_TAG, " null");
-                }
-            }
-        } catch (IOException e1) {
-            Log.e(LOG_TAG, "Error" + line, e1);
-            e1.printStackTrace();
-        }
-
-        for (LatLng lat : latLngList) {
-            Log.d(LOG_TAG + lineKeyword, lat.latitude + ", " + lat.longitude);
-        }
-        return latLngList;
-    }
+    static final int VEHICLE_WIDTH = 72;
 
     /**
-     * Helper method to read markers lat lng values from CSV file.
+     * Helper method to create LatLng objects from primitive coordinates, only once they are needed by the map.
      */
-    static List<LatLng> readMarkersFromCSV(Context context, String lineKeyword) {
-
-        // Create an InputStream object
-        InputStream is = context.getResources().openRawResource(R.raw.polylines);
-        // Create a BufferedReader object to read values from CSV file.
-        BufferedReader reader = new BufferedReader(
-                new InputStreamReader(is, Charset.forName("UTF-8")));
-        String line = "";
-        // Create a list of LatLng objects.
-        List<LatLng> latLngList = new ArrayList<>();
-
-        try {
-            while ((line = reader.readLine()) != null) {
-                // Split the line into different tokens (using the comma as a separator).
-                String[] tokens = line.split(",");
-                // Only add the right latlng points by color.
-                if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(MARKER)) {
-                    latLngList.add(new LatLng(Double.parseDouble(tokens[2].trim()), Double.parseDouble(tokens[3].trim())));
-                    Log.d(LOG_TAG + lineKeyword, tokens[2].trim() + tokens[3].trim());
-                } else {
-                    Log.d(LOG_TAG, " null");
-                }
-            }
-        } catch (IOException e1) {
-            Log.e(LOG_TAG, "Error" + line, e1);
-            e1.printStackTrace();
+    static List<LatLng> toLatLngList(Coordinates coordinates) {
+        List<LatLng> latLngList = new ArrayList<>(coordinates.size());
+        for (int i = 0; i < coordinates.size(); i++) {
+            latLngList.add(new LatLng(coordinates.latitude(i), coordinates.longitude(i)));
         }
-
         return latLngList;
     }
 
     /**
      * Marker bitmap resize tool. This will create a sized bitmap to apply in markers based on input drawable.
+     * The drawable is decoded subsampled close to the wanted size, see {@link BitmapDecoder}.
      */
     static Bitmap resizeMarker(Context context, int drawable) {
-        BitmapDrawable bitmapDrawable = (BitmapDrawable) context.getResources().getDrawable(drawable);
-        Bitmap bitmap = bitmapDrawable.getBitmap();
-        // Change expectedWidth's value to your desired one.
-        final int expectedWidth = 60;
-        return Bitmap.createScaledBitmap(bitmap, expectedWidth, (bitmap.getHeight() * expectedWidth) / (bitmap.getWidth()), false);
+        // Change MARKER_WIDTH's value to your desired one.
+        return BitmapDecoder.decodeToWidth(context.getResources(), drawable, MARKER_WIDTH);
     }
 
     /**
      * Annotation bitmap resize tool. This will create a sized bitmap to apply in annotations based on input drawable.
+     * The drawable is decoded subsampled close to the wanted size, see {@link BitmapDecoder}.
      */
     static Bitmap resizeCommonAnnotation(Context context, int drawable) {
-        BitmapDrawable bitmapDrawable = (BitmapDrawable) context.getResources().getDrawable(drawable);
-        Bitmap bitmap = bitmapDrawable.getBitmap();
-        // Change scale's value to your desired one.
-        float scale = 0.15f;
-        int newWidth = (int) (bitmapDrawable.getBitmap().getWidth() * scale);
-        int newHeight = (int) (bitmapDrawable.getBitmap().getHeight() * scale);
-        return Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, false);
+        // Change ANNOTATION_SCALE's value to your desired one.
+        return BitmapDecoder.decodeScaled(context.getResources(), drawable, ANNOTATION_SCALE);
+    }
+
+    /**
+     * Direction arrow bitmap resize tool. This will create a sized bitmap to apply in flat arrow markers based on input drawable.
+     * The drawable is decoded subsampled close to the wanted size, see {@link BitmapDecoder}.
+     */
+    static Bitmap resizeArrow(Context context, int drawable) {
+        // Change ARROW_WIDTH's value to your desired one.
+        return BitmapDecoder.decodeToWidth(context.getResources(), drawable, ARROW_WIDTH);
+    }
+
+    /**
+     * Vehicle bitmap resize tool. Vehicles show the direction arrow of their line, larger than the arrows
+     * along the path. The drawable is decoded subsampled close to the wanted size, see {@link BitmapDecoder}.
+     */
+    static Bitmap resizeVehicle(Context context, int drawable) {
+        // Change VEHICLE_WIDTH's value to your desired one.
+        return BitmapDecoder.decodeToWidth(context.getResources(), drawable, VEHICLE_WIDTH);
     }
 }
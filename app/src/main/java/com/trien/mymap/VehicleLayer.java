@@ -0,0 +1,431 @@
+package com.trien.mymap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Live vehicles on the map, fed by a {@link VehicleSource}.
+ * Fixes may arrive on any thread: they are written to preallocated buffers, the latest fix of a
+ * vehicle replacing an older one not shown yet, and a single drain is posted to the main thread for
+ * all fixes received meanwhile. Every vehicle keeps one Marker, created on its first fix through the
+ * {@link MapSceneApplier} and then only moved. Between two fixes the marker glides at display refresh
+ * rate, driven by {@link Choreographer}: along the route path when the fix snaps to the line of the
+ * vehicle, see {@link RouteMatcher.Tracker}, and in a straight line otherwise. Markers outside the
+ * visible region are not moved until they come into it. All methods must be called on the main thread.
+ */
+final class VehicleLayer implements VehicleSource.Listener, Choreographer.FrameCallback {
+
+    /**
+     * Shortest and longest time a marker takes to glide to a new fix. The glide lasts as long as the
+     * time since the previous fix of the vehicle, so that it ends about when the next fix comes in.
+     */
+    private static final long MIN_GLIDE_NANOS = 200_000_000L;
+    private static final long MAX_GLIDE_NANOS = 5_000_000_000L;
+
+    /**
+     * Longest glide along the path between two fixes, in meters. A vehicle moving further jumped,
+     * e.g. after a gap in the feed, and glides in a straight line.
+     */
+    private static final double MAX_GLIDE_METERS = 2000;
+
+    /**
+     * Vehicles are drawn above the route layer and the annotations.
+     */
+    private static final float Z_INDEX = 10;
+
+    private final GoogleMap mMap;
+    private final MapSceneApplier mApplier;
+    private final VehicleSource mSource;
+    private RouteMatcher mMatcher;
+    private final Map<String, RouteScene.VehicleLineSpec> mLines = new HashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final RouteMeasure.Position mPosition = new RouteMeasure.Position();
+
+    /**
+     * Fixes received and not drained yet, guarded by mLock. A vehicle gets a slot on its first fix,
+     * its index in every array of this class.
+     */
+    private final Object mLock = new Object();
+    private final Map<String, Integer> mSlots = new HashMap<>();
+    private String[] mSlotLines = new String[0];
+    private double[] mPendingLatitudes = new double[0];
+    private double[] mPendingLongitudes = new double[0];
+    private boolean[] mPending = new boolean[0];
+    private int mSlotCount;
+    private boolean mDrainPosted;
+
+    /**
+     * Drained fixes, copied out of the pending buffers so that the lock is held briefly.
+     */
+    private double[] mFixLatitudes = new double[0];
+    private double[] mFixLongitudes = new double[0];
+    private boolean[] mFixed = new boolean[0];
+
+    /**
+     * State of every vehicle, main thread only. A glide runs from the from position to the to
+     * position, between the from and to distances along the path when mAlongPath is set, and mShown
+     * is the marker position. mMatched tells whether the last fix snapped to the line.
+     */
+    private int mVehicleCount;
+    private Marker[] mMarkers = new Marker[0];
+    private boolean[] mMarkerRequested = new boolean[0];
+    private RouteMeasure[] mMeasures = new RouteMeasure[0];
+    private RouteMatcher.Tracker[] mTrackers = new RouteMatcher.Tracker[0];
+    private boolean[] mMatched = new boolean[0];
+    private boolean[] mAlongPath = new boolean[0];
+    private double[] mFromLatitudes = new double[0];
+    private double[] mFromLongitudes = new double[0];
+    private double[] mToLatitudes = new double[0];
+    private double[] mToLongitudes = new double[0];
+    private double[] mFromDistances = new double[0];
+    private double[] mToDistances = new double[0];
+    private long[] mGlideStarts = new long[0];
+    private long[] mGlideDurations = new long[0];
+    private long[] mLastFixTimes = new long[0];
+    private double[] mShownLatitudes = new double[0];
+    private double[] mShownLongitudes = new double[0];
+    private float[] mShownBearings = new float[0];
+    private boolean[] mMarkerStale = new boolean[0];
+
+    private boolean mFrameScheduled;
+    private boolean mStarted;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    VehicleLayer(GoogleMap map, MapSceneApplier applier, RouteScene scene, VehicleSource source) {
+        mMap = map;
+        mApplier = applier;
+        mSource = source;
+        mMatcher = scene.getRouteMatcher();
+        for (RouteScene.VehicleLineSpec line : scene.getVehicleLines()) {
+            mLines.put(line.keyword, line);
+        }
+    }
+
+    /**
+     * Switch to the lines of an updated scene, see {@link SceneReconciler}. Vehicles gliding along
+     * a path finish their glide in a straight line and snap to the new paths from their next fix on.
+     */
+    void setScene(RouteScene scene) {
+        mMatcher = scene.getRouteMatcher();
+        mLines.clear();
+        for (RouteScene.VehicleLineSpec line : scene.getVehicleLines()) {
+            mLines.put(line.keyword, line);
+        }
+        long now = System.nanoTime();
+        synchronized (mLock) {
+            for (int slot = 0; slot < mVehicleCount; slot++) {
+                if (mAlongPath[slot]) {
+                    updateShown(slot, now);
+                    mFromLatitudes[slot] = mShownLatitudes[slot];
+                    mFromLongitudes[slot] = mShownLongitudes[slot];
+                    mGlideDurations[slot] = Math.max(0, mGlideStarts[slot] + mGlideDurations[slot] - now);
+                    mGlideStarts[slot] = now;
+                    mAlongPath[slot] = false;
+                }
+                mMatched[slot] = false;
+                bindLine(slot);
+            }
+        }
+    }
+
+    void start() {
+        if (!mStarted) {
+            mStarted = true;
+            mSource.start(this);
+        }
+    }
+
+    /**
+     * Stop the source and the animation, the markers stay where they are.
+     */
+    void stop() {
+        if (mStarted) {
+            mStarted = false;
+            mSource.stop();
+        }
+        mMainHandler.removeCallbacks(mDrain);
+        synchronized (mLock) {
+            mDrainPosted = false;
+        }
+        if (mFrameScheduled) {
+            mChoreographer.removeFrameCallback(this);
+            mFrameScheduled = false;
+        }
+    }
+
+    /**
+     * Move the markers that were left behind outside the previous visible region.
+     */
+    void onCameraIdle() {
+        scheduleFrame();
+    }
+
+    /**
+     * Store a fix until the next drain, called by the source on its own thread.
+     */
+    @Override
+    public void onVehicleFix(String vehicleId, String lineKeyword, double latitude, double longitude) {
+        synchronized (mLock) {
+            Integer slot = mSlots.get(vehicleId);
+            if (slot == null) {
+                slot = mSlotCount++;
+                mSlots.put(vehicleId, slot);
+                if (slot == mPending.length) {
+                    int capacity = Math.max(16, slot * 2);
+                    mSlotLines = Arrays.copyOf(mSlotLines, capacity);
+                    mPendingLatitudes = Arrays.copyOf(mPendingLatitudes, capacity);
+                    mPendingLongitudes = Arrays.copyOf(mPendingLongitudes, capacity);
+                    mPending = Arrays.copyOf(mPending, capacity);
+                }
+                mSlotLines[slot] = lineKeyword;
+            }
+            mPendingLatitudes[slot] = latitude;
+            mPendingLongitudes[slot] = longitude;
+            mPending[slot] = true;
+            if (!mDrainPosted) {
+                mDrainPosted = true;
+                mMainHandler.post(mDrain);
+            }
+        }
+    }
+
+    /**
+     * Start a glide to the latest fix of every vehicle that reported one.
+     */
+    private void drain() {
+        int count;
+        synchronized (mLock) {
+            mDrainPosted = false;
+            count = mSlotCount;
+            ensureCapacity(count);
+            for (int slot = 0; slot < count; slot++) {
+                mFixed[slot] = mPending[slot];
+                if (mPending[slot]) {
+                    mFixLatitudes[slot] = mPendingLatitudes[slot];
+                    mFixLongitudes[slot] = mPendingLongitudes[slot];
+                    mPending[slot] = false;
+                }
+            }
+            for (int slot = mVehicleCount; slot < count; slot++) {
+                bindLine(slot);
+            }
+        }
+        long now = System.nanoTime();
+        for (int slot = 0; slot < count; slot++) {
+            if (mFixed[slot]) {
+                startGlide(slot, mFixLatitudes[slot], mFixLongitudes[slot], now, slot >= mVehicleCount);
+            }
+        }
+        mVehicleCount = count;
+        scheduleFrame();
+    }
+
+    /**
+     * Start the glide of a vehicle from where its marker is now to a new fix, snapped to its line.
+     * The first fix of a vehicle is shown at once.
+     */
+    private void startGlide(int slot, double latitude, double longitude, long now, boolean first) {
+        // The distance along the path the marker is at: where the current glide along the path is,
+        // or the end of a straight glide onto the path once it is over.
+        boolean fromPath = !first && mMatched[slot] && (mAlongPath[slot] || glideFraction(slot, now) >= 1);
+        double fromDistance = mAlongPath[slot] ? glideDistance(slot, now) : mToDistances[slot];
+        if (first) {
+            mShownLatitudes[slot] = latitude;
+            mShownLongitudes[slot] = longitude;
+        } else {
+            updateShown(slot, now);
+        }
+        mFromLatitudes[slot] = mShownLatitudes[slot];
+        mFromLongitudes[slot] = mShownLongitudes[slot];
+        mGlideStarts[slot] = now;
+        mGlideDurations[slot] = first ? 0
+                : Math.max(MIN_GLIDE_NANOS, Math.min(MAX_GLIDE_NANOS, now - mLastFixTimes[slot]));
+        mLastFixTimes[slot] = now;
+
+        RouteMatcher.Tracker tracker = mTrackers[slot];
+        mMatched[slot] = tracker != null && tracker.track(latitude, longitude);
+        if (mMatched[slot]) {
+            RouteMatcher.Match match = tracker.getMatch();
+            mToLatitudes[slot] = match.latitude;
+            mToLongitudes[slot] = match.longitude;
+            mFromDistances[slot] = fromDistance;
+            mToDistances[slot] = match.distanceAlong;
+            // Follow the path from a matched position, unless the vehicle jumped.
+            mAlongPath[slot] = fromPath && mMeasures[slot] != null
+                    && Math.abs(match.distanceAlong - fromDistance) <= MAX_GLIDE_METERS;
+        } else {
+            mToLatitudes[slot] = latitude;
+            mToLongitudes[slot] = longitude;
+            mAlongPath[slot] = false;
+        }
+        if (first) {
+            mFromLatitudes[slot] = mToLatitudes[slot];
+            mFromLongitudes[slot] = mToLongitudes[slot];
+            mShownBearings[slot] = mMatched[slot] ? tracker.getMatch().bearing : 0;
+            updateShown(slot, now);
+            addMarker(slot);
+        }
+        mMarkerStale[slot] = true;
+    }
+
+    /**
+     * Set the measure and a new tracker of the line of a vehicle, mLock must be held.
+     */
+    private void bindLine(int slot) {
+        RouteScene.VehicleLineSpec line = mLines.get(mSlotLines[slot]);
+        mMeasures[slot] = line != null ? line.measure : null;
+        mTrackers[slot] = line != null && mMatcher != null ? mMatcher.newTracker(line.keyword) : null;
+    }
+
+    private void addMarker(final int slot) {
+        RouteScene.VehicleLineSpec line = mLines.get(mSlotLines[slot]);
+        if (line == null || mMarkerRequested[slot]) {
+            return;
+        }
+        mMarkerRequested[slot] = true;
+        MarkerOptions options = new MarkerOptions()
+                .position(new LatLng(mShownLatitudes[slot], mShownLongitudes[slot]))
+                .icon(line.icon.getDescriptor())
+                .anchor(0.5f, 0.5f)
+                .flat(true)
+                .rotation(mShownBearings[slot] - 90f)
+                .zIndex(Z_INDEX);
+        mApplier.addMarker(options, new MapSceneApplier.OnObjectAddedListener<Marker>() {
+            @Override
+            public void onObjectAdded(Marker marker) {
+                mMarkers[slot] = marker;
+                mMarkerStale[slot] = true;
+                scheduleFrame();
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        LatLngBounds visibleBounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        boolean gliding = false;
+        for (int slot = 0; slot < mVehicleCount; slot++) {
+            Marker marker = mMarkers[slot];
+            if (marker == null) {
+                continue;
+            }
+            boolean glide = frameTimeNanos - mGlideStarts[slot] < mGlideDurations[slot];
+            if (!glide && !mMarkerStale[slot]) {
+                continue;
+            }
+            gliding |= glide;
+            double previousLatitude = mShownLatitudes[slot];
+            double previousLongitude = mShownLongitudes[slot];
+            updateShown(slot, frameTimeNanos);
+            if (!contains(visibleBounds, mShownLatitudes[slot], mShownLongitudes[slot])
+                    && !contains(visibleBounds, previousLatitude, previousLongitude)) {
+                // Off screen, moved once it comes into view.
+                mMarkerStale[slot] = true;
+                continue;
+            }
+            marker.setPosition(new LatLng(mShownLatitudes[slot], mShownLongitudes[slot]));
+            marker.setRotation(mShownBearings[slot] - 90f);
+            mMarkerStale[slot] = glide;
+        }
+        if (gliding) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * Compute the shown position and bearing of a vehicle at a time of its glide.
+     */
+    private void updateShown(int slot, long now) {
+        double fraction = glideFraction(slot, now);
+        if (mAlongPath[slot] && mMeasures[slot].interpolate(glideDistance(slot, now), mPosition)) {
+            mShownLatitudes[slot] = mPosition.latitude;
+            mShownLongitudes[slot] = mPosition.longitude;
+            // The path bearing, turned around when driving towards its start.
+            mShownBearings[slot] = mToDistances[slot] >= mFromDistances[slot]
+                    ? mPosition.bearing : (mPosition.bearing + 180) % 360;
+            return;
+        }
+        double dLatitude = mToLatitudes[slot] - mFromLatitudes[slot];
+        double dLongitude = mToLongitudes[slot] - mFromLongitudes[slot];
+        mShownLatitudes[slot] = mFromLatitudes[slot] + fraction * dLatitude;
+        mShownLongitudes[slot] = mFromLongitudes[slot] + fraction * dLongitude;
+        if (dLatitude != 0 || dLongitude != 0) {
+            mShownBearings[slot] = RouteMeasure.bearing(dLatitude,
+                    dLongitude * Math.cos(Math.toRadians(mFromLatitudes[slot])));
+        }
+    }
+
+    private double glideDistance(int slot, long now) {
+        return mFromDistances[slot] + glideFraction(slot, now) * (mToDistances[slot] - mFromDistances[slot]);
+    }
+
+    private double glideFraction(int slot, long now) {
+        long duration = mGlideDurations[slot];
+        return duration <= 0 ? 1 : Math.max(0, Math.min(1, (double) (now - mGlideStarts[slot]) / duration));
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    private static boolean contains(LatLngBounds bounds, double latitude, double longitude) {
+        return latitude >= bounds.southwest.latitude && latitude <= bounds.northeast.latitude
+                && (bounds.southwest.longitude <= bounds.northeast.longitude
+                ? longitude >= bounds.southwest.longitude && longitude <= bounds.northeast.longitude
+                : longitude >= bounds.southwest.longitude || longitude <= bounds.northeast.longitude);
+    }
+
+    /**
+     * Grow the vehicle arrays to hold the given number of vehicles, doubling them.
+     */
+    private void ensureCapacity(int count) {
+        if (count <= mMarkers.length) {
+            return;
+        }
+        int capacity = Math.max(count, mMarkers.length * 2);
+        mFixLatitudes = Arrays.copyOf(mFixLatitudes, capacity);
+        mFixLongitudes = Arrays.copyOf(mFixLongitudes, capacity);
+        mFixed = Arrays.copyOf(mFixed, capacity);
+        mMarkers = Arrays.copyOf(mMarkers, capacity);
+        mMarkerRequested = Arrays.copyOf(mMarkerRequested, capacity);
+        mMeasures = Arrays.copyOf(mMeasures, capacity);
+        mTrackers = Arrays.copyOf(mTrackers, capacity);
+        mMatched = Arrays.copyOf(mMatched, capacity);
+        mAlongPath = Arrays.copyOf(mAlongPath, capacity);
+        mFromLatitudes = Arrays.copyOf(mFromLatitudes, capacity);
+        mFromLongitudes = Arrays.copyOf(mFromLongitudes, capacity);
+        mToLatitudes = Arrays.copyOf(mToLatitudes, capacity);
+        mToLongitudes = Arrays.copyOf(mToLongitudes, capacity);
+        mFromDistances = Arrays.copyOf(mFromDistances, capacity);
+        mToDistances = Arrays.copyOf(mToDistances, capacity);
+        mGlideStarts = Arrays.copyOf(mGlideStarts, capacity);
+        mGlideDurations = Arrays.copyOf(mGlideDurations, capacity);
+        mLastFixTimes = Arrays.copyOf(mLastFixTimes, capacity);
+        mShownLatitudes = Arrays.copyOf(mShownLatitudes, capacity);
+        mShownLongitudes = Arrays.copyOf(mShownLongitudes, capacity);
+        mShownBearings = Arrays.copyOf(mShownBearings, capacity);
+        mMarkerStale = Arrays.copyOf(mMarkerStale, capacity);
+    }
+}
@@ -0,0 +1,132 @@
+package com.trien.mymap;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local {@link VehicleSource} driving buses back and forth along the measured route paths, so the
+ * vehicle layer runs without any network. Vehicles are spread over the lines in turn, each one
+ * starting at a random place and speed, and report a fix every {@link #FIX_INTERVAL_MILLIS} like a
+ * realtime feed would. All state lives in primitive arrays allocated up front, a tick allocates nothing.
+ * Ticks run on a single thread for the lifetime of the simulator, so a tick still running when the
+ * simulator is stopped and started again never overlaps the next one; the thread ends while stopped.
+ */
+final class VehicleSimulator implements VehicleSource {
+
+    /**
+     * Time between two fixes of a vehicle.
+     */
+    static final long FIX_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Range of the vehicle speeds, in meters per second.
+     */
+    private static final double MIN_SPEED = 6;
+    private static final double MAX_SPEED = 15;
+
+    private final String[] mLineKeywords;
+    private final RouteMeasure[] mMeasures;
+    private final String[] mVehicleIds;
+    private final int[] mVehicleLines;
+    private final double[] mDistances;
+
+    /**
+     * Speed of every vehicle in meters per second, negative when driving towards the start of the path.
+     */
+    private final double[] mSpeeds;
+
+    private final RouteMeasure.Position mPosition = new RouteMeasure.Position();
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private ScheduledFuture<?> mTicks;
+
+    /**
+     * Time of the last tick, only used on the simulator thread.
+     */
+    private long mLastTickNanos;
+
+    /**
+     * Simulate vehicles on the given lines, the same seed giving the same vehicles.
+     */
+    VehicleSimulator(List<RouteScene.VehicleLineSpec> lines, int vehicleCount, long seed) {
+        mLineKeywords = new String[lines.size()];
+        mMeasures = new RouteMeasure[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            mLineKeywords[i] = lines.get(i).keyword;
+            mMeasures[i] = lines.get(i).measure;
+        }
+        int count = lines.isEmpty() ? 0 : vehicleCount;
+        mVehicleIds = new String[count];
+        mVehicleLines = new int[count];
+        mDistances = new double[count];
+        mSpeeds = new double[count];
+        Random random = new Random(seed);
+        for (int vehicle = 0; vehicle < count; vehicle++) {
+            int line = vehicle % lines.size();
+            mVehicleIds[vehicle] = "sim-" + vehicle;
+            mVehicleLines[vehicle] = line;
+            mDistances[vehicle] = random.nextDouble() * mMeasures[line].length();
+            double speed = MIN_SPEED + random.nextDouble() * (MAX_SPEED - MIN_SPEED);
+            mSpeeds[vehicle] = random.nextBoolean() ? speed : -speed;
+        }
+        mExecutor = new ScheduledThreadPoolExecutor(1, RouteSceneLoader.backgroundThreadFactory("VehicleSimulator"));
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mExecutor.setKeepAliveTime(FIX_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (mTicks != null) {
+            return;
+        }
+        mTicks = mExecutor.scheduleAtFixedRate(new Runnable() {
+            private boolean mStarted;
+
+            @Override
+            public void run() {
+                if (!mStarted) {
+                    // Not on the calling thread, a tick of the previous start may still be running.
+                    mLastTickNanos = System.nanoTime();
+                    mStarted = true;
+                }
+                tick(listener);
+            }
+        }, 0, FIX_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mTicks != null) {
+            // A running tick completes, the next start only ticks after it.
+            mTicks.cancel(false);
+            mTicks = null;
+        }
+    }
+
+    /**
+     * Move every vehicle by the time since the last tick and report it, turning around at the ends
+     * of its path. Runs on the simulator thread.
+     */
+    private void tick(Listener listener) {
+        long now = System.nanoTime();
+        double seconds = (now - mLastTickNanos) / 1e9;
+        mLastTickNanos = now;
+        for (int vehicle = 0; vehicle < mVehicleIds.length; vehicle++) {
+            RouteMeasure measure = mMeasures[mVehicleLines[vehicle]];
+            double distance = mDistances[vehicle] + mSpeeds[vehicle] * seconds;
+            if (distance < 0 || distance > measure.length()) {
+                mSpeeds[vehicle] = -mSpeeds[vehicle];
+                distance = Math.max(0, Math.min(measure.length(), distance));
+            }
+            mDistances[vehicle] = distance;
+            if (measure.interpolate(distance, mPosition)) {
+                listener.onVehicleFix(mVehicleIds[vehicle], mLineKeywords[mVehicleLines[vehicle]],
+                        mPosition.latitude, mPosition.longitude);
+            }
+        }
+    }
+}
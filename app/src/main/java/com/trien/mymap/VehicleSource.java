@@ -0,0 +1,25 @@
+package com.trien.mymap;
+
+/**
+ * Source of live vehicle positions for the {@link VehicleLayer}, such as a realtime feed or the
+ * local {@link VehicleSimulator}.
+ */
+interface VehicleSource {
+
+    /**
+     * Receives the fixes of the vehicles.
+     */
+    interface Listener {
+        /**
+         * A new position of a vehicle running on a line. May be called on any thread.
+         */
+        void onVehicleFix(String vehicleId, String lineKeyword, double latitude, double longitude);
+    }
+
+    /**
+     * Start reporting fixes to the listener, until {@link #stop()}.
+     */
+    void start(Listener listener);
+
+    void stop();
+}
@@ -0,0 +1,217 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps map markers alive only for the scene markers near the viewport.
+ * All scene markers are put in a {@link GridIndex}; whenever the camera settles, the visible region
+ * plus a margin is queried, markers that came into range are added and markers that left it are
+ * removed, both through the frame-budgeted {@link MapSceneApplier}. Markers above the detail level
+ * of the current zoom, like the denser direction arrows, count as out of range. Only the difference
+ * with the previous viewport is applied. The specs can be replaced by a newer version, markers are
+ * then matched by spec id: kept, updated in place or removed, see {@link #setSpecs(List)}.
+ * All methods must be called on the main thread.
+ */
+final class ViewportMarkerCuller {
+
+    /**
+     * Margin added around the visible region on every side, as a fraction of its size, so that
+     * short pans do not add and remove markers at the edges.
+     */
+    private static final double MARGIN_FRACTION = 0.5;
+
+    private final MapSceneApplier mApplier;
+    private List<RouteScene.MarkerSpec> mSpecs;
+    private GridIndex mIndex;
+
+    /**
+     * Index of every spec by spec id.
+     */
+    private Map<String, Integer> mSpecIds;
+
+    /**
+     * Map marker of every spec, null while it is not on the map (or not added yet).
+     */
+    private Marker[] mMarkers;
+    /**
+     * Whether an add is queued in the applier for a spec.
+     */
+    private boolean[] mAdding;
+    /**
+     * Query stamp of every spec, equal to mStamp when it is in range of the current viewport.
+     */
+    private int[] mInRangeStamp;
+    /**
+     * Whether a spec is in mLiveIds.
+     */
+    private boolean[] mLive;
+    /**
+     * Ids of the specs that are on the map or being added, mLiveCount first entries are valid.
+     */
+    private int[] mLiveIds = new int[16];
+    private int mLiveCount;
+    private int mStamp;
+
+    /**
+     * Last visible region and detail level, null before the first camera idle.
+     */
+    private LatLngBounds mVisibleBounds;
+    private int mLevel;
+
+    ViewportMarkerCuller(List<RouteScene.MarkerSpec> specs, MapSceneApplier applier) {
+        mApplier = applier;
+        index(specs);
+    }
+
+    /**
+     * Replace the specs by a newer version. Markers whose spec id is gone are removed, those whose
+     * spec changed are updated in place, the others are kept as they are, and the viewport is then
+     * culled again with the new positions.
+     */
+    void setSpecs(List<RouteScene.MarkerSpec> specs) {
+        List<RouteScene.MarkerSpec> oldSpecs = mSpecs;
+        Marker[] oldMarkers = mMarkers;
+        boolean[] oldAdding = mAdding;
+        int[] oldLiveIds = mLiveIds;
+        int oldLiveCount = mLiveCount;
+        index(specs);
+        mLiveIds = new int[Math.max(16, oldLiveCount)];
+        mLiveCount = 0;
+        for (int i = 0; i < oldLiveCount; i++) {
+            int oldId = oldLiveIds[i];
+            RouteScene.MarkerSpec oldSpec = oldSpecs.get(oldId);
+            Integer id = mSpecIds.get(oldSpec.id);
+            if (id == null) {
+                // A marker still being added is removed once it arrives, see add().
+                if (oldMarkers[oldId] != null) {
+                    mApplier.removeMarker(oldMarkers[oldId]);
+                }
+                continue;
+            }
+            mMarkers[id] = oldMarkers[oldId];
+            mAdding[id] = oldAdding[oldId];
+            mLive[id] = true;
+            mLiveIds[mLiveCount++] = id;
+            if (mMarkers[id] != null && !oldSpec.sameAs(specs.get(id))) {
+                mApplier.updateMarker(mMarkers[id], oldSpec, specs.get(id));
+            }
+        }
+        if (mVisibleBounds != null) {
+            onCameraIdle(mVisibleBounds, mLevel);
+        }
+    }
+
+    /**
+     * Add and remove markers for a new visible region and detail level.
+     */
+    void onCameraIdle(LatLngBounds visibleBounds, final int level) {
+        mVisibleBounds = visibleBounds;
+        mLevel = level;
+        mStamp++;
+
+        // Add everything in range that is not on the map yet.
+        mIndex.queryViewport(visibleBounds.southwest.latitude, visibleBounds.southwest.longitude,
+                visibleBounds.northeast.latitude, visibleBounds.northeast.longitude, MARGIN_FRACTION,
+                new GridIndex.Visitor() {
+                    @Override
+                    public void visit(int id) {
+                        if (mSpecs.get(id).level > level) {
+                            return;
+                        }
+                        mInRangeStamp[id] = mStamp;
+                        if (mMarkers[id] == null && !mAdding[id]) {
+                            add(id);
+                        }
+                    }
+                });
+
+        // Remove what is live but no longer in range, only the live set is scanned.
+        int kept = 0;
+        for (int i = 0; i < mLiveCount; i++) {
+            int id = mLiveIds[i];
+            if (mInRangeStamp[id] == mStamp || mAdding[id]) {
+                // A marker still being added is removed once it arrives if it is out of range, see add().
+                mLiveIds[kept++] = id;
+            } else {
+                if (mMarkers[id] != null) {
+                    mApplier.removeMarker(mMarkers[id]);
+                    mMarkers[id] = null;
+                }
+                mLive[id] = false;
+            }
+        }
+        mLiveCount = kept;
+    }
+
+    /**
+     * Number of scene markers currently on the map or being added.
+     */
+    int getLiveCount() {
+        return mLiveCount;
+    }
+
+    /**
+     * Index new specs, with no marker yet.
+     */
+    private void index(List<RouteScene.MarkerSpec> specs) {
+        mSpecs = specs;
+        mSpecIds = new HashMap<>(specs.size() * 2);
+        Coordinates positions = new Coordinates(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            RouteScene.MarkerSpec spec = specs.get(i);
+            mSpecIds.put(spec.id, i);
+            positions.add(spec.position.latitude, spec.position.longitude);
+        }
+        mIndex = new GridIndex(positions);
+        mMarkers = new Marker[specs.size()];
+        mAdding = new boolean[specs.size()];
+        mInRangeStamp = new int[specs.size()];
+        mLive = new boolean[specs.size()];
+    }
+
+    private void add(int id) {
+        final RouteScene.MarkerSpec spec = mSpecs.get(id);
+        mAdding[id] = true;
+        if (!mLive[id]) {
+            if (mLiveCount == mLiveIds.length) {
+                mLiveIds = Arrays.copyOf(mLiveIds, mLiveCount * 2);
+            }
+            mLiveIds[mLiveCount++] = id;
+            mLive[id] = true;
+        }
+        mApplier.addMarker(new MarkerOptions()
+                .position(spec.position)
+                .anchor(spec.anchorU, spec.anchorV)
+                .flat(spec.flat)
+                .rotation(spec.rotation)
+                .icon(spec.icon.getDescriptor()), new MapSceneApplier.OnObjectAddedListener<Marker>() {
+            @Override
+            public void onObjectAdded(Marker marker) {
+                // The specs may have been replaced while the add was queued, look the spec up again.
+                Integer id = mSpecIds.get(spec.id);
+                if (id == null || !mAdding[id]) {
+                    // Gone from the specs.
+                    marker.remove();
+                    return;
+                }
+                mAdding[id] = false;
+                if (mInRangeStamp[id] == mStamp) {
+                    mMarkers[id] = marker;
+                    if (!spec.sameAs(mSpecs.get(id))) {
+                        mApplier.updateMarker(marker, spec, mSpecs.get(id));
+                    }
+                } else {
+                    // Left the viewport while the add was queued.
+                    marker.remove();
+                }
+            }
+        });
+    }
+}
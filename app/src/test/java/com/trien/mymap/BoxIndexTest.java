@@ -0,0 +1,108 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BoxIndexTest {
+
+    @Test
+    public void queryFindsOverlappingBoxes() {
+        Random random = new Random(1);
+        int count = 3000;
+        double[] minX = new double[count];
+        double[] minY = new double[count];
+        double[] maxX = new double[count];
+        double[] maxY = new double[count];
+        for (int i = 0; i < count; i++) {
+            // Mostly small boxes, like path chunks, and a few spanning much of the extent.
+            double size = random.nextInt(50) == 0 ? 0.5 : 0.01;
+            minX[i] = random.nextDouble();
+            minY[i] = random.nextDouble();
+            maxX[i] = minX[i] + random.nextDouble() * size;
+            maxY[i] = minY[i] + random.nextDouble() * size;
+        }
+        BoxIndex index = new BoxIndex(minX, minY, maxX, maxY);
+        for (int i = 0; i < 300; i++) {
+            double left = random.nextDouble() * 1.2 - 0.1;
+            double top = random.nextDouble() * 1.2 - 0.1;
+            double right = left + random.nextDouble() * 0.1;
+            double bottom = top + random.nextDouble() * 0.1;
+            assertArrayEquals(bruteForce(minX, minY, maxX, maxY, left, top, right, bottom),
+                    query(index, left, top, right, bottom));
+        }
+        assertEquals(count, count(query(index, -1, -1, 2, 2)));
+    }
+
+    @Test
+    public void touchingBoxesOverlap() {
+        BoxIndex index = new BoxIndex(new double[]{0, 2}, new double[]{0, 2}, new double[]{1, 3},
+                new double[]{1, 3});
+        assertArrayEquals(new boolean[]{true, false}, query(index, 1, 1, 1.5, 1.5));
+        assertArrayEquals(new boolean[]{true, true}, query(index, 1, 1, 2, 2));
+    }
+
+    @Test
+    public void queryOutsideOrInvertedBoxFindsNothing() {
+        BoxIndex index = new BoxIndex(new double[]{0}, new double[]{0}, new double[]{1}, new double[]{1});
+        assertEquals(0, count(query(index, 2, 2, 3, 3)));
+        assertEquals(0, count(query(index, 0.8, 0.2, 0.2, 0.8)));
+        BoxIndex empty = new BoxIndex(new double[0], new double[0], new double[0], new double[0]);
+        assertEquals(0, empty.size());
+        assertEquals(0, count(query(empty, -1, -1, 1, 1)));
+    }
+
+    @Test
+    public void degenerateBoxes() {
+        // A horizontal run of chunks, and points.
+        int count = 1000;
+        double[] minX = new double[count];
+        double[] minY = new double[count];
+        double[] maxX = new double[count];
+        double[] maxY = new double[count];
+        for (int i = 0; i < count; i++) {
+            minX[i] = i;
+            maxX[i] = i % 2 == 0 ? i + 1 : i;
+            minY[i] = 0.5;
+            maxY[i] = 0.5;
+        }
+        BoxIndex index = new BoxIndex(minX, minY, maxX, maxY);
+        assertArrayEquals(bruteForce(minX, minY, maxX, maxY, 10.5, 0, 20.5, 1), query(index, 10.5, 0, 20.5, 1));
+        assertEquals(0, count(query(index, 10, 0.6, 20, 1)));
+    }
+
+    /**
+     * Query a box, checking that no box is visited twice.
+     */
+    private static boolean[] query(BoxIndex index, double minX, double minY, double maxX, double maxY) {
+        final boolean[] found = new boolean[index.size()];
+        index.query(minX, minY, maxX, maxY, new BoxIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                assertEquals(false, found[id]);
+                found[id] = true;
+            }
+        });
+        return found;
+    }
+
+    private static boolean[] bruteForce(double[] minX, double[] minY, double[] maxX, double[] maxY,
+                                        double left, double top, double right, double bottom) {
+        boolean[] found = new boolean[minX.length];
+        for (int i = 0; i < minX.length; i++) {
+            found[i] = maxX[i] >= left && minX[i] <= right && maxY[i] >= top && minY[i] <= bottom;
+        }
+        return found;
+    }
+
+    private static int count(boolean[] found) {
+        int count = 0;
+        for (boolean value : found) {
+            count += value ? 1 : 0;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,142 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GridIndexTest {
+
+    @Test
+    public void queryFindsPointsInsideBox() {
+        Random random = new Random(1);
+        Coordinates points = randomPoints(random, 5000, -35.8, 138.3, 0.6);
+        GridIndex index = new GridIndex(points);
+        for (int i = 0; i < 200; i++) {
+            double south = -35.8 + random.nextDouble() * 0.6;
+            double west = 138.3 + random.nextDouble() * 0.6;
+            double north = south + random.nextDouble() * 0.2;
+            double east = west + random.nextDouble() * 0.2;
+            assertArrayEquals(bruteForce(points, south, west, north, east), query(index, south, west, north, east));
+        }
+    }
+
+    @Test
+    public void queryOutsideOrInvertedBoxFindsNothing() {
+        GridIndex index = new GridIndex(randomPoints(new Random(2), 100, -35.8, 138.3, 0.6));
+        assertEquals(0, count(query(index, 10, 10, 11, 11)));
+        assertEquals(0, count(query(index, -35.5, 138.6, -35.6, 138.7)));
+        assertEquals(0, count(query(new GridIndex(new Coordinates()), -90, -180, 90, 180)));
+    }
+
+    @Test
+    public void pointsOnALine() {
+        // A straight north-south route, all points at the same longitude.
+        Coordinates points = new Coordinates();
+        for (int i = 0; i < 100_000; i++) {
+            points.add(-36 + i * 1e-5, 138.5);
+        }
+        GridIndex index = new GridIndex(points);
+        assertEquals(10_000, count(query(index, -35.9, 138.4, -35.8 - 1e-6, 138.6)));
+    }
+
+    @Test
+    public void viewportAddsMargin() {
+        Coordinates points = new Coordinates();
+        points.add(0.2, 0.2);
+        points.add(1.9, 1.9);
+        points.add(2.1, 2.1);
+        GridIndex index = new GridIndex(points);
+        // A one degree viewport grown by half its size on every side.
+        boolean[] found = queryViewport(index, 0.5, 0.5, 1.5, 1.5, 0.5);
+        assertArrayEquals(new boolean[]{true, true, false}, found);
+    }
+
+    @Test
+    public void viewportAcrossAntimeridian() {
+        Coordinates points = new Coordinates();
+        points.add(0.0, 179.0);
+        points.add(0.0, -179.0);
+        points.add(0.0, 178.0);
+        points.add(0.0, -177.0);
+        points.add(0.0, 0.0);
+        GridIndex index = new GridIndex(points);
+        // From 178.5 east to -178.5, grown by half its 3 degrees on every side: 177 to -177.
+        assertArrayEquals(new boolean[]{true, true, true, true, false},
+                queryViewport(index, -1, 178.5, 1, -178.5, 0.5));
+        assertArrayEquals(new boolean[]{true, true, false, false, false},
+                queryViewport(index, -1, 178.5, 1, -178.5, 0));
+    }
+
+    @Test
+    public void viewportWrappingByItsMargin() {
+        Coordinates points = new Coordinates();
+        points.add(0.0, 179.0);
+        points.add(0.0, -179.0);
+        points.add(0.0, -170.0);
+        GridIndex index = new GridIndex(points);
+        // Not across the antimeridian, but its margin is.
+        assertArrayEquals(new boolean[]{true, true, false}, queryViewport(index, -1, -179.5, 1, -177.5, 1));
+    }
+
+    @Test
+    public void viewportWiderThanTheWorld() {
+        GridIndex index = new GridIndex(randomPoints(new Random(3), 100, -60, -180, 120));
+        boolean[] found = queryViewport(index, -80, -100, 80, 100, 0.5);
+        assertEquals(100, count(found));
+    }
+
+    private static Coordinates randomPoints(Random random, int count, double south, double west, double size) {
+        Coordinates points = new Coordinates(count);
+        for (int i = 0; i < count; i++) {
+            points.add(south + random.nextDouble() * size, west + random.nextDouble() * size);
+        }
+        return points;
+    }
+
+    private static boolean[] query(GridIndex index, double south, double west, double north, double east) {
+        final boolean[] found = new boolean[index.size()];
+        index.query(south, west, north, east, new GridIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                found[id] = true;
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Query a viewport, checking that no point is visited twice.
+     */
+    private static boolean[] queryViewport(GridIndex index, double south, double west, double north, double east,
+                                           double marginFraction) {
+        final boolean[] found = new boolean[index.size()];
+        index.queryViewport(south, west, north, east, marginFraction, new GridIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                assertEquals(false, found[id]);
+                found[id] = true;
+            }
+        });
+        return found;
+    }
+
+    private static boolean[] bruteForce(Coordinates points, double south, double west, double north, double east) {
+        boolean[] found = new boolean[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            found[i] = points.latitude(i) >= south && points.latitude(i) <= north
+                    && points.longitude(i) >= west && points.longitude(i) <= east;
+        }
+        return found;
+    }
+
+    private static int count(boolean[] found) {
+        int count = 0;
+        for (boolean value : found) {
+            count += value ? 1 : 0;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,180 @@
+package com.trien.mymap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class GtfsImporterTest {
+
+    private static final String ROUTES = "route_id,route_short_name,route_color\n"
+            + "r1,1,FF0000\n"
+            + "r2,2,\n";
+
+    private static final String TRIPS = "route_id,service_id,trip_id,shape_id\n"
+            + "r1,daily,t1,a\n"
+            + "r2,daily,t2,b\n";
+
+    private static final String STOPS = "stop_id,stop_name,stop_lat,stop_lon,location_type\n"
+            + "s1,\"Main St, North\",-35.5,138.6,0\n"
+            + "s2,Station,-35.6,138.7,1\n"
+            + "s3,Beach Rd,-35.7,138.8,\n";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsLinesAndStops() throws IOException {
+        RouteDataset dataset = read(ROUTES, TRIPS, "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                + "a,-35.0,138.0,1\n"
+                + "a,-35.1,138.1,2\n"
+                + "b,-36.0,139.0,1\n", STOPS);
+        assertPath(dataset.getLine("a"), -35.0, 138.0, -35.1, 138.1);
+        assertPath(dataset.getLine("b"), -36.0, 139.0);
+        assertEquals("#FF0000", dataset.getLine("a").getStyle().getColorName());
+        assertEquals("", dataset.getLine("b").getStyle().getColorName());
+
+        RouteDataset.Line stops = dataset.getLine(GtfsImporter.STOPS_KEYWORD);
+        assertEquals(Arrays.asList("Main St, North", "Beach Rd"), stops.getMarkerNames());
+        assertEquals(Arrays.asList("s1", "s3"), stops.getStopIds());
+        assertEquals("s3", stops.getMarkerId(1));
+        assertEquals(2, stops.getMarkers().size());
+        assertEquals(0, stops.getPath().size());
+    }
+
+    @Test
+    public void sortsShapeBySequence() throws IOException {
+        RouteDataset dataset = read(ROUTES, TRIPS, "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                + "a,-35.3,138.3,30\n"
+                + "a,-35.1,138.1,10\n"
+                + "a,-35.2,138.2,20\n", STOPS);
+        assertPath(dataset.getLine("a"), -35.1, 138.1, -35.2, 138.2, -35.3, 138.3);
+    }
+
+    @Test
+    public void mergesShapeRunsBySequence() throws IOException {
+        // Rows of two shapes interleaved, with runs of a shape out of order and overlapping.
+        RouteDataset dataset = read(ROUTES, TRIPS, "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                + "a,-35.4,138.4,4\n"
+                + "a,-35.6,138.6,6\n"
+                + "b,-36.2,139.2,2\n"
+                + "a,-35.1,138.1,1\n"
+                + "a,-35.5,138.5,5\n"
+                + "b,-36.1,139.1,1\n"
+                + "a,-35.3,138.3,3\n"
+                + "a,-35.2,138.2,2\n"
+                + "b,-36.3,139.3,1000\n", STOPS);
+        assertPath(dataset.getLine("a"), -35.1, 138.1, -35.2, 138.2, -35.3, 138.3, -35.4, 138.4,
+                -35.5, 138.5, -35.6, 138.6);
+        assertPath(dataset.getLine("b"), -36.1, 139.1, -36.2, 139.2, -36.3, 139.3);
+    }
+
+    @Test
+    public void mergesManyRuns() throws IOException {
+        // Two shapes alternating row by row, in decreasing sequence order.
+        StringBuilder shapes = new StringBuilder("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n");
+        int count = 2000;
+        for (int i = count - 1; i >= 0; i--) {
+            shapes.append("a,").append(-35 - i * 1e-4).append(",138,").append(i * 300).append('\n');
+            shapes.append("b,").append(-36 - i * 1e-4).append(",139,").append(i).append('\n');
+        }
+        RouteDataset dataset = read(ROUTES, TRIPS, shapes.toString(), STOPS);
+        Coordinates a = dataset.getLine("a").getPath();
+        Coordinates b = dataset.getLine("b").getPath();
+        assertEquals(count, a.size());
+        assertEquals(count, b.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Coordinates.toE7(-35 - i * 1e-4), a.latE7(i));
+            assertEquals(Coordinates.toE7(-36 - i * 1e-4), b.latE7(i));
+        }
+    }
+
+    @Test
+    public void keepsShapeNamedLikeStops() throws IOException {
+        RouteDataset dataset = read(ROUTES, TRIPS, "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                + "stops,-35.0,138.0,1\n"
+                + "shape:x,-35.1,138.1,1\n", STOPS);
+        assertEquals(2, dataset.getLine(GtfsImporter.STOPS_KEYWORD).getMarkers().size());
+        assertPath(dataset.getLine(GtfsImporter.SHAPE_KEYWORD_PREFIX + "stops"), -35.0, 138.0);
+        assertPath(dataset.getLine(GtfsImporter.SHAPE_KEYWORD_PREFIX + "shape:x"), -35.1, 138.1);
+        assertEquals(3, dataset.getLines().size());
+    }
+
+    @Test
+    public void importsFeedWithoutShapes() throws IOException {
+        RouteDataset dataset = read(ROUTES, TRIPS, null, STOPS);
+        assertEquals(1, dataset.getLines().size());
+        assertEquals(2, dataset.getLine(GtfsImporter.STOPS_KEYWORD).getMarkers().size());
+    }
+
+    @Test
+    public void skipsMalformedRows() throws IOException {
+        RouteDataset dataset = read(ROUTES, TRIPS, "\uFEFFshape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                + "a,-35.0,138.0,1\n"
+                + "a,north,138.1,2\n"
+                + "\n"
+                + "a,-35.2,138.2,x\n", STOPS);
+        assertPath(dataset.getLine("a"), -35.0, 138.0);
+        assertEquals(2, dataset.getSkippedRowCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFeedWithoutStops() throws IOException {
+        read(ROUTES, TRIPS, null, null);
+    }
+
+    private RouteDataset read(String routes, String trips, String shapes, String stops) throws IOException {
+        File file = mFolder.newFile();
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            write(zip, GtfsImporter.ROUTES, routes);
+            write(zip, GtfsImporter.TRIPS, trips);
+            write(zip, GtfsImporter.SHAPES, shapes);
+            write(zip, GtfsImporter.STOPS, stops);
+        } finally {
+            zip.close();
+        }
+        ZipFile feed = new ZipFile(file);
+        try {
+            return GtfsImporter.read(feed, LineStyle.DEFAULT_WIDTH, LineStyle.DEFAULT);
+        } finally {
+            feed.close();
+        }
+    }
+
+    private static void write(ZipOutputStream zip, String name, String content) throws IOException {
+        if (content != null) {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+    }
+
+    private static void assertPath(RouteDataset.Line line, double... latLngs) {
+        assertNotNull(line);
+        Coordinates path = line.getPath();
+        List<Double> actual = new ArrayList<>();
+        for (int i = 0; i < path.size(); i++) {
+            actual.add(path.latitude(i));
+            actual.add(path.longitude(i));
+        }
+        List<Double> expected = new ArrayList<>();
+        for (double value : latLngs) {
+            expected.add(value);
+        }
+        assertEquals(expected, actual);
+    }
+}
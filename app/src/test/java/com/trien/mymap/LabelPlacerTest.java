@@ -0,0 +1,216 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LabelPlacerTest {
+
+    private static final double WORLD_SIZE = 1000;
+
+    @Test
+    public void placesHighestPriorityFirst() {
+        // Three centered labels at the same point, every anchor of one overlapping the others.
+        LabelPlacer placer = placer(new double[]{0.5, 0.5, 0.5}, new double[]{0.5, 0.5, 0.5},
+                new float[]{0.5f, 0.5f, 0.5f}, new int[]{1, 3, 2}, 100, 20);
+        place(placer, 0, 1, 2);
+        assertEquals(0, placer.getAnchor(1));
+        assertEquals(LabelPlacer.HIDDEN, placer.getAnchor(2));
+        assertEquals(LabelPlacer.HIDDEN, placer.getAnchor(0));
+    }
+
+    @Test
+    public void equalPrioritiesInLabelOrder() {
+        LabelPlacer placer = placer(new double[]{0.5, 0.5}, new double[]{0.5, 0.5}, new float[]{0.5f, 0.5f},
+                new int[]{0, 0}, 10, 10);
+        place(placer, 1, 0);
+        assertEquals(0, placer.getAnchor(0));
+        assertEquals(LabelPlacer.HIDDEN, placer.getAnchor(1));
+    }
+
+    @Test
+    public void triesAlternateAnchorsInOrder() {
+        // The first label right of the point, so the second one is placed left of it.
+        LabelPlacer placer = placer(new double[]{0.5, 0.5}, new double[]{0.5, 0.5}, new float[]{0f, 0.5f},
+                new int[]{1, 0}, 10, 10);
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(0));
+        assertEquals(2, placer.getAnchor(1));
+        assertEquals(0f, placer.anchorU(1, 1), 0);
+        assertEquals(1f, placer.anchorU(1, 2), 0);
+        assertEquals(0.5f, placer.anchorV(1, 2), 0);
+        assertEquals(0.5f, placer.anchorU(1, 0), 0);
+    }
+
+    @Test
+    public void touchingBoxesDoNotCollide() {
+        // Two 10 pixel wide labels 10 pixels apart.
+        LabelPlacer placer = placer(new double[]{0.5, 0.51}, new double[]{0.5, 0.5}, new float[]{0.5f, 0.5f},
+                new int[]{1, 0}, 10, 10);
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(0));
+        assertEquals(0, placer.getAnchor(1));
+    }
+
+    @Test
+    public void keepsPlacementsWhileTheCameraOnlyMoves() {
+        LabelPlacer placer = placer(new double[]{0.5, 0.5}, new double[]{0.5, 0.5}, new float[]{0f, 0.5f},
+                new int[]{1, 0}, 10, 10);
+        place(placer, 0);
+        assertEquals(0, placer.getAnchor(0));
+        assertEquals(LabelPlacer.UNTESTED, placer.getAnchor(1));
+        assertFalse(placer.setCamera(WORLD_SIZE, 0));
+        // The label coming into view yields to the one already placed.
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(0));
+        assertEquals(2, placer.getAnchor(1));
+    }
+
+    @Test
+    public void higherPriorityLabelAfterAPan() {
+        // A centered label placed alone, then a label of a higher priority right of the same point.
+        LabelPlacer placer = placer(new double[]{0.5, 0.5}, new double[]{0.5, 0.5}, new float[]{0.5f, 0f},
+                new int[]{0, 1}, 10, 10);
+        place(placer, 0);
+        assertEquals(0, placer.getAnchor(0));
+        assertFalse(placer.setCamera(WORLD_SIZE, 0));
+        // The label coming into view takes its place, and the displaced label moves left of the point.
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(1));
+        assertEquals(2, placer.getAnchor(0));
+    }
+
+    @Test
+    public void resetsOnZoomOrBearing() {
+        LabelPlacer placer = placer(new double[]{0.5}, new double[]{0.5}, new float[]{0.5f}, new int[]{0}, 10, 10);
+        place(placer, 0);
+        assertTrue(placer.setCamera(WORLD_SIZE * 2, 0));
+        assertEquals(LabelPlacer.UNTESTED, placer.getAnchor(0));
+        place(placer, 0);
+        assertTrue(placer.setCamera(WORLD_SIZE * 2, 45));
+        assertEquals(LabelPlacer.UNTESTED, placer.getAnchor(0));
+        assertFalse(placer.setCamera(WORLD_SIZE * 2, 45));
+    }
+
+    @Test
+    public void triesThePreviousAnchorFirst() {
+        LabelPlacer placer = placer(new double[]{0.5, 0.5}, new double[]{0.5, 0.5}, new float[]{0f, 0.5f},
+                new int[]{1, 0}, 10, 10);
+        place(placer, 0, 1);
+        assertEquals(2, placer.getAnchor(1));
+        // Alone after a zoom, the label stays where it was rather than going back to its preferred anchor.
+        assertTrue(placer.setCamera(WORLD_SIZE * 2, 0));
+        place(placer, 1);
+        assertEquals(2, placer.getAnchor(1));
+    }
+
+    @Test
+    public void rotatesWithTheBearing() {
+        // Tall labels side by side: they fit at their preferred anchors until a quarter turn puts
+        // them one above the other.
+        LabelPlacer placer = placer(new double[]{0.5, 0.51}, new double[]{0.5, 0.5}, new float[]{0.5f, 0.5f},
+                new int[]{1, 0}, 8, 40);
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(1));
+        assertTrue(placer.setCamera(WORLD_SIZE, 90));
+        place(placer, 0, 1);
+        assertEquals(0, placer.getAnchor(0));
+        assertTrue(placer.getAnchor(1) != 0);
+    }
+
+    @Test
+    public void placesGreedilyLikeBruteForce() {
+        Random random = new Random(1);
+        int count = 400;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        float[] anchorU = new float[count];
+        float[] anchorV = new float[count];
+        final int[] priorities = new int[count];
+        int[] labels = new int[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+            widths[i] = 20 + random.nextInt(80);
+            heights[i] = 10 + random.nextInt(20);
+            anchorU[i] = 0.5f;
+            anchorV[i] = 1f;
+            priorities[i] = random.nextInt(5);
+            labels[i] = i;
+        }
+        float padding = 2;
+        LabelPlacer placer = new LabelPlacer(x, y, widths, heights, anchorU, anchorV, priorities, padding);
+        placer.setCamera(WORLD_SIZE, 0);
+        placer.place(labels, count);
+
+        // Labels in placement order, each expected at its first anchor clear of the boxes placed before.
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                // A stable sort, equal priorities staying in label order.
+                return Integer.compare(priorities[b], priorities[a]);
+            }
+        });
+        double[][] placed = new double[count][];
+        for (int label : order) {
+            int expected = LabelPlacer.HIDDEN;
+            for (int anchor = 0; anchor < LabelPlacer.ANCHOR_COUNT && expected == LabelPlacer.HIDDEN; anchor++) {
+                double[] box = box(placer, x[label], y[label], widths[label], heights[label], padding, label, anchor);
+                if (!collides(placed, box)) {
+                    expected = anchor;
+                    placed[label] = box;
+                }
+            }
+            assertEquals(expected, placer.getAnchor(label));
+        }
+    }
+
+    private static double[] box(LabelPlacer placer, double x, double y, int width, int height, float padding,
+                                int label, int anchor) {
+        double left = x * WORLD_SIZE - placer.anchorU(label, anchor) * width - padding;
+        double top = y * WORLD_SIZE - placer.anchorV(label, anchor) * height - padding;
+        return new double[]{left, top, left + width + 2 * padding, top + height + 2 * padding};
+    }
+
+    private static boolean collides(double[][] placed, double[] box) {
+        for (double[] other : placed) {
+            if (other != null && box[0] < other[2] && box[2] > other[0] && box[1] < other[3] && box[3] > other[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Labels of the given size, vertically centered on their point, and a camera without rotation.
+     */
+    private static LabelPlacer placer(double[] x, double[] y, float[] anchorU, int[] priorities, int width,
+                                      int height) {
+        int count = x.length;
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        float[] anchorV = new float[count];
+        Arrays.fill(widths, width);
+        Arrays.fill(heights, height);
+        Arrays.fill(anchorV, 0.5f);
+        LabelPlacer placer = new LabelPlacer(x, y, widths, heights, anchorU, anchorV, priorities, 0);
+        assertTrue(placer.setCamera(WORLD_SIZE, 0));
+        return placer;
+    }
+
+    private static void place(LabelPlacer placer, int... labels) {
+        placer.place(labels, labels.length);
+    }
+}
@@ -0,0 +1,151 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.PolyUtil;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PolylineCodecTest {
+
+    /**
+     * The sample data, relative to the module directory the unit tests run in.
+     */
+    static final String POLYLINES_CSV = "src/main/res/raw/polylines.csv";
+
+    @Test
+    public void decodeCsvPathsLikePolyUtil() throws IOException {
+        List<String> encodedPaths = readEncodedPaths();
+        assertFalse(encodedPaths.isEmpty());
+        boolean escapedPath = false;
+        for (String encodedPath : encodedPaths) {
+            escapedPath |= encodedPath.contains("\\\\");
+            Coordinates decoded = new Coordinates();
+            PolylineCodec.decode(encodedPath, 0, encodedPath.length(), true, decoded);
+            assertSamePoints(PolyUtil.decode(encodedPath.replace("\\\\", "\\")), decoded);
+        }
+        // The sample data covers the backslash escaping.
+        assertTrue(escapedPath);
+    }
+
+    @Test
+    public void encodeLikePolyUtil() {
+        Coordinates path = randomPath(new Random(1), 500);
+        List<LatLng> points = new ArrayList<>();
+        for (int i = 0; i < path.size(); i++) {
+            points.add(new LatLng(path.latitude(i), path.longitude(i)));
+        }
+        assertEquals(PolyUtil.encode(points), PolylineCodec.encode(path));
+    }
+
+    @Test
+    public void encodeThenDecodeReturnsInput() {
+        Random random = new Random(2);
+        for (int count : new int[]{0, 1, 2, 1000}) {
+            Coordinates path = randomPath(random, count);
+            Coordinates decoded = new Coordinates();
+            PolylineCodec.decode(PolylineCodec.encode(path), decoded);
+            assertTrue(path.contentEquals(decoded));
+        }
+    }
+
+    @Test
+    public void encodeThenDecodeExtremes() {
+        Coordinates path = new Coordinates();
+        path.add(90.0, 180.0);
+        path.add(-90.0, -180.0);
+        path.add(0.0, 0.0);
+        path.add(-0.00001, 0.00001);
+        Coordinates decoded = new Coordinates();
+        PolylineCodec.decode(PolylineCodec.encode(path), decoded);
+        assertTrue(path.contentEquals(decoded));
+    }
+
+    @Test
+    public void decodeUnescapesDoubledBackslashes() {
+        // A latitude step of -0.00015 encodes to a backslash.
+        Coordinates path = new Coordinates();
+        path.add(-0.00015, 0.0);
+        path.add(-0.0003, -0.00015);
+        String encoded = PolylineCodec.encode(path);
+        assertEquals("\\?\\\\", encoded);
+
+        Coordinates decoded = new Coordinates();
+        String escaped = encoded.replace("\\", "\\\\");
+        PolylineCodec.decode(escaped, 0, escaped.length(), true, decoded);
+        assertTrue(path.contentEquals(decoded));
+
+        // Unescaped input is read as is.
+        decoded.clear();
+        PolylineCodec.decode(encoded, 0, encoded.length(), false, decoded);
+        assertTrue(path.contentEquals(decoded));
+    }
+
+    @Test
+    public void decodeRange() {
+        Coordinates path = randomPath(new Random(3), 10);
+        String encoded = "lineBlue, encodedPoints, " + PolylineCodec.encode(path) + "  ";
+        Coordinates decoded = new Coordinates();
+        PolylineCodec.decode(encoded, encoded.indexOf(", ", 10) + 2, encoded.length() - 2, false, decoded);
+        assertTrue(path.contentEquals(decoded));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeTruncatedPath() {
+        // A latitude without its longitude.
+        PolylineCodec.decode("_p~iF", new Coordinates());
+    }
+
+    /**
+     * The encodedPoints fields of the sample data, as stored in the file.
+     */
+    static List<String> readEncodedPaths() throws IOException {
+        List<String> encodedPaths = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(POLYLINES_CSV), StandardCharsets.UTF_8))) {
+            String row;
+            while ((row = reader.readLine()) != null) {
+                String[] tokens = row.split(",", 3);
+                if (tokens.length == 3 && tokens[1].trim().equals(RouteDataset.ENCODED_POINTS)) {
+                    encodedPaths.add(tokens[2].trim());
+                }
+            }
+        }
+        return encodedPaths;
+    }
+
+    /**
+     * A random walk at the 5 decimal precision of the format.
+     */
+    static Coordinates randomPath(Random random, int count) {
+        Coordinates path = new Coordinates(count);
+        int lat = -3_555_000;
+        int lng = 13_865_000;
+        for (int i = 0; i < count; i++) {
+            lat += random.nextInt(2001) - 1000;
+            lng += random.nextInt(2001) - 1000;
+            path.add(lat * 100, lng * 100);
+        }
+        return path;
+    }
+
+    private static void assertSamePoints(List<LatLng> expected, Coordinates actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(Coordinates.toE7(expected.get(i).latitude), actual.latE7(i));
+            assertEquals(Coordinates.toE7(expected.get(i).longitude), actual.lngE7(i));
+        }
+    }
+}
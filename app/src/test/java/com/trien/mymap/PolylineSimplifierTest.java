@@ -0,0 +1,123 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class PolylineSimplifierTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * PolylineSimplifier.EARTH_RADIUS;
+
+    @Test
+    public void shortPathsAndZeroToleranceAreCopied() {
+        Coordinates path = PolylineCodecTest.randomPath(new Random(1), 2);
+        Coordinates simplified = PolylineSimplifier.simplify(path, 100);
+        assertNotSame(path, simplified);
+        assertTrue(path.contentEquals(simplified));
+
+        path = PolylineCodecTest.randomPath(new Random(1), 100);
+        assertTrue(path.contentEquals(PolylineSimplifier.simplify(path, 0)));
+    }
+
+    @Test
+    public void collinearPointsAreRemoved() {
+        Coordinates path = new Coordinates();
+        for (int i = 0; i <= 10; i++) {
+            path.add(-35.5 + i * 0.001, 138.6 + i * 0.002);
+        }
+        Coordinates simplified = PolylineSimplifier.simplify(path, 1);
+        assertEquals(2, simplified.size());
+        assertEquals(path.latE7(0), simplified.latE7(0));
+        assertEquals(path.latE7(10), simplified.latE7(1));
+    }
+
+    @Test
+    public void spikesBeyondToleranceAreKept() {
+        // A 100 meter detour in the middle of a straight east-west path.
+        double spike = 100 / METERS_PER_DEGREE;
+        Coordinates path = new Coordinates();
+        path.add(-35.5, 138.6);
+        path.add(-35.5, 138.61);
+        path.add(-35.5 + spike, 138.62);
+        path.add(-35.5, 138.63);
+        path.add(-35.5, 138.64);
+
+        Coordinates simplified = PolylineSimplifier.simplify(path, 50);
+        assertEquals(5 - 2, simplified.size());
+        assertEquals(path.latE7(2), simplified.latE7(1));
+
+        assertEquals(2, PolylineSimplifier.simplify(path, 150).size());
+    }
+
+    @Test
+    public void closedLoopKeepsItsShape() {
+        // The sample lines start and end at the same point.
+        Coordinates path = new Coordinates();
+        path.add(-35.5, 138.6);
+        path.add(-35.5, 138.61);
+        path.add(-35.51, 138.61);
+        path.add(-35.51, 138.6);
+        path.add(-35.5, 138.6);
+        Coordinates simplified = PolylineSimplifier.simplify(path, 10);
+        assertTrue(path.contentEquals(simplified));
+    }
+
+    @Test
+    public void removedPointsAreWithinTolerance() {
+        Random random = new Random(2);
+        for (double tolerance : new double[]{1, 10, 100}) {
+            assertWithinTolerance(PolylineCodecTest.randomPath(random, 2000), tolerance);
+        }
+    }
+
+    @Test
+    public void samplePathsAreWithinTolerance() throws IOException {
+        for (String encodedPath : PolylineCodecTest.readEncodedPaths()) {
+            Coordinates path = new Coordinates();
+            PolylineCodec.decode(encodedPath, 0, encodedPath.length(), true, path);
+            if (path.size() > 2) {
+                assertWithinTolerance(path, 5);
+            }
+        }
+    }
+
+    /**
+     * Check that the simplified path is made of input points in order, first and last included,
+     * and that every removed point is within tolerance of the segment replacing it.
+     */
+    private static void assertWithinTolerance(Coordinates path, double tolerance) {
+        Coordinates simplified = PolylineSimplifier.simplify(path, tolerance);
+        assertTrue(simplified.size() >= 2);
+        assertTrue(simplified.size() <= path.size());
+        double cosLat = Math.cos(Math.toRadians(path.latitude(0)));
+        int first = 0;
+        for (int kept = 1; kept < simplified.size(); kept++) {
+            int last = first + 1;
+            while (path.latE7(last) != simplified.latE7(kept) || path.lngE7(last) != simplified.lngE7(kept)) {
+                last++;
+            }
+            for (int i = first + 1; i < last; i++) {
+                double distance = Math.sqrt(PolylineSimplifier.segmentDistanceSquared(
+                        x(path, i, cosLat), y(path, i),
+                        x(path, first, cosLat), y(path, first),
+                        x(path, last, cosLat), y(path, last)));
+                assertTrue(distance + " > " + tolerance, distance <= tolerance + 1e-6);
+            }
+            first = last;
+        }
+        assertEquals(path.size() - 1, first);
+    }
+
+    private static double x(Coordinates path, int i, double cosLat) {
+        return path.longitude(i) * METERS_PER_DEGREE * cosLat;
+    }
+
+    private static double y(Coordinates path, int i) {
+        return path.latitude(i) * METERS_PER_DEGREE;
+    }
+}
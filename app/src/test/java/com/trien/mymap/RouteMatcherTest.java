@@ -0,0 +1,174 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RouteMatcherTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(PolylineSimplifier.EARTH_RADIUS);
+    private static final double METERS_TOLERANCE = 1e-6;
+
+    @Test
+    public void matchLikeBruteForce() {
+        Random random = new Random(1);
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        for (int line = 0; line < 5; line++) {
+            measures.put("line" + line, new RouteMeasure(randomWalk(random, 500), new Coordinates()));
+        }
+        RouteMatcher matcher = RouteMatcher.build(measures);
+        RouteMatcher.Match match = new RouteMatcher.Match();
+        int matched = 0;
+        for (int query = 0; query < 2000; query++) {
+            String keyword = "line" + random.nextInt(measures.size());
+            RouteMeasure measure = measures.get(keyword);
+            // Near a random point of the path, often too far from it.
+            int point = random.nextInt(measure.getPath().size());
+            double latitude = measure.getPath().latitude(point) + (random.nextDouble() - 0.5) * 0.002;
+            double longitude = measure.getPath().longitude(point) + (random.nextDouble() - 0.5) * 0.002;
+            double expected = bruteForceOffset(measure.getPath(), latitude, longitude);
+            boolean found = matcher.match(keyword, latitude, longitude, match);
+            assertEquals(expected <= RouteMatcher.MAX_OFFSET_METERS, found);
+            if (found) {
+                matched++;
+                assertEquals(expected, match.offset, METERS_TOLERANCE);
+                assertSnapped(measure, latitude, longitude, match);
+            }
+        }
+        assertTrue(matched > 200);
+    }
+
+    @Test
+    public void matchIgnoresOtherLines() {
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        measures.put("a", new RouteMeasure(path(-35.0, 138.0, -35.0, 138.01), new Coordinates()));
+        measures.put("b", new RouteMeasure(path(-35.001, 138.0, -35.001, 138.01), new Coordinates()));
+        RouteMatcher matcher = RouteMatcher.build(measures);
+        RouteMatcher.Match match = new RouteMatcher.Match();
+        // About 11 meters from b and 100 meters from a.
+        assertFalse(matcher.match("a", -35.0009, 138.005, match));
+        assertTrue(matcher.match("b", -35.0009, 138.005, match));
+        assertEquals(0.0001 * METERS_PER_DEGREE, match.offset, 1e-6);
+        assertEquals(0, match.segment);
+        assertEquals(-35.001, match.latitude, 1e-12);
+        assertEquals(138.005, match.longitude, 1e-12);
+        assertEquals(90, match.bearing, 1e-3);
+    }
+
+    @Test
+    public void unknownAndShortLines() {
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        measures.put("point", new RouteMeasure(path(-35.0, 138.0), new Coordinates()));
+        RouteMatcher matcher = RouteMatcher.build(measures);
+        assertFalse(matcher.hasLine("point"));
+        assertFalse(matcher.hasLine("missing"));
+        assertFalse(matcher.match("point", -35.0, 138.0, new RouteMatcher.Match()));
+        RouteMatcher.Tracker tracker = matcher.newTracker("missing");
+        assertFalse(tracker.track(-35.0, 138.0));
+        assertEquals(-1, tracker.getMatch().segment);
+    }
+
+    @Test
+    public void trackerLikeBruteForce() {
+        Random random = new Random(2);
+        Coordinates path = randomWalk(random, 2000);
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        measures.put("a", new RouteMeasure(path, new Coordinates()));
+        RouteMatcher.Tracker tracker = RouteMatcher.build(measures).newTracker("a");
+        // A vehicle driving along the path with some GPS noise, now and then far from it.
+        for (int point = 0; point < path.size(); point++) {
+            double noise = point % 100 == 50 ? 0.01 : 0.0001;
+            double latitude = path.latitude(point) + (random.nextDouble() - 0.5) * noise;
+            double longitude = path.longitude(point) + (random.nextDouble() - 0.5) * noise;
+            double expected = bruteForceOffset(path, latitude, longitude);
+            boolean found = tracker.track(latitude, longitude);
+            assertEquals(expected <= RouteMatcher.MAX_OFFSET_METERS, found);
+            if (found) {
+                // Near the previous match the tracker may keep a slightly worse segment.
+                assertTrue(tracker.getMatch().offset <= Math.max(expected + METERS_TOLERANCE, 15));
+                assertSnapped(measures.get("a"), latitude, longitude, tracker.getMatch());
+            }
+        }
+    }
+
+    @Test
+    public void trackerLeavesThePassGoingTheOtherWay() {
+        // Out and back along the same street, 30 meters apart.
+        Coordinates path = path(-35.0, 138.0, -35.0, 138.01, -35.00027, 138.01, -35.00027, 138.0);
+        Map<String, RouteMeasure> measures = new LinkedHashMap<>();
+        measures.put("a", new RouteMeasure(path, new Coordinates()));
+        RouteMatcher.Tracker tracker = RouteMatcher.build(measures).newTracker("a");
+        assertTrue(tracker.track(-35.0, 138.005));
+        assertEquals(0, tracker.getMatch().segment);
+        // The vehicle is on the way back now, within the track window of its previous match.
+        assertTrue(tracker.track(-35.00027, 138.0049));
+        assertEquals(2, tracker.getMatch().segment);
+        assertEquals(0, tracker.getMatch().offset, 1e-6);
+    }
+
+    /**
+     * The snapped point is on the matched segment, at the distance along the path and the offset
+     * of the match.
+     */
+    private static void assertSnapped(RouteMeasure measure, double latitude, double longitude,
+                                      RouteMatcher.Match match) {
+        Coordinates path = measure.getPath();
+        int segment = match.segment;
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double dx = (match.longitude - longitude) * cosLat;
+        double dy = match.latitude - latitude;
+        assertEquals(match.offset, Math.sqrt(dx * dx + dy * dy) * METERS_PER_DEGREE, METERS_TOLERANCE);
+        double along = StopIndex.distanceMeters(path.latitude(segment), path.longitude(segment),
+                match.latitude, match.longitude);
+        assertEquals(measure.distanceAt(segment) + along, match.distanceAlong, 0.01);
+    }
+
+    /**
+     * Offset in meters to the nearest segment of a path, testing every segment.
+     */
+    private static double bruteForceOffset(Coordinates path, double latitude, double longitude) {
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < path.size() - 1; i++) {
+            double ax = (path.longitude(i) - longitude) * cosLat;
+            double ay = path.latitude(i) - latitude;
+            double dx = (path.longitude(i + 1) - longitude) * cosLat - ax;
+            double dy = path.latitude(i + 1) - latitude - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+            double px = ax + fraction * dx;
+            double py = ay + fraction * dy;
+            nearest = Math.min(nearest, Math.sqrt(px * px + py * py) * METERS_PER_DEGREE);
+        }
+        return nearest;
+    }
+
+    /**
+     * A random route of steps of up to about 100 meters, around Adelaide.
+     */
+    private static Coordinates randomWalk(Random random, int size) {
+        Coordinates path = new Coordinates(size);
+        double latitude = -34.9 + random.nextDouble() * 0.1;
+        double longitude = 138.5 + random.nextDouble() * 0.1;
+        for (int i = 0; i < size; i++) {
+            path.add(latitude, longitude);
+            latitude += (random.nextDouble() - 0.5) * 0.002;
+            longitude += (random.nextDouble() - 0.5) * 0.002;
+        }
+        return path;
+    }
+
+    private static Coordinates path(double... latLngs) {
+        Coordinates path = new Coordinates();
+        for (int i = 0; i < latLngs.length; i += 2) {
+            path.add(latLngs[i], latLngs[i + 1]);
+        }
+        return path;
+    }
+}
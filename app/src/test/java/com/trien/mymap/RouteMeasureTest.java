@@ -0,0 +1,124 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RouteMeasureTest {
+
+    private static final double METERS_TOLERANCE = 1e-6;
+
+    @Test
+    public void measuresSegments() {
+        Coordinates path = path(-35.0, 138.0, -35.0, 138.01, -35.01, 138.01);
+        RouteMeasure measure = new RouteMeasure(path, new Coordinates());
+        double first = StopIndex.distanceMeters(-35.0, 138.0, -35.0, 138.01);
+        double second = StopIndex.distanceMeters(-35.0, 138.01, -35.01, 138.01);
+        assertEquals(0, measure.distanceAt(0), 0);
+        assertEquals(first, measure.distanceAt(1), METERS_TOLERANCE);
+        assertEquals(first + second, measure.distanceAt(2), METERS_TOLERANCE);
+        assertEquals(first + second, measure.length(), METERS_TOLERANCE);
+        assertEquals(first + second / 4, measure.distanceAt(1, 0.25), METERS_TOLERANCE);
+    }
+
+    @Test
+    public void segmentAtClampsToThePath() {
+        RouteMeasure measure = new RouteMeasure(path(-35.0, 138.0, -35.0, 138.01, -35.01, 138.01),
+                new Coordinates());
+        assertEquals(0, measure.segmentAt(-10));
+        assertEquals(0, measure.segmentAt(0));
+        assertEquals(1, measure.segmentAt(measure.distanceAt(1)));
+        assertEquals(1, measure.segmentAt(measure.length()));
+        assertEquals(1, measure.segmentAt(measure.length() + 10));
+    }
+
+    @Test
+    public void interpolate() {
+        RouteMeasure measure = new RouteMeasure(path(-35.0, 138.0, -35.0, 138.01, -35.01, 138.01),
+                new Coordinates());
+        RouteMeasure.Position position = new RouteMeasure.Position();
+        assertTrue(measure.interpolate(measure.distanceAt(1) / 2, position));
+        assertEquals(0, position.segment);
+        assertEquals(-35.0, position.latitude, 1e-9);
+        assertEquals(138.005, position.longitude, 1e-9);
+        assertEquals(90, position.bearing, 1e-3);
+
+        assertTrue(measure.interpolate(measure.length() + 100, position));
+        assertEquals(1, position.segment);
+        assertEquals(-35.01, position.latitude, 1e-9);
+        assertEquals(138.01, position.longitude, 1e-9);
+        assertEquals(180, position.bearing, 1e-3);
+
+        assertTrue(measure.interpolate(-100, position));
+        assertEquals(-35.0, position.latitude, 1e-9);
+        assertEquals(138.0, position.longitude, 1e-9);
+    }
+
+    @Test
+    public void interpolateAcrossRepeatedPoints() {
+        RouteMeasure measure = new RouteMeasure(path(-35.0, 138.0, -35.0, 138.0, -35.0, 138.01),
+                new Coordinates());
+        RouteMeasure.Position position = new RouteMeasure.Position();
+        assertTrue(measure.interpolate(0, position));
+        assertEquals(-35.0, position.latitude, 1e-9);
+        assertEquals(138.0, position.longitude, 1e-9);
+        assertTrue(measure.interpolate(measure.length() / 2, position));
+        assertEquals(1, position.segment);
+        assertEquals(138.005, position.longitude, 1e-9);
+    }
+
+    @Test
+    public void shortPaths() {
+        RouteMeasure.Position position = new RouteMeasure.Position();
+        RouteMeasure empty = new RouteMeasure(new Coordinates(), path(-35.0, 138.0));
+        assertEquals(0, empty.length(), 0);
+        assertFalse(empty.interpolate(0, position));
+        assertEquals(0, empty.stopDistance(0), 0);
+        RouteMeasure point = new RouteMeasure(path(-35.0, 138.0), new Coordinates());
+        assertEquals(0, point.length(), 0);
+        assertFalse(point.interpolate(0, position));
+    }
+
+    @Test
+    public void locatesStops() {
+        Coordinates path = path(-35.0, 138.0, -35.0, 138.01, -35.01, 138.01);
+        // Beside the middle of the first segment, past the end, and beside the second segment.
+        Coordinates stops = path(-35.0001, 138.005, -35.02, 138.02, -35.005, 138.0101);
+        RouteMeasure measure = new RouteMeasure(path, stops);
+        assertEquals(3, measure.getStopCount());
+        assertEquals(measure.distanceAt(0, 0.5), measure.stopDistance(0), 0.01);
+        assertEquals(measure.length(), measure.stopDistance(1), METERS_TOLERANCE);
+        assertEquals(measure.distanceAt(1, 0.5), measure.stopDistance(2), 0.01);
+        assertEquals(measure.stopDistance(2) - measure.stopDistance(0), measure.distanceBetweenStops(0, 2), 0);
+        assertTrue(measure.distanceBetweenStops(2, 0) < 0);
+    }
+
+    @Test
+    public void locatesStopsOnTheNearerPass() {
+        // Out and back along the same street, 30 meters apart, with a stop on either side.
+        Coordinates path = path(-35.0, 138.0, -35.0, 138.01, -35.00027, 138.01, -35.00027, 138.0);
+        Coordinates stops = path(-35.00002, 138.005, -35.00025, 138.005);
+        RouteMeasure measure = new RouteMeasure(path, stops);
+        assertEquals(measure.distanceAt(0, 0.5), measure.stopDistance(0), 0.01);
+        assertEquals(measure.distanceAt(2, 0.5), measure.stopDistance(1), 0.01);
+    }
+
+    @Test
+    public void bearing() {
+        assertEquals(0, RouteMeasure.bearing(1, 0), 0);
+        assertEquals(90, RouteMeasure.bearing(0, 1), 1e-6);
+        assertEquals(180, RouteMeasure.bearing(-1, 0), 1e-6);
+        assertEquals(270, RouteMeasure.bearing(0, -1), 1e-6);
+        assertEquals(315, RouteMeasure.bearing(1, -1), 1e-4);
+    }
+
+    private static Coordinates path(double... latLngs) {
+        Coordinates path = new Coordinates();
+        for (int i = 0; i < latLngs.length; i += 2) {
+            path.add(latLngs[i], latLngs[i + 1]);
+        }
+        return path;
+    }
+}
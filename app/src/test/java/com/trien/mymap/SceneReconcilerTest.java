@@ -0,0 +1,170 @@
+package com.trien.mymap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SceneReconcilerTest {
+
+    private static final double[] PATH = {
+            -35.0, 138.0, -35.1, 138.1, -35.2, 138.2, -35.3, 138.3, -35.4, 138.4, -35.5, 138.5};
+
+    @Test
+    public void unchangedScene() {
+        RouteScene scene = scene(line("a", 1, PATH), marker("s", -35.0, 138.0));
+        RouteScene same = scene(line("a", 1, PATH), marker("s", -35.0, 138.0));
+        assertTrue(SceneReconciler.changedRegions(scene, same).isEmpty());
+    }
+
+    @Test
+    public void firstScene() {
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(null,
+                scene(line("a", 1, PATH), marker("s", -36.0, 139.0)));
+        assertEquals(2, regions.size());
+        assertRegion(regions.get(0), -35.5, 138.0, -35.0, 138.5);
+        assertRegion(regions.get(1), -36.0, 139.0, -36.0, 139.0);
+    }
+
+    @Test
+    public void addedLine() {
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(scene(line("a", 1, PATH)),
+                scene(line("a", 1, PATH), line("b", 1, -36.0, 139.0, -36.2, 139.1)));
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -36.2, 139.0, -36.0, 139.1);
+    }
+
+    @Test
+    public void removedLine() {
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(
+                scene(line("a", 1, PATH), line("b", 1, -36.0, 139.0, -36.2, 139.1)), scene(line("a", 1, PATH)));
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -36.2, 139.0, -36.0, 139.1);
+    }
+
+    @Test
+    public void movedLine() {
+        // A detour moving the third point: only the segments around it changed.
+        double[] detour = PATH.clone();
+        detour[4] = -35.25;
+        detour[5] = 138.15;
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(scene(line("a", 1, PATH)),
+                scene(line("a", 1, detour)));
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -35.3, 138.1, -35.1, 138.3);
+    }
+
+    @Test
+    public void extendedLine() {
+        double[] extended = new double[PATH.length + 2];
+        System.arraycopy(PATH, 0, extended, 0, PATH.length);
+        extended[PATH.length] = -35.6;
+        extended[PATH.length + 1] = 138.7;
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(scene(line("a", 1, PATH)),
+                scene(line("a", 1, extended)));
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -35.6, 138.5, -35.5, 138.7);
+    }
+
+    @Test
+    public void restyledLine() {
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(scene(line("a", 1, PATH)),
+                scene(line("a", 2, PATH)));
+        assertEquals(2, regions.size());
+        assertRegion(regions.get(0), -35.5, 138.0, -35.0, 138.5);
+        assertRegion(regions.get(1), -35.5, 138.0, -35.0, 138.5);
+    }
+
+    @Test
+    public void addedMovedAndRemovedMarkers() {
+        RouteScene from = scene(marker("kept", -35.0, 138.0), marker("moved", -35.1, 138.1),
+                marker("removed", -35.2, 138.2));
+        RouteScene to = scene(marker("kept", -35.0, 138.0), marker("moved", -35.15, 138.15),
+                marker("added", -35.3, 138.3));
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(from, to);
+        assertEquals(4, regions.size());
+        assertRegion(regions.get(0), -35.15, 138.15, -35.15, 138.15);
+        assertRegion(regions.get(1), -35.1, 138.1, -35.1, 138.1);
+        assertRegion(regions.get(2), -35.3, 138.3, -35.3, 138.3);
+        assertRegion(regions.get(3), -35.2, 138.2, -35.2, 138.2);
+    }
+
+    @Test
+    public void insertedStop() {
+        // A stop added at the top of stops.txt, and one added to a line of polylines.csv without stop ids.
+        RouteScene from = scene(stops(stopLine(new String[]{"s1", "s2", "s3"},
+                -35.1, 138.1, -35.2, 138.2, -35.3, 138.3)));
+        RouteScene to = scene(stops(stopLine(new String[]{"s0", "s1", "s2", "s3"},
+                -35.0, 138.0, -35.1, 138.1, -35.2, 138.2, -35.3, 138.3)));
+        List<LatLngBounds> regions = SceneReconciler.changedRegions(from, to);
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -35.0, 138.0, -35.0, 138.0);
+
+        from = scene(stops(stopLine(null, -35.1, 138.1, -35.2, 138.2)));
+        to = scene(stops(stopLine(null, -35.0, 138.0, -35.1, 138.1, -35.2, 138.2)));
+        regions = SceneReconciler.changedRegions(from, to);
+        assertEquals(1, regions.size());
+        assertRegion(regions.get(0), -35.0, 138.0, -35.0, 138.0);
+    }
+
+    private static RouteScene scene(Object... specs) {
+        RouteScene.Builder builder = new RouteScene.Builder();
+        for (Object spec : specs) {
+            if (spec instanceof RouteScene.PolylineSpec) {
+                builder.addPolyline((RouteScene.PolylineSpec) spec);
+            } else {
+                builder.addMarker((RouteScene.MarkerSpec) spec);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * A line of stops only, with the given stop ids or none.
+     */
+    private static RouteDataset.Line stopLine(String[] stopIds, double... latLngs) {
+        Coordinates stops = new Coordinates();
+        for (int i = 0; i < latLngs.length; i += 2) {
+            stops.add(latLngs[i], latLngs[i + 1]);
+        }
+        return new RouteDataset.Line("stops", LineStyle.DEFAULT, new Coordinates(0), stops,
+                new String[stops.size()], stopIds);
+    }
+
+    /**
+     * The stop markers of a line, with the ids the scene loader gives them.
+     */
+    private static Object[] stops(RouteDataset.Line line) {
+        Object[] markers = new Object[line.getMarkers().size()];
+        for (int i = 0; i < markers.length; i++) {
+            markers[i] = marker("stop/" + line.getMarkerId(i), line.getMarkers().latitude(i),
+                    line.getMarkers().longitude(i));
+        }
+        return markers;
+    }
+
+    private static RouteScene.PolylineSpec line(String id, int color, double... latLngs) {
+        Coordinates path = new Coordinates();
+        for (int i = 0; i < latLngs.length; i += 2) {
+            path.add(latLngs[i], latLngs[i + 1]);
+        }
+        return new RouteScene.PolylineSpec(id, color, LineStyle.DEFAULT_WIDTH, 0,
+                new RouteLevelOfDetail.Route(path, new Coordinates()));
+    }
+
+    private static RouteScene.MarkerSpec marker(String id, double latitude, double longitude) {
+        return new RouteScene.MarkerSpec(id, new LatLng(latitude, longitude), null, 0.5f, 1f);
+    }
+
+    private static void assertRegion(LatLngBounds region, double south, double west, double north, double east) {
+        assertEquals(south, region.southwest.latitude, 1e-7);
+        assertEquals(west, region.southwest.longitude, 1e-7);
+        assertEquals(north, region.northeast.latitude, 1e-7);
+        assertEquals(east, region.northeast.longitude, 1e-7);
+    }
+}
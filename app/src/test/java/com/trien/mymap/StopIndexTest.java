@@ -0,0 +1,166 @@
+package com.trien.mymap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StopIndexTest {
+
+    private static final double METERS_TOLERANCE = 1e-3;
+
+    @Test
+    public void distanceMeters() {
+        assertEquals(0, StopIndex.distanceMeters(-35.5, 138.6, -35.5, 138.6), 0);
+        // A degree of latitude, and half the equator.
+        assertEquals(Math.toRadians(1) * PolylineSimplifier.EARTH_RADIUS,
+                StopIndex.distanceMeters(10, 20, 11, 20), METERS_TOLERANCE);
+        assertEquals(Math.PI * PolylineSimplifier.EARTH_RADIUS,
+                StopIndex.distanceMeters(0, -90, 0, 90), METERS_TOLERANCE);
+    }
+
+    @Test
+    public void emptyIndex() {
+        StopIndex index = index(new Coordinates());
+        assertEquals(-1, index.nearest(-35.5, 138.6));
+        assertEquals(0, index.nearest(-35.5, 138.6, 3, new int[3], new double[3]));
+        index.withinRadius(-35.5, 138.6, 1e7, new StopIndex.Visitor() {
+            @Override
+            public void visit(int stop, double meters) {
+                throw new AssertionError();
+            }
+        });
+    }
+
+    @Test
+    public void nearestLikeBruteForce() {
+        Random random = new Random(1);
+        Coordinates stops = randomPoints(random, 2000, -35.8, 138.3, 0.6);
+        StopIndex index = index(stops);
+        for (int query = 0; query < 500; query++) {
+            double latitude = -35.9 + random.nextDouble() * 0.8;
+            double longitude = 138.2 + random.nextDouble() * 0.8;
+            int nearest = index.nearest(latitude, longitude);
+            assertEquals((int) sortedByDistance(stops, latitude, longitude)[0], nearest);
+        }
+    }
+
+    @Test
+    public void nearestKLikeBruteForce() {
+        Random random = new Random(2);
+        Coordinates stops = randomPoints(random, 2000, -35.8, 138.3, 0.6);
+        StopIndex index = index(stops);
+        for (int k : new int[]{1, 2, 8, 50}) {
+            int[] found = new int[k];
+            double[] meters = new double[k];
+            for (int query = 0; query < 100; query++) {
+                double latitude = -35.9 + random.nextDouble() * 0.8;
+                double longitude = 138.2 + random.nextDouble() * 0.8;
+                assertEquals(k, index.nearest(latitude, longitude, k, found, meters));
+                Integer[] expected = sortedByDistance(stops, latitude, longitude);
+                for (int i = 0; i < k; i++) {
+                    assertEquals((int) expected[i], found[i]);
+                    assertEquals(StopIndex.distanceMeters(latitude, longitude,
+                            stops.latitude(found[i]), stops.longitude(found[i])), meters[i], METERS_TOLERANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestKWithFewerStops() {
+        Coordinates stops = randomPoints(new Random(3), 3, -35.8, 138.3, 0.6);
+        int[] found = new int[5];
+        double[] meters = new double[5];
+        assertEquals(3, index(stops).nearest(-35.5, 138.6, 5, found, meters));
+        assertArrayEquals(sortedByDistance(stops, -35.5, 138.6),
+                new Integer[]{found[0], found[1], found[2]});
+        assertTrue(meters[0] <= meters[1] && meters[1] <= meters[2]);
+    }
+
+    @Test
+    public void withinRadiusLikeBruteForce() {
+        Random random = new Random(4);
+        final Coordinates stops = randomPoints(random, 2000, -35.8, 138.3, 0.6);
+        StopIndex index = index(stops);
+        for (double radius : new double[]{0, 100, 1000, 10000}) {
+            for (int query = 0; query < 50; query++) {
+                final double latitude = -35.9 + random.nextDouble() * 0.8;
+                final double longitude = 138.2 + random.nextDouble() * 0.8;
+                final boolean[] found = new boolean[stops.size()];
+                index.withinRadius(latitude, longitude, radius, new StopIndex.Visitor() {
+                    @Override
+                    public void visit(int stop, double meters) {
+                        assertEquals(false, found[stop]);
+                        found[stop] = true;
+                        assertEquals(StopIndex.distanceMeters(latitude, longitude,
+                                stops.latitude(stop), stops.longitude(stop)), meters, METERS_TOLERANCE);
+                    }
+                });
+                for (int stop = 0; stop < stops.size(); stop++) {
+                    double meters = StopIndex.distanceMeters(latitude, longitude,
+                            stops.latitude(stop), stops.longitude(stop));
+                    // Stops right at the radius may go either way.
+                    if (Math.abs(meters - radius) > METERS_TOLERANCE) {
+                        assertEquals(meters < radius, found[stop]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nearestAcrossAntimeridianAndPoles() {
+        Coordinates stops = new Coordinates();
+        stops.add(0.0, 179.9);
+        stops.add(0.0, 170.0);
+        stops.add(89.9, 0.0);
+        stops.add(-10.0, -100.0);
+        StopIndex index = index(stops);
+        // Nearer across longitude 180 than in degrees.
+        assertEquals(0, index.nearest(0, -179.9));
+        // Near the pole every longitude is close.
+        assertEquals(2, index.nearest(89.9, 180));
+    }
+
+    private static StopIndex index(Coordinates stops) {
+        String[] names = new String[stops.size()];
+        Arrays.fill(names, "");
+        return StopIndex.build(new RouteDataset(Collections.singletonMap(GtfsImporter.STOPS_KEYWORD,
+                new RouteDataset.Line(GtfsImporter.STOPS_KEYWORD, LineStyle.DEFAULT, new Coordinates(0),
+                        stops, names))));
+    }
+
+    private static Coordinates randomPoints(Random random, int count, double south, double west, double size) {
+        Coordinates points = new Coordinates(count);
+        for (int i = 0; i < count; i++) {
+            points.add(south + random.nextDouble() * size, west + random.nextDouble() * size);
+        }
+        return points;
+    }
+
+    /**
+     * Every stop, nearest first, by measuring the distance to all of them.
+     */
+    private static Integer[] sortedByDistance(final Coordinates stops, final double latitude,
+                                              final double longitude) {
+        Integer[] order = new Integer[stops.size()];
+        final double[] meters = new double[stops.size()];
+        for (int i = 0; i < stops.size(); i++) {
+            order[i] = i;
+            meters[i] = StopIndex.distanceMeters(latitude, longitude, stops.latitude(i), stops.longitude(i));
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(meters[a], meters[b]);
+            }
+        });
+        return order;
+    }
+}
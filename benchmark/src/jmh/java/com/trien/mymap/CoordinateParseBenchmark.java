@@ -0,0 +1,48 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing latLngPoint rows: splitting every row into LatLng objects against the indexOf based
+ * parsing of {@link RouteDataset} into primitive coordinates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CoordinateParseBenchmark {
+
+    private static final String LINE_KEYWORD = "lineBlue";
+
+    @Param({"100", "1000", "10000"})
+    public int rowCount;
+
+    private String mCsv;
+
+    @Setup
+    public void setUp() {
+        mCsv = RouteDataGenerator.generateLatLngPointCsv(LINE_KEYWORD, rowCount, 7);
+    }
+
+    @Benchmark
+    public List<ReferencePolylineDecoder.LatLng> split() throws IOException {
+        return LegacyRouteCsvParser.readPolyLinePointsFromCSV(mCsv, LINE_KEYWORD);
+    }
+
+    @Benchmark
+    public Coordinates indexOf() throws IOException {
+        return RouteDataset.parse(new BufferedReader(new StringReader(mCsv))).getLine(LINE_KEYWORD).getPath();
+    }
+}
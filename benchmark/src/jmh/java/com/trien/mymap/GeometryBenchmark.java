@@ -0,0 +1,124 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path simplification and measurement, direction arrow placement and viewport queries, the geometry
+ * work of the scene build and of every camera change.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class GeometryBenchmark {
+
+    /**
+     * Simplification tolerances in meters of the zoomed out and zoomed in tiers.
+     */
+    private static final double COARSE_TOLERANCE = 60;
+    private static final double FINE_TOLERANCE = 4;
+
+    /**
+     * Size of the queried viewport, in degrees, about a city block at zoom 15.
+     */
+    private static final double VIEWPORT_DEGREES = 0.02;
+
+    @Param({"1000", "10000", "100000"})
+    public int pointCount;
+
+    private Coordinates mPath;
+    private RouteMeasure mMeasure;
+    private final RouteMeasure.Position mPosition = new RouteMeasure.Position();
+    private double mDistance;
+    private Coordinates mPoints;
+    private GridIndex mIndex;
+    private double mSouth;
+    private double mWest;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(11);
+        mPath = RouteDataGenerator.generatePath(pointCount, random);
+        mMeasure = new RouteMeasure(mPath, new Coordinates(0));
+        mPoints = RouteDataGenerator.generatePoints(pointCount, random);
+        mIndex = new GridIndex(mPoints);
+        mSouth = mPoints.latitude(0) - VIEWPORT_DEGREES / 2;
+        mWest = mPoints.longitude(0) - VIEWPORT_DEGREES / 2;
+    }
+
+    @Benchmark
+    public Coordinates simplifyCoarse() {
+        return PolylineSimplifier.simplify(mPath, COARSE_TOLERANCE);
+    }
+
+    @Benchmark
+    public Coordinates simplifyFine() {
+        return PolylineSimplifier.simplify(mPath, FINE_TOLERANCE);
+    }
+
+    @Benchmark
+    public RouteMeasure measurePath() {
+        return new RouteMeasure(mPath, new Coordinates(0));
+    }
+
+    /**
+     * Finding the position at a distance along the path, stepping by a bit more than an arrow spacing.
+     */
+    @Benchmark
+    public boolean interpolateAlongPath() {
+        mDistance += DirectionArrows.FINEST_SPACING_METERS + 1;
+        if (mDistance > mMeasure.length()) {
+            mDistance = 0;
+        }
+        return mMeasure.interpolate(mDistance, mPosition);
+    }
+
+    @Benchmark
+    public DirectionArrows placeDirectionArrows() {
+        return DirectionArrows.place(mMeasure);
+    }
+
+    @Benchmark
+    public GridIndex buildGridIndex() {
+        return new GridIndex(mPoints);
+    }
+
+    @Benchmark
+    public int queryGridIndex() {
+        final int[] count = new int[1];
+        mIndex.query(mSouth, mWest, mSouth + VIEWPORT_DEGREES, mWest + VIEWPORT_DEGREES, new GridIndex.Visitor() {
+            @Override
+            public void visit(int id) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Testing every point against the viewport, the baseline of the grid index.
+     */
+    @Benchmark
+    public int queryLinearScan() {
+        int count = 0;
+        double north = mSouth + VIEWPORT_DEGREES;
+        double east = mWest + VIEWPORT_DEGREES;
+        for (int i = 0; i < mPoints.size(); i++) {
+            double latitude = mPoints.latitude(i);
+            double longitude = mPoints.longitude(i);
+            if (latitude >= mSouth && latitude <= north && longitude >= mWest && longitude <= east) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,54 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+/**
+ * Importing GTFS feeds of growing sizes, streamed out of the zip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class GtfsImportBenchmark {
+
+    private static final int POINTS_PER_SHAPE = 1000;
+
+    @Param({"10", "100", "1000"})
+    public int routeCount;
+
+    private File mFeed;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFeed = File.createTempFile("gtfs", ".zip");
+        RouteDataGenerator.writeGtfsFeed(mFeed, routeCount, POINTS_PER_SHAPE, RouteCsvParseBenchmark.SEED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFeed.delete();
+    }
+
+    @Benchmark
+    public RouteDataset importFeed() throws IOException {
+        ZipFile zip = new ZipFile(mFeed);
+        try {
+            return GtfsImporter.read(zip, LineStyle.DEFAULT_WIDTH, LineStyle.DEFAULT);
+        } finally {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placing every label of a dense set of points of interest, against testing each label against
+ * every placed one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LabelPlacerBenchmark {
+
+    /**
+     * World size in pixels of zoom 12 on a screen of density 2, the whole sample area in view.
+     */
+    private static final double WORLD_SIZE = 256 * 2 * Math.pow(2, 12);
+
+    private static final float PADDING = 4;
+
+    @Param({"1000", "5000"})
+    public int labelCount;
+
+    private LabelPlacer mPlacer;
+    private int[] mLabels;
+    private double[] mX;
+    private double[] mY;
+    private int[] mWidths;
+    private int[] mHeights;
+    private int[] mPriorities;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(RouteCsvParseBenchmark.SEED);
+        Coordinates points = RouteDataGenerator.generatePoints(labelCount, random);
+        mX = new double[labelCount];
+        mY = new double[labelCount];
+        mWidths = new int[labelCount];
+        mHeights = new int[labelCount];
+        float[] anchorU = new float[labelCount];
+        float[] anchorV = new float[labelCount];
+        mPriorities = new int[labelCount];
+        mLabels = new int[labelCount];
+        for (int i = 0; i < labelCount; i++) {
+            mX[i] = (points.longitude(i) + 180) / 360;
+            double sin = Math.sin(Math.toRadians(points.latitude(i)));
+            mY[i] = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+            // Label images of one or two lines of text.
+            mWidths[i] = 80 + random.nextInt(160);
+            mHeights[i] = 40 + random.nextInt(2) * 40;
+            anchorU[i] = 0.5f;
+            anchorV[i] = 1f;
+            mPriorities[i] = random.nextInt(3);
+            mLabels[i] = i;
+        }
+        mPlacer = new LabelPlacer(mX, mY, mWidths, mHeights, anchorU, anchorV, mPriorities, PADDING);
+        mPlacer.setCamera(WORLD_SIZE, 0);
+    }
+
+    /**
+     * Placing every label after a zoom change.
+     */
+    @Benchmark
+    public int place() {
+        mPlacer.reset();
+        mPlacer.place(mLabels, labelCount);
+        return mPlacer.getAnchor(labelCount - 1);
+    }
+
+    /**
+     * The same placement with every box tested against all the boxes placed before it, the
+     * baseline of the grid.
+     */
+    @Benchmark
+    public int placePairwise() {
+        long[] order = new long[labelCount];
+        for (int i = 0; i < labelCount; i++) {
+            order[i] = ((long) -mPriorities[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        double[] boxes = new double[labelCount * 4];
+        int placed = 0;
+        for (long entry : order) {
+            int label = (int) entry;
+            double x = mX[label] * WORLD_SIZE;
+            double y = mY[label] * WORLD_SIZE;
+            for (int anchor = 0; anchor < LabelPlacer.ANCHOR_COUNT; anchor++) {
+                double left = x - mPlacer.anchorU(label, anchor) * mWidths[label] - PADDING;
+                double top = y - mPlacer.anchorV(label, anchor) * mHeights[label] - PADDING;
+                double right = left + mWidths[label] + 2 * PADDING;
+                double bottom = top + mHeights[label] + 2 * PADDING;
+                boolean collides = false;
+                for (int i = 0; i < placed * 4 && !collides; i += 4) {
+                    collides = left < boxes[i + 2] && right > boxes[i] && top < boxes[i + 3] && bottom > boxes[i + 1];
+                }
+                if (!collides) {
+                    boxes[placed * 4] = left;
+                    boxes[placed * 4 + 1] = top;
+                    boxes[placed * 4 + 2] = right;
+                    boxes[placed * 4 + 3] = bottom;
+                    placed++;
+                    break;
+                }
+            }
+        }
+        return placed;
+    }
+}
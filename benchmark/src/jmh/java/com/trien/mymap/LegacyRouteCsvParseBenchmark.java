@@ -0,0 +1,42 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The split based scans the app used before {@link RouteDataset}, on the same data as
+ * {@link RouteCsvParseBenchmark}. They rescan the data for every line and row kind, which is
+ * quadratic in the number of lines, so they only run up to 500 lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class LegacyRouteCsvParseBenchmark {
+
+    @Param({"5", "50", "500"})
+    public int lineCount;
+
+    private String mCsv;
+    private List<String> mLineKeywords;
+
+    @Setup
+    public void setUp() {
+        mCsv = RouteDataGenerator.generateCsv(lineCount, RouteCsvParseBenchmark.SEED);
+        mLineKeywords = RouteDataGenerator.lineKeywords(lineCount);
+    }
+
+    @Benchmark
+    public int readAll() throws IOException {
+        return LegacyRouteCsvParser.readAll(mCsv, mLineKeywords);
+    }
+}
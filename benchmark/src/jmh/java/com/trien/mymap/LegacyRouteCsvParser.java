@@ -0,0 +1,74 @@
+package com.trien.mymap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The polylines.csv reading of the app before {@link RouteDataset}: the whole file is scanned and
+ * every row split once per line keyword and per row kind, and paths are decoded with PolyUtil.
+ * Kept as the baseline of the parsing benchmarks, without the per-row debug logging it also had.
+ */
+final class LegacyRouteCsvParser {
+
+    private LegacyRouteCsvParser() {
+    }
+
+    /**
+     * Read the encoded path and the markers of every line, as MapsActivity did.
+     */
+    static int readAll(String csv, List<String> lineKeywords) throws IOException {
+        int count = 0;
+        for (String lineKeyword : lineKeywords) {
+            count += readEncodedPolyLinePointsFromCSV(csv, lineKeyword).size();
+            count += readMarkersFromCSV(csv, lineKeyword).size();
+        }
+        return count;
+    }
+
+    static List<ReferencePolylineDecoder.LatLng> readEncodedPolyLinePointsFromCSV(String csv, String lineKeyword)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(csv));
+        String line;
+        List<ReferencePolylineDecoder.LatLng> latLngList = new ArrayList<>();
+        while ((line = reader.readLine()) != null) {
+            String[] tokens = line.split(",");
+            if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(RouteDataset.ENCODED_POINTS)) {
+                latLngList.addAll(ReferencePolylineDecoder.decode(tokens[2].trim().replace("\\\\", "\\")));
+            }
+        }
+        return latLngList;
+    }
+
+    static List<ReferencePolylineDecoder.LatLng> readPolyLinePointsFromCSV(String csv, String lineKeyword)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(csv));
+        String line;
+        List<ReferencePolylineDecoder.LatLng> latLngList = new ArrayList<>();
+        while ((line = reader.readLine()) != null) {
+            String[] tokens = line.split(",");
+            if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(RouteDataset.LAT_LNG_POINT)) {
+                latLngList.add(new ReferencePolylineDecoder.LatLng(
+                        Double.parseDouble(tokens[2].trim()), Double.parseDouble(tokens[3].trim())));
+            }
+        }
+        return latLngList;
+    }
+
+    static List<ReferencePolylineDecoder.LatLng> readMarkersFromCSV(String csv, String lineKeyword)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(csv));
+        String line;
+        List<ReferencePolylineDecoder.LatLng> latLngList = new ArrayList<>();
+        while ((line = reader.readLine()) != null) {
+            String[] tokens = line.split(",");
+            if (tokens[0].trim().equals(lineKeyword) && tokens[1].trim().equals(RouteDataset.MARKER)) {
+                latLngList.add(new ReferencePolylineDecoder.LatLng(
+                        Double.parseDouble(tokens[2].trim()), Double.parseDouble(tokens[3].trim())));
+            }
+        }
+        return latLngList;
+    }
+}
@@ -0,0 +1,55 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding encoded paths: {@link PolylineCodec} into primitive coordinates, into a new or a
+ * reused buffer, against the PolyUtil.decode algorithm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PolylineDecodeBenchmark {
+
+    @Param({"10", "250", "5000"})
+    public int pointCount;
+
+    private String mEncoded;
+    private Coordinates mReused;
+
+    @Setup
+    public void setUp() {
+        mEncoded = PolylineCodec.encode(RouteDataGenerator.generatePath(pointCount, new Random(3)));
+        mReused = new Coordinates(pointCount);
+    }
+
+    @Benchmark
+    public List<ReferencePolylineDecoder.LatLng> polyUtil() {
+        return ReferencePolylineDecoder.decode(mEncoded);
+    }
+
+    @Benchmark
+    public Coordinates polylineCodec() {
+        Coordinates out = new Coordinates();
+        PolylineCodec.decode(mEncoded, out);
+        return out;
+    }
+
+    @Benchmark
+    public Coordinates polylineCodecReused() {
+        mReused.clear();
+        PolylineCodec.decode(mEncoded, mReused);
+        return mReused;
+    }
+}
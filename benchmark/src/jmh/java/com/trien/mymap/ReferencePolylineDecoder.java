@@ -0,0 +1,62 @@
+package com.trien.mymap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The encoded path decoding of android-maps-utils PolyUtil.decode(), which the app used before
+ * {@link PolylineCodec}. The library is an Android archive that cannot run on a plain JVM, so its
+ * algorithm is reproduced here as is: one LatLng object allocated per point, in a growing list.
+ */
+final class ReferencePolylineDecoder {
+
+    private ReferencePolylineDecoder() {
+    }
+
+    static List<LatLng> decode(final String encodedPath) {
+        int len = encodedPath.length();
+
+        final List<LatLng> path = new ArrayList<LatLng>();
+        int index = 0;
+        int lat = 0;
+        int lng = 0;
+
+        while (index < len) {
+            int result = 1;
+            int shift = 0;
+            int b;
+            do {
+                b = encodedPath.charAt(index++) - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f);
+            lat += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            result = 1;
+            shift = 0;
+            do {
+                b = encodedPath.charAt(index++) - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f);
+            lng += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            path.add(new LatLng(lat * 1e-5, lng * 1e-5));
+        }
+
+        return path;
+    }
+
+    /**
+     * Stand-in for the Maps SDK LatLng, an immutable pair of doubles.
+     */
+    static final class LatLng {
+        final double latitude;
+        final double longitude;
+
+        LatLng(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading polylines.csv shaped data of growing network sizes.
+ * The legacy scans are benchmarked on the same data by {@link LegacyRouteCsvParseBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RouteCsvParseBenchmark {
+
+    static final long SEED = 42;
+
+    @Param({"5", "50", "500", "5000"})
+    public int lineCount;
+
+    private String mCsv;
+
+    @Setup
+    public void setUp() {
+        mCsv = RouteDataGenerator.generateCsv(lineCount, SEED);
+    }
+
+    /**
+     * Single pass parse only, paths stay encoded.
+     */
+    @Benchmark
+    public RouteDataset parse() throws IOException {
+        return RouteDataset.parse(new BufferedReader(new StringReader(mCsv)));
+    }
+
+    /**
+     * Single pass parse, then decode every path, which is what a full scene load needs.
+     */
+    @Benchmark
+    public void parseAndDecode(Blackhole blackhole) throws IOException {
+        RouteDataset dataset = RouteDataset.parse(new BufferedReader(new StringReader(mCsv)));
+        for (RouteDataset.Line line : dataset.getLines()) {
+            blackhole.consume(line.getPath());
+            blackhole.consume(line.getMarkers());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.trien.mymap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic route data shaped like polylines.csv or like a GTFS feed, from a handful of
+ * lines up to a whole network. Paths are random walks around the sample area with the same point spacing as the
+ * Directions API paths of the sample data. The output only depends on the seed.
+ */
+final class RouteDataGenerator {
+
+    /**
+     * Center of the generated network, the sample data area.
+     */
+    private static final double CENTER_LATITUDE = -35.55;
+    private static final double CENTER_LONGITUDE = 138.65;
+
+    /**
+     * Spread of the line start points around the center, in degrees.
+     */
+    private static final double SPREAD_DEGREES = 0.5;
+
+    /**
+     * Largest step between two path points, in degrees (about 50 meters).
+     */
+    private static final double MAX_STEP_DEGREES = 0.0005;
+
+    static final int PATH_POINTS_PER_LINE = 250;
+    static final int MARKERS_PER_LINE = 12;
+
+    /**
+     * Every n-th line also has its path as latLngPoint rows, like the blue line of the sample data.
+     */
+    private static final int LAT_LNG_POINT_LINE_INTERVAL = 5;
+    private static final int LAT_LNG_POINTS_PER_LINE = 50;
+
+    private RouteDataGenerator() {
+    }
+
+    static String lineKeyword(int line) {
+        return "line" + line;
+    }
+
+    static List<String> lineKeywords(int lineCount) {
+        List<String> keywords = new ArrayList<>(lineCount);
+        for (int line = 0; line < lineCount; line++) {
+            keywords.add(lineKeyword(line));
+        }
+        return keywords;
+    }
+
+    /**
+     * Generate polylines.csv content with the given number of lines.
+     */
+    static String generateCsv(int lineCount, long seed) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder(lineCount * (PATH_POINTS_PER_LINE * 6 + MARKERS_PER_LINE * 48));
+        csv.append("// note: synthetic route data, ").append(lineCount).append(" lines.\n");
+        for (int line = 0; line < lineCount; line++) {
+            String keyword = lineKeyword(line);
+            Coordinates path = generatePath(PATH_POINTS_PER_LINE, random);
+
+            csv.append(keyword).append(", ").append(RouteDataset.STYLE)
+                    .append(", colorPolyLineBlue, marker_blue_light, arrow_blue, 20, ").append(line).append('\n');
+
+            for (int marker = 0; marker < MARKERS_PER_LINE; marker++) {
+                int point = marker * (PATH_POINTS_PER_LINE - 1) / (MARKERS_PER_LINE - 1);
+                csv.append(keyword).append(", ").append(RouteDataset.MARKER).append(", ")
+                        .append(path.latitude(point)).append(", ").append(path.longitude(point))
+                        .append(", Stop ").append(marker).append('\n');
+            }
+
+            // Backslashes are escaped in polylines.csv.
+            csv.append(keyword).append(", ").append(RouteDataset.ENCODED_POINTS).append(", ")
+                    .append(PolylineCodec.encode(path).replace("\\", "\\\\")).append('\n');
+
+            if (line % LAT_LNG_POINT_LINE_INTERVAL == 0) {
+                for (int point = 0; point < LAT_LNG_POINTS_PER_LINE; point++) {
+                    csv.append(keyword).append(", ").append(RouteDataset.LAT_LNG_POINT).append(", ")
+                            .append(path.latitude(point)).append(", ").append(path.longitude(point))
+                            .append('\n');
+                }
+            }
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Write a GTFS zip with the given number of routes, one shape and one trip per route and
+     * pointsPerShape points per shape, listed shape by shape as feeds do.
+     */
+    static void writeGtfsFeed(File file, int routeCount, int pointsPerShape, long seed) throws IOException {
+        Random random = new Random(seed);
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        Writer out = new OutputStreamWriter(zip, Charset.forName("UTF-8"));
+        try {
+            zip.putNextEntry(new ZipEntry(GtfsImporter.ROUTES));
+            out.write("route_id,route_short_name,route_type,route_color\n");
+            for (int route = 0; route < routeCount; route++) {
+                out.write("R" + route + "," + route + ",3," + String.format("%06X", random.nextInt(0x1000000)) + "\n");
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry(GtfsImporter.TRIPS));
+            out.write("route_id,service_id,trip_id,shape_id\n");
+            for (int route = 0; route < routeCount; route++) {
+                out.write("R" + route + ",weekday,T" + route + ",S" + route + "\n");
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry(GtfsImporter.SHAPES));
+            out.write("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n");
+            for (int route = 0; route < routeCount; route++) {
+                Coordinates path = generatePath(pointsPerShape, random);
+                for (int point = 0; point < pointsPerShape; point++) {
+                    out.write("S" + route + "," + path.latitude(point) + "," + path.longitude(point) + "," + point + "\n");
+                }
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry(GtfsImporter.STOPS));
+            out.write("stop_id,stop_name,stop_lat,stop_lon\n");
+            Coordinates stops = generatePoints(routeCount * MARKERS_PER_LINE, random);
+            for (int stop = 0; stop < stops.size(); stop++) {
+                out.write("P" + stop + ",\"Stop " + stop + ", Main St\"," + stops.latitude(stop) + ","
+                        + stops.longitude(stop) + "\n");
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generate polylines.csv content holding a single line made of latLngPoint rows only.
+     */
+    static String generateLatLngPointCsv(String lineKeyword, int rowCount, long seed) {
+        Coordinates path = generatePath(rowCount, new Random(seed));
+        StringBuilder csv = new StringBuilder(rowCount * 48);
+        for (int point = 0; point < rowCount; point++) {
+            csv.append(lineKeyword).append(", ").append(RouteDataset.LAT_LNG_POINT).append(", ")
+                    .append(path.latitude(point)).append(", ").append(path.longitude(point)).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Generate a random walk path with 5 decimal coordinates, as an encoded path would hold.
+     */
+    static Coordinates generatePath(int pointCount, Random random) {
+        Coordinates path = new Coordinates(pointCount);
+        double latitude = CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_DEGREES;
+        double longitude = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_DEGREES;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < pointCount; i++) {
+            path.add(round5(latitude), round5(longitude));
+            // Mostly straight with some turns, like a road.
+            heading += (random.nextDouble() - 0.5) * 0.6;
+            double step = random.nextDouble() * MAX_STEP_DEGREES;
+            latitude += Math.sin(heading) * step;
+            longitude += Math.cos(heading) * step;
+        }
+        return path;
+    }
+
+    /**
+     * Generate uniformly spread points over the generated network area.
+     */
+    static Coordinates generatePoints(int pointCount, Random random) {
+        Coordinates points = new Coordinates(pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            points.add(CENTER_LATITUDE + (random.nextDouble() - 0.5) * SPREAD_DEGREES,
+                    CENTER_LONGITUDE + (random.nextDouble() - 0.5) * SPREAD_DEGREES);
+        }
+        return points;
+    }
+
+    private static double round5(double value) {
+        return Math.round(value * 1e5) / 1e5;
+    }
+}
@@ -0,0 +1,109 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping the fixes of a vehicle driving along its line: searching the grid for every fix,
+ * tracking from the previous match, and the linear scan of all segments they replace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class RouteMatcherBenchmark {
+
+    private static final int LINE_COUNT = 10;
+
+    /**
+     * GPS noise of the fixes, in degrees, about 5 m.
+     */
+    private static final double NOISE_DEGREES = 0.00005;
+
+    @Param({"1000", "10000", "100000"})
+    public int pointsPerLine;
+
+    private Map<String, RouteMeasure> mMeasures;
+    private Coordinates mPath;
+    private Coordinates mFixes;
+    private RouteMatcher mMatcher;
+    private RouteMatcher.Tracker mTracker;
+    private final RouteMatcher.Match mMatch = new RouteMatcher.Match();
+    private int mFix;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(RouteCsvParseBenchmark.SEED);
+        mMeasures = new LinkedHashMap<>();
+        for (int line = 0; line < LINE_COUNT; line++) {
+            mPath = RouteDataGenerator.generatePath(pointsPerLine, random);
+            mMeasures.put(RouteDataGenerator.lineKeyword(line), new RouteMeasure(mPath, new Coordinates(0)));
+        }
+        mMatcher = RouteMatcher.build(mMeasures);
+        mTracker = mMatcher.newTracker(RouteDataGenerator.lineKeyword(LINE_COUNT - 1));
+
+        // One fix per point of the last line, in driving order.
+        mFixes = new Coordinates(mPath.size());
+        for (int i = 0; i < mPath.size(); i++) {
+            mFixes.add(mPath.latitude(i) + random.nextGaussian() * NOISE_DEGREES,
+                    mPath.longitude(i) + random.nextGaussian() * NOISE_DEGREES);
+        }
+    }
+
+    @Benchmark
+    public RouteMatcher build() {
+        return RouteMatcher.build(mMeasures);
+    }
+
+    @Benchmark
+    public boolean matchGrid() {
+        int fix = nextFix();
+        return mMatcher.match(RouteDataGenerator.lineKeyword(LINE_COUNT - 1),
+                mFixes.latitude(fix), mFixes.longitude(fix), mMatch);
+    }
+
+    @Benchmark
+    public boolean track() {
+        int fix = nextFix();
+        return mTracker.track(mFixes.latitude(fix), mFixes.longitude(fix));
+    }
+
+    /**
+     * Projecting the fix on every segment of the line, the baseline of the matcher.
+     */
+    @Benchmark
+    public double matchLinearScan() {
+        int fix = nextFix();
+        double latitude = mFixes.latitude(fix);
+        double longitude = mFixes.longitude(fix);
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < mPath.size() - 1; i++) {
+            double ax = (mPath.longitude(i) - longitude) * cosLat;
+            double ay = mPath.latitude(i) - latitude;
+            double dx = (mPath.longitude(i + 1) - longitude) * cosLat - ax;
+            double dy = mPath.latitude(i + 1) - latitude - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+            double px = ax + fraction * dx;
+            double py = ay + fraction * dy;
+            nearest = Math.min(nearest, px * px + py * py);
+        }
+        return nearest;
+    }
+
+    private int nextFix() {
+        mFix = (mFix + 1) % mFixes.size();
+        return mFix;
+    }
+}
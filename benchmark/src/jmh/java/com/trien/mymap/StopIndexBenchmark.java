@@ -0,0 +1,107 @@
+package com.trien.mymap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest stop lookups, against the linear scan they replace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StopIndexBenchmark {
+
+    private static final int NEIGHBOUR_COUNT = 8;
+
+    /**
+     * Radius of the radius query, in meters, a few minutes walk.
+     */
+    private static final double RADIUS_METERS = 400;
+
+    @Param({"1000", "10000", "100000"})
+    public int stopCount;
+
+    private RouteDataset mDataset;
+    private StopIndex mIndex;
+    private Coordinates mQueries;
+    private int mQuery;
+    private final int[] mStops = new int[NEIGHBOUR_COUNT];
+    private final double[] mMeters = new double[NEIGHBOUR_COUNT];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(RouteCsvParseBenchmark.SEED);
+        Coordinates stops = RouteDataGenerator.generatePoints(stopCount, random);
+        mDataset = new RouteDataset(Collections.singletonMap(GtfsImporter.STOPS_KEYWORD,
+                new RouteDataset.Line(GtfsImporter.STOPS_KEYWORD, LineStyle.DEFAULT, new Coordinates(0),
+                        stops, new String[0])), stopCount, 0);
+        mIndex = StopIndex.build(mDataset);
+        mQueries = RouteDataGenerator.generatePoints(1024, random);
+    }
+
+    @Benchmark
+    public StopIndex build() {
+        return StopIndex.build(mDataset);
+    }
+
+    @Benchmark
+    public int nearest() {
+        int query = nextQuery();
+        return mIndex.nearest(mQueries.latitude(query), mQueries.longitude(query));
+    }
+
+    @Benchmark
+    public int nearestK() {
+        int query = nextQuery();
+        return mIndex.nearest(mQueries.latitude(query), mQueries.longitude(query), NEIGHBOUR_COUNT, mStops, mMeters);
+    }
+
+    @Benchmark
+    public int withinRadius() {
+        int query = nextQuery();
+        final int[] count = new int[1];
+        mIndex.withinRadius(mQueries.latitude(query), mQueries.longitude(query), RADIUS_METERS,
+                new StopIndex.Visitor() {
+                    @Override
+                    public void visit(int stop, double meters) {
+                        count[0]++;
+                    }
+                });
+        return count[0];
+    }
+
+    /**
+     * Measuring the distance to every stop, the baseline of the index.
+     */
+    @Benchmark
+    public int nearestLinearScan() {
+        int query = nextQuery();
+        double latitude = mQueries.latitude(query);
+        double longitude = mQueries.longitude(query);
+        int nearest = -1;
+        double nearestMeters = Double.MAX_VALUE;
+        for (int i = 0; i < mIndex.size(); i++) {
+            double meters = StopIndex.distanceMeters(latitude, longitude, mIndex.latitude(i), mIndex.longitude(i));
+            if (meters < nearestMeters) {
+                nearest = i;
+                nearestMeters = meters;
+            }
+        }
+        return nearest;
+    }
+
+    private int nextQuery() {
+        mQuery = (mQuery + 1) % mQueries.size();
+        return mQuery;
+    }
+}